@@ -0,0 +1,129 @@
+package com.hertz.api.transform;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.hertz.api.corebusiness.UpdateRow;
+import com.hertz.rates.common.utils.FastStringTokenizer;
+
+/**
+ * RUM - Time and allocation per row of a Webservice update request, through the tokenizers
+ * (StreamingRequestParser false) and through UpdateRequestParser.
+ *
+ * Each operation is one row, so with -prof gc the gc.alloc.rate.norm column is bytes allocated per
+ * row.  The split benchmarks cut the request into one String per field both ways.  The map
+ * benchmarks also build the UpdateRows, as UpdateDriver.doWebServiceUpdate does: mapBaseline with
+ * the mapper as it was before this work (BaselineUpdateRowMapper), mapTokenizer and mapParser with
+ * the current one.
+ *
+ * Run with: mvn -B -Pjmh test-compile exec:exec
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(UpdateRequestParserBenchmark.ROWS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UpdateRequestParserBenchmark {
+
+    /** Rows in the request. */
+    final static int ROWS = 1000;
+
+    private final static String[] LOCATIONS = { "US00101", "US00102", "US00217", "GB00310", "FR00044" };
+    private final static String[] VEHICLES = { "A", "B", "C", "D", "E", "F", "G", "L" };
+    private final static String[] CLASSES = { "DY", "WE", "WK", "MO" };
+
+    private String request;
+
+    @Setup
+    public void setUp() {
+
+        StringBuilder buffer = new StringBuilder(ROWS * 80);
+        for (int i = 0; i < ROWS; i++) {
+            if (i > 0) {
+                buffer.append('|');
+            }
+            buffer.append(i + 1).append(",HZ,")
+                    .append(LOCATIONS[i % LOCATIONS.length]).append(",Location,NA,")
+                    .append(VEHICLES[i % VEHICLES.length]).append(",BASE,R,")
+                    .append(CLASSES[i % CLASSES.length]).append(",20261101,20261231,")
+                    .append(200 + (i % 50)).append(".00,45.00,15.00");
+        }
+        request = buffer.toString();
+    }
+
+    @Benchmark
+    public void splitTokenizer(Blackhole blackhole) {
+
+        FastStringTokenizer rows = new FastStringTokenizer(request, '|');
+        while (rows.hasMoreTokens()) {
+            FastStringTokenizer fields = new FastStringTokenizer(rows.nextToken(), ',');
+            while (fields.hasMoreTokens()) {
+                blackhole.consume(fields.nextToken());
+            }
+        }
+    }
+
+    @Benchmark
+    public void splitParser(Blackhole blackhole) {
+
+        UpdateRequestParser parser = new UpdateRequestParser(request, UpdateRowMapper.NUMBER_OF_COLUMNS_TO_EXPECT);
+        while (parser.nextRow()) {
+            int fields = parser.getKeptFieldCount();
+            for (int field = 0; field < fields; field++) {
+                blackhole.consume(parser.getField(field));
+            }
+        }
+    }
+
+    @Benchmark
+    public ArrayList<UpdateRow> mapBaseline() {
+
+        BaselineUpdateRowMapper mapper = new BaselineUpdateRowMapper();
+        ArrayList<UpdateRow> rows = new ArrayList<UpdateRow>();
+        FastStringTokenizer inputTokenizer = new FastStringTokenizer(request, '|');
+        while (inputTokenizer.hasMoreTokens()) {
+            rows.add(mapper.convertLineToObject(inputTokenizer.nextToken(), 1));
+        }
+        return rows;
+    }
+
+    @Benchmark
+    public ArrayList<UpdateRow> mapTokenizer() {
+
+        UpdateRowMapper mapper = new UpdateRowMapper();
+        ArrayList<UpdateRow> rows = new ArrayList<UpdateRow>();
+        FastStringTokenizer inputTokenizer = new FastStringTokenizer(request, '|');
+        while (inputTokenizer.hasMoreTokens()) {
+            rows.add(mapper.convertLineToObject(inputTokenizer.nextToken(), 1));
+        }
+        return rows;
+    }
+
+    @Benchmark
+    public ArrayList<UpdateRow> mapParser() {
+
+        UpdateRowMapper mapper = new UpdateRowMapper();
+        ArrayList<UpdateRow> rows = new ArrayList<UpdateRow>();
+        UpdateRequestParser parser = new UpdateRequestParser(request, UpdateRowMapper.NUMBER_OF_COLUMNS_TO_EXPECT);
+        while (parser.nextRow()) {
+            rows.add(mapper.convertRowToObject(parser, 1));
+        }
+        return rows;
+    }
+}
@@ -3,8 +3,6 @@ package com.hertz.api.controller;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
-import org.springframework.web.context.request.RequestContextHolder;
-import org.springframework.web.context.request.ServletRequestAttributes;
 import com.hertz.api.drivers.UpdateDriver;
 import com.hertz.api.models.RatesUpdateRequest;
 import com.hertz.api.models.RatesUpdateResponse;
@@ -12,7 +10,6 @@ import com.hertz.rates.common.utils.logging.HertzLogger;
 import com.hertz.api.metrics.RumMetrics;
 import io.micrometer.core.instrument.MeterRegistry;
 import java.util.concurrent.TimeUnit;
-import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 
 @RestController
@@ -26,23 +23,7 @@ public class RatesUpdateController implements RateOperationsApi {
     public ResponseEntity<RatesUpdateResponse> performRatesUpdate(@Valid @RequestBody RatesUpdateRequest ratesUpdateRequest) throws Exception {
         logger.info("Received bulk update request: " + ratesUpdateRequest.toString());
         
-        // Get the current HTTP request for IP extraction
-        HttpServletRequest httpRequest = getCurrentHttpRequest();
-        String remoteIP = "NO_IP_FOUND";
-        
-        try {
-            // Retrieve the IP address from the request
-            remoteIP = (String) httpRequest.getAttribute("remoteIP");
-            
-            if(null != remoteIP && remoteIP.length() > 0) {
-                String[] splitIPs = remoteIP.split(",\\s*");
-                remoteIP = splitIPs[0].trim();
-            }
-            
-            logger.info("Incoming request IP: " + remoteIP);
-        } catch (Exception ex) {
-            logger.error("IPAddress Capture Error : " + ex.getMessage());
-        }
+        String remoteIP = RemoteIPResolver.getRemoteIP();
 
         try {
             meterRegistry.counter(RumMetrics.METRIC_RUM_RATES_UPDATE).increment();
@@ -79,8 +60,4 @@ public class RatesUpdateController implements RateOperationsApi {
         response.setResponseMessage(responseString);
         return ResponseEntity.ok(response);
     }
-
-    private HttpServletRequest getCurrentHttpRequest() {
-        return ((ServletRequestAttributes) RequestContextHolder.currentRequestAttributes()).getRequest();
-    }
 }
@@ -0,0 +1,79 @@
+package com.hertz.api.controller;
+
+import org.springframework.web.bind.annotation.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import com.hertz.api.corebusiness.RumUpdateJob;
+import com.hertz.api.corebusiness.RumUpdateJobRegistry;
+import com.hertz.api.models.RatesUpdateJobResponse;
+import com.hertz.api.models.RatesUpdateJobResult;
+import com.hertz.api.models.RatesUpdateJobStatus;
+import com.hertz.api.models.RatesUpdateRequest;
+import com.hertz.api.transform.RumUpdateJobMapper;
+import com.hertz.rates.common.utils.logging.HertzLogger;
+import com.hertz.api.metrics.RumMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.concurrent.RejectedExecutionException;
+import jakarta.validation.Valid;
+
+/**
+ * Asynchronous rates update: submit returns the Transaction ID at once, and the caller polls
+ * for progress and the final per-row outcome.  performRatesUpdate stays available for callers
+ * that want to wait for the response.
+ */
+@RestController
+@RequestMapping("/rates/update/jobs")
+public class RatesUpdateJobController {
+    private static final HertzLogger logger = new HertzLogger(RatesUpdateJobController.class);
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @PostMapping
+    public ResponseEntity<RatesUpdateJobResponse> submitRatesUpdate(@Valid @RequestBody RatesUpdateRequest ratesUpdateRequest) {
+        logger.info("Received async bulk update request: " + ratesUpdateRequest.toString());
+
+        String remoteIP = RemoteIPResolver.getRemoteIP();
+
+        try {
+            meterRegistry.counter(RumMetrics.METRIC_RUM_RATES_UPDATE).increment();
+        } catch (Exception e) {
+            logger.error("Dynatrace incrementCounter bulk update counter exception: " + e.getMessage());
+        }
+
+        try {
+            RumUpdateJob job = RumUpdateJobRegistry.getRegistry().submit(ratesUpdateRequest.getRequestString(), remoteIP, meterRegistry);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(RumUpdateJobMapper.toJobResponse(job));
+        } catch (RejectedExecutionException e) {
+            logger.error("Async bulk update refused: too many jobs waiting");
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+    }
+
+    @GetMapping("/{transactionId}")
+    public ResponseEntity<RatesUpdateJobStatus> getRatesUpdateStatus(@PathVariable("transactionId") String transactionId) {
+        RumUpdateJob job = RumUpdateJobRegistry.getRegistry().getJob(transactionId);
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+
+        return ResponseEntity.ok(RumUpdateJobMapper.toStatus(job));
+    }
+
+    @GetMapping("/{transactionId}/results")
+    public ResponseEntity<RatesUpdateJobResult> getRatesUpdateResults(@PathVariable("transactionId") String transactionId) {
+        RumUpdateJob job = RumUpdateJobRegistry.getRegistry().getJob(transactionId);
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+
+        RatesUpdateJobResult result = RumUpdateJobMapper.toResult(job);
+        if (!job.isDone()) {
+            // Still running: tell the caller to come back later.
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(result);
+        }
+
+        return ResponseEntity.ok(result);
+    }
+}
@@ -0,0 +1,43 @@
+package com.hertz.api.controller;
+
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import com.hertz.rates.common.utils.logging.HertzLogger;
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * Finds the client IP of the current HTTP request for logging and metrics.
+ */
+final class RemoteIPResolver {
+    private static final HertzLogger logger = new HertzLogger(RemoteIPResolver.class);
+
+    static final String NO_IP_FOUND = "NO_IP_FOUND";
+
+    private RemoteIPResolver() {
+    }
+
+    /**
+     * Return the first address of the "remoteIP" request attribute, or NO_IP_FOUND.
+     */
+    static String getRemoteIP() {
+        String remoteIP = NO_IP_FOUND;
+
+        try {
+            HttpServletRequest httpRequest = ((ServletRequestAttributes) RequestContextHolder.currentRequestAttributes()).getRequest();
+
+            // Retrieve the IP address from the request
+            remoteIP = (String) httpRequest.getAttribute("remoteIP");
+            
+            if(null != remoteIP && remoteIP.length() > 0) {
+                String[] splitIPs = remoteIP.split(",\\s*");
+                remoteIP = splitIPs[0].trim();
+            }
+            
+            logger.info("Incoming request IP: " + remoteIP);
+        } catch (Exception ex) {
+            logger.error("IPAddress Capture Error : " + ex.getMessage());
+        }
+
+        return remoteIP;
+    }
+}
@@ -1,98 +1,451 @@
 package com.hertz.api.corebusiness;
 
 import java.util.ArrayList;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.hertz.rates.common.utils.logging.HertzLogger;
+import com.hertz.api.metrics.RumMetrics;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 
 /**
- * Thread-safe list of RUM locations.  This implements a cache of places identified by key of their Area Location.
+ * Thread-safe cache of RUM locations.  This implements a cache of places identified by key of their Area Location.
  * 
+ * Lookups are a single map read with no lock.  Entries expire after LocationCacheTtlInMillis so that
+ * place changes are picked up again, and the cache holds at most LocationCacheMaxSize entries:
+ * when it is full the oldest tenth is dropped.
+ *
+ * Misses are single-flight: the first request to miss a location registers a pending lookup and
+ * reads the DB; requests that miss the same location meanwhile wait for that lookup instead of
+ * calling the DB themselves.  A failed lookup is passed to every waiter.
+ *
+ * A location the DB does not know - no place row, or one of the "not found" error codes - is cached
+ * as a negative entry for a short time, so a feed that keeps sending it does not read the DB on every
+ * request.  Any other failure (connection, timeout, locking) is transient and never cached.
+ *
+ * Config Data (WebServicesControl):
+ *   LocationCacheMaxSize     - maximum number of cached Area Locations (default 10000).
+ *   LocationCacheTtlInMillis - time an entry is used before it is read from the DB again (default 24 hours, 0 = never expires).
+ *   LocationNotFoundTtlInMillis - time a negative entry is used (default 5 minutes, 0 = negative entries are not cached).
+ *   LocationNotFoundErrorCodes  - comma separated vendor error codes meaning the location does not exist (default 1403, ORA-01403 no data found).
  *
  */
 public class AreaLocationsToPlaceIdCodeList {
 
     private final static HertzLogger logger = new HertzLogger(AreaLocationsToPlaceIdCodeList.class);
 
-    /** List of RUM Location information objects */
-    private ArrayList<RumLocationInfo> locations;
+    private final static int DEFAULT_MAX_SIZE = 10000;
+    private final static long DEFAULT_TTL_IN_MILLIS = (24L * 60L * 60L * 1000L);
+    private final static long DEFAULT_NOT_FOUND_TTL_IN_MILLIS = (5L * 60L * 1000L);
+    private final static String DEFAULT_NOT_FOUND_ERROR_CODES = "1403";
+
+    /** Share of the entries dropped when the cache is full. */
+    private final static int EVICTION_DIVISOR = 10;
+
+    /** RUM Location information keyed by Area Location */
+    private final ConcurrentHashMap<String, CacheEntry> locations = new ConcurrentHashMap<String, CacheEntry>();
+
+    /** DB lookups in progress keyed by Area Location */
+    private final ConcurrentHashMap<String, CompletableFuture<RumLocationInfo>> pendingLookups = new ConcurrentHashMap<String, CompletableFuture<RumLocationInfo>>();
+
+    private final int maxSize;
+    private final long ttlInMillis;
+    private final long notFoundTtlInMillis;
+    private final Set<Integer> notFoundErrorCodes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong sharedLookups = new AtomicLong();
+    private final AtomicLong notFoundLoads = new AtomicLong();
+
+    private volatile MeterRegistry boundRegistry = null;
+
+    /**
+     * Constructor
+     */
+    public AreaLocationsToPlaceIdCodeList() {
+
+        this(WebServicesControlConfig.getInt("LocationCacheMaxSize", DEFAULT_MAX_SIZE),
+                WebServicesControlConfig.getLong("LocationCacheTtlInMillis", DEFAULT_TTL_IN_MILLIS),
+                WebServicesControlConfig.getLong("LocationNotFoundTtlInMillis", DEFAULT_NOT_FOUND_TTL_IN_MILLIS),
+                WebServicesControlConfig.getString("LocationNotFoundErrorCodes", DEFAULT_NOT_FOUND_ERROR_CODES));
+    }
+
+    /**
+     * Constructor
+     * @param maxSize
+     * @param ttlInMillis 0 or less for entries that never expire.
+     * @param notFoundTtlInMillis 0 or less to not cache negative entries.
+     * @param notFoundErrorCodes comma separated vendor error codes meaning the location does not exist.
+     */
+    public AreaLocationsToPlaceIdCodeList(int maxSize, long ttlInMillis, long notFoundTtlInMillis, String notFoundErrorCodes) {
+
+        this.maxSize = Math.max(1, maxSize);
+        this.ttlInMillis = ttlInMillis;
+        this.notFoundTtlInMillis = notFoundTtlInMillis;
+        this.notFoundErrorCodes = parseErrorCodes(notFoundErrorCodes);
+
+        logger.info("Area Location cache - max size: " + this.maxSize + " ttl: " + this.ttlInMillis + " ms. not found ttl: " + this.notFoundTtlInMillis
+                + " ms. not found codes: " + this.notFoundErrorCodes);
+    }
 
-    
+    /**
+     * Return a copy of the cached RUM Location information.
+     * @return
+     */
     public ArrayList<RumLocationInfo> getLocations() {
 
-        return locations;
+        ArrayList<RumLocationInfo> list = new ArrayList<RumLocationInfo>(locations.size());
+
+        Iterator<CacheEntry> iter = locations.values().iterator();
+        while (iter.hasNext()) {
+            list.add(iter.next().info);
+        }
+
+        return list;
     }
 
     /**
-     * Add RUM Location information to the list.
+     * Add RUM Location information to the cache.  A live entry for the same Area Location is kept.
      * @param info
      */
-    public synchronized void addLocation(RumLocationInfo info) {
+    public void addLocation(RumLocationInfo info) {
 
-        try {
-            if (locations == null) {
-                locations = new ArrayList<RumLocationInfo>();
-            }
+        addEntry(info, ttlInMillis);
+    }
 
-            if (!isLocationInList(info.getAreaLocation())) {
-                locations.add(info);
-            }
+    /**
+     * Add a negative entry for an Area Location the DB does not know.  It is used for
+     * LocationNotFoundTtlInMillis and then read from the DB again.
+     * @param info the lookup result, with its exception if there was one.
+     */
+    public void addNotFoundLocation(RumLocationInfo info) {
+
+        if (notFoundTtlInMillis <= 0) {
+            return;
         }
-        catch (Exception e) {
-            logger.debug("Error loading cache", e);
+
+        if (addEntry(info, notFoundTtlInMillis)) {
+            notFoundLoads.incrementAndGet();
         }
     }
 
     /**
-     * Return true if this Area Location is cached.
-     * @param areaLocation
+     * Return true if the lookup result means the location does not exist: no place was found,
+     * or the lookup failed with one of the "not found" error codes.  Other failures are transient.
+     * @param info
      * @return
      */
-    public synchronized boolean isLocationInList(String areaLocation) {
+    public boolean isNotFound(RumLocationInfo info) {
+
+        Exception exception = info.getException();
+        if (exception == null) {
+            return (info.getPlaceIdCode() == null);
+        }
+
+        Throwable cause = exception;
+        while (cause != null) {
+            if (cause instanceof SQLException && notFoundErrorCodes.contains(Integer.valueOf(((SQLException) cause).getErrorCode()))) {
+                return true;
+            }
+            cause = (cause.getCause() != cause) ? cause.getCause() : null;
+        }
+
+        return false;
+    }
+
+    /**
+     * Cache an entry with its time to live.
+     * @param info
+     * @param entryTtlInMillis
+     * @return true if the entry was added.
+     */
+    private boolean addEntry(RumLocationInfo info, long entryTtlInMillis) {
 
         try {
-            if (locations != null) {
-                Iterator<RumLocationInfo> iter = locations.iterator();
-                while (iter.hasNext()) {
-                    RumLocationInfo infoFromList = iter.next();
-                    if (infoFromList.equals(areaLocation)) {
-                        return true;
-                    }
+            String areaLocation = info.getAreaLocation();
+            long now = System.currentTimeMillis();
+
+            CacheEntry current = locations.get(areaLocation);
+            if (current != null && !current.isExpired(now)) {
+                return false;
+            }
+
+            if (current == null && locations.size() >= maxSize) {
+                evict(now);
+            }
+
+            CacheEntry entry = new CacheEntry(info, now, entryTtlInMillis);
+            if (current == null) {
+                if (locations.putIfAbsent(areaLocation, entry) == null) {
+                    loads.incrementAndGet();
+                    return true;
                 }
             }
+            else if (locations.replace(areaLocation, current, entry)) {
+                loads.incrementAndGet();
+                return true;
+            }
         }
         catch (Exception e) {
             logger.debug("Error loading cache", e);
-            return false;
         }
 
         return false;
     }
 
     /**
-     * Return the RUM Location information for the specified Area Location.
+     * Parse the "not found" error codes.  Codes that are not numbers are logged and ignored.
+     * @param errorCodes
+     * @return
+     */
+    private static Set<Integer> parseErrorCodes(String errorCodes) {
+
+        Set<Integer> codes = new HashSet<Integer>();
+        if (errorCodes == null) {
+            return codes;
+        }
+
+        String[] tokens = errorCodes.split(",");
+        for (int i = 0; i < tokens.length; i++) {
+            String token = tokens[i].trim();
+            if (token.length() == 0) {
+                continue;
+            }
+            try {
+                codes.add(Integer.valueOf(token));
+            }
+            catch (NumberFormatException e) {
+                logger.warn("Ignoring invalid LocationNotFoundErrorCodes value: " + token);
+            }
+        }
+
+        return codes;
+    }
+
+    /**
+     * Return true if this Area Location is cached.
+     * @param areaLocation
+     * @return
+     */
+    public boolean isLocationInList(String areaLocation) {
+
+        return (getEntry(areaLocation) != null);
+    }
+
+    /**
+     * Return the RUM Location information for the specified Area Location, or null if it is not cached.
      * @param areaLocationNumber
      * @return
      */
-    public synchronized RumLocationInfo getRumLocationInfo(String areaLocationNumber) {
+    public RumLocationInfo getRumLocationInfo(String areaLocationNumber) {
 
-        try {
-            if (locations != null) {
-                Iterator<RumLocationInfo> iter = locations.iterator();
-                while (iter.hasNext()) {
-                    RumLocationInfo infoFromList = iter.next();
-                    if (infoFromList.equals(areaLocationNumber)) {
-                        return infoFromList;
-                    }
+        CacheEntry entry = getEntry(areaLocationNumber);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        hits.incrementAndGet();
+        return entry.info;
+    }
+
+    /**
+     * Register a DB lookup for an Area Location that missed the cache.
+     * 
+     * If no lookup is pending for it, the one passed in is registered and returned: the caller
+     * owns it and must end it with completeLookup or failLookup.  Otherwise the pending lookup
+     * is returned and the caller waits for it.
+     * 
+     * @param areaLocation
+     * @param lookup a new, incomplete lookup
+     * @return the lookup to use for this Area Location
+     */
+    public CompletableFuture<RumLocationInfo> joinLookup(String areaLocation, CompletableFuture<RumLocationInfo> lookup) {
+
+        CompletableFuture<RumLocationInfo> pending = pendingLookups.putIfAbsent(areaLocation, lookup);
+        if (pending != null) {
+            sharedLookups.incrementAndGet();
+            return pending;
+        }
+
+        // Finished by another request between the cache miss and now.
+        CacheEntry entry = getEntry(areaLocation);
+        if (entry != null) {
+            pendingLookups.remove(areaLocation, lookup);
+            lookup.complete(entry.info);
+        }
+
+        return lookup;
+    }
+
+    /**
+     * End an owned lookup with its result.  The result is cached before the lookup is removed, so
+     * later requests find it in the cache: a place for LocationCacheTtlInMillis, a location the DB
+     * does not know for LocationNotFoundTtlInMillis.  Transient failures are not cached.
+     * @param areaLocation
+     * @param lookup
+     * @param info
+     */
+    public void completeLookup(String areaLocation, CompletableFuture<RumLocationInfo> lookup, RumLocationInfo info) {
+
+        if (isNotFound(info)) {
+            addNotFoundLocation(info);
+        }
+        else if (info.getException() == null) {
+            addLocation(info);
+        }
+
+        pendingLookups.remove(areaLocation, lookup);
+        lookup.complete(info);
+    }
+
+    /**
+     * End an owned lookup that could not be done.  Nothing is cached.
+     * @param areaLocation
+     * @param lookup
+     * @param e
+     */
+    public void failLookup(String areaLocation, CompletableFuture<RumLocationInfo> lookup, Exception e) {
+
+        pendingLookups.remove(areaLocation, lookup);
+        lookup.completeExceptionally(e);
+    }
+
+    /**
+     * Return the live entry for the Area Location.  An expired entry is removed.
+     * @param areaLocation
+     * @return
+     */
+    private CacheEntry getEntry(String areaLocation) {
+
+        if (areaLocation == null) {
+            return null;
+        }
+
+        CacheEntry entry = locations.get(areaLocation);
+        if (entry != null && entry.isExpired(System.currentTimeMillis())) {
+            locations.remove(areaLocation, entry);
+            return null;
+        }
+
+        return entry;
+    }
+
+    /**
+     * Make room: drop expired entries, then the oldest tenth if the cache is still full.
+     * @param now
+     */
+    private synchronized void evict(long now) {
+
+        if (locations.size() < maxSize) {
+            // Another thread made room.
+            return;
+        }
+
+        int removed = 0;
+
+        Iterator<Map.Entry<String, CacheEntry>> iter = locations.entrySet().iterator();
+        while (iter.hasNext()) {
+            if (iter.next().getValue().isExpired(now)) {
+                iter.remove();
+                removed++;
+            }
+        }
+
+        if (locations.size() >= maxSize) {
+            long[] loadTimes = new long[locations.size()];
+            int count = 0;
+
+            Iterator<CacheEntry> valueIter = locations.values().iterator();
+            while (valueIter.hasNext() && count < loadTimes.length) {
+                loadTimes[count++] = valueIter.next().loadTime;
+            }
+            Arrays.sort(loadTimes, 0, count);
+            long oldestToKeep = loadTimes[Math.min(count - 1, Math.max(1, count / EVICTION_DIVISOR))];
+
+            int toRemove = Math.max(1, count / EVICTION_DIVISOR);
+            iter = locations.entrySet().iterator();
+            while (iter.hasNext()) {
+                if (iter.next().getValue().loadTime < oldestToKeep) {
+                    iter.remove();
+                    removed++;
                 }
             }
+
+            // Entries loaded in the same millisecond: drop any of them.
+            iter = locations.entrySet().iterator();
+            while (removed < toRemove && iter.hasNext()) {
+                iter.next();
+                iter.remove();
+                removed++;
+            }
         }
-        catch (Exception e) {
-            logger.debug("Error loading cache", e);
-            return null;
 
+        evictions.addAndGet(removed);
+        logger.info("Area Location cache full at " + maxSize + " - removed " + removed + " entries");
+    }
+
+    /**
+     * Register size, hit, miss, load, eviction, shared lookup and negative entry metrics.  Safe to call repeatedly.
+     * @param meterRegistry
+     */
+    public void registerMetrics(MeterRegistry meterRegistry) {
+
+        if (meterRegistry == null || meterRegistry == boundRegistry) {
+            return;
+        }
+
+        synchronized (this) {
+            if (meterRegistry == boundRegistry) {
+                return;
+            }
+
+            Gauge.builder(RumMetrics.METRIC_RUM_LOCATION_CACHE_SIZE, locations, Map::size).register(meterRegistry);
+            FunctionCounter.builder(RumMetrics.METRIC_RUM_LOCATION_CACHE_HIT_COUNT, hits, AtomicLong::get).register(meterRegistry);
+            FunctionCounter.builder(RumMetrics.METRIC_RUM_LOCATION_CACHE_MISS_COUNT, misses, AtomicLong::get).register(meterRegistry);
+            FunctionCounter.builder(RumMetrics.METRIC_RUM_LOCATION_CACHE_LOAD_COUNT, loads, AtomicLong::get).register(meterRegistry);
+            FunctionCounter.builder(RumMetrics.METRIC_RUM_LOCATION_CACHE_EVICTION_COUNT, evictions, AtomicLong::get).register(meterRegistry);
+            FunctionCounter.builder(RumMetrics.METRIC_RUM_LOCATION_CACHE_SHARED_LOOKUP_COUNT, sharedLookups, AtomicLong::get).register(meterRegistry);
+            Gauge.builder(RumMetrics.METRIC_RUM_LOCATION_CACHE_PENDING_LOOKUPS, pendingLookups, Map::size).register(meterRegistry);
+            FunctionCounter.builder(RumMetrics.METRIC_RUM_LOCATION_CACHE_NOT_FOUND_LOAD_COUNT, notFoundLoads, AtomicLong::get).register(meterRegistry);
+
+            boundRegistry = meterRegistry;
+        }
+    }
+
+    /**
+     * Cached RUM Location information, when it was read from the DB and how long it is used.
+     */
+    private static final class CacheEntry {
+
+        private final RumLocationInfo info;
+        private final long loadTime;
+        private final long entryTtlInMillis;
+
+        private CacheEntry(RumLocationInfo info, long loadTime, long entryTtlInMillis) {
+
+            this.info = info;
+            this.loadTime = loadTime;
+            this.entryTtlInMillis = entryTtlInMillis;
+        }
+
+        private boolean isExpired(long now) {
+
+            return (entryTtlInMillis > 0) && ((now - loadTime) >= entryTtlInMillis);
         }
-        return null;
     }
 }
 
@@ -0,0 +1,65 @@
+package com.hertz.api.corebusiness;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import com.hertz.rates.common.utils.logging.HertzLogger;
+
+/**
+ * A stored procedure call in progress for a RumUpdateGroup, which another thread can cancel.
+ *
+ * The helper registers the call on its group while the statement runs.  A caller that gives up
+ * on the group (the wait timeout in UpdateDriver, the dead thread check) cancels it, so the DB
+ * work stops and the connection and row locks are released instead of being held until the
+ * procedure ends on its own.
+ *
+ */
+public class CancellableCall {
+
+    private final static HertzLogger logger = new HertzLogger(CancellableCall.class);
+
+    private final Statement statement;
+    private final long timeoutInMillis;
+    private volatile String cancelReason = null;
+
+    /**
+     * Constructor
+     * @param statement
+     * @param timeoutInMillis time the call was given, for reporting.
+     */
+    public CancellableCall(Statement statement, long timeoutInMillis) {
+
+        this.statement = statement;
+        this.timeoutInMillis = timeoutInMillis;
+    }
+
+    /**
+     * Ask the DB to stop the call.  The thread running it gets an SQLException back.
+     * @param reason
+     */
+    public void cancel(String reason) {
+
+        cancelReason = reason;
+        try {
+            statement.cancel();
+        }
+        catch (SQLException e) {
+            logger.error("Unable to cancel stored procedure call (" + reason + "): " + e.getMessage());
+        }
+    }
+
+    public boolean isCancelled() {
+
+        return (cancelReason != null);
+    }
+
+    public String getCancelReason() {
+
+        return cancelReason;
+    }
+
+    public long getTimeoutInMillis() {
+
+        return timeoutInMillis;
+    }
+}
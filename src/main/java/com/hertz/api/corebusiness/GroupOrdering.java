@@ -0,0 +1,153 @@
+package com.hertz.api.corebusiness;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.hertz.rates.common.utils.logging.HertzLogger;
+import com.hertz.api.corebusiness.execution.SmoothedAverage;
+
+/**
+ * Chooses the order in which the threads of one update are queued.
+ *
+ * INPUT queues them in the order of the request.  LARGEST_FIRST queues the most expensive groups
+ * first, so a long group at the end of a request does not start after all the short ones and set
+ * the time of the whole update.  The cost of a group is its number of changes times the recent
+ * time per change of its Place/Plan, or of all calls if its Place/Plan has not been seen yet.
+ * The chunks of a group split for its calls share a Place/Plan: they are costed together and stay
+ * in the order they were cut.  Groups of equal cost keep their input order.
+ *
+ * Config Data (WebServicesControl):
+ *   WebServiceGroupOrdering - INPUT or LARGEST_FIRST for Webservice updates (default INPUT).
+ *   FileGroupOrdering       - INPUT or LARGEST_FIRST for File-based updates (default INPUT).
+ *
+ */
+public class GroupOrdering {
+
+    private final static HertzLogger logger = new HertzLogger(GroupOrdering.class);
+
+    public final static String WEBSERVICE_PATH = "WebService";
+    public final static String FILE_PATH = "File";
+
+    public enum Policy {
+        INPUT,
+        LARGEST_FIRST
+    }
+
+    /** Weight of the newest call in the recent time per change. */
+    private final static double LATENCY_SMOOTHING = 0.2;
+
+    /** Place/Plans remembered; the history starts over beyond this. */
+    private final static int MAX_KEYS = 10000;
+
+    /** Recent time per change in milliseconds, by Place/Plan. */
+    private final static ConcurrentHashMap<String, SmoothedAverage> millisPerChangeByKey = new ConcurrentHashMap<String, SmoothedAverage>();
+
+    /** Recent time per change in milliseconds of all calls. */
+    private final static SmoothedAverage millisPerChange = new SmoothedAverage(LATENCY_SMOOTHING, 1.0);
+
+    /**
+     * Return the ordering configured for the path.
+     * @param path WEBSERVICE_PATH or FILE_PATH.
+     * @return
+     */
+    public static Policy getPolicy(String path) {
+
+        String value = WebServicesControlConfig.getString(path + "GroupOrdering", Policy.INPUT.name());
+        try {
+            return Policy.valueOf(value.trim().toUpperCase());
+        }
+        catch (IllegalArgumentException e) {
+            logger.warn("Unknown " + path + "GroupOrdering: " + value + " - using " + Policy.INPUT);
+            return Policy.INPUT;
+        }
+    }
+
+    /**
+     * Return the threads in the order they should be queued for the path.
+     * @param threadList
+     * @param path
+     * @return threadList itself for INPUT, otherwise a sorted copy.
+     */
+    public static ArrayList<UpdateThread> order(ArrayList<UpdateThread> threadList, String path) {
+
+        if (getPolicy(path) == Policy.INPUT || threadList.size() < 2) {
+            return threadList;
+        }
+
+        // Cost of each Place/Plan, read once: calls finishing during the sort keep moving the averages.
+        int size = threadList.size();
+        String[] keys = new String[size];
+        HashMap<String, Double> costByKey = new HashMap<String, Double>();
+        for (int i = 0; i < size; i++) {
+            UpdateThread updateThread = threadList.get(i);
+            keys[i] = getKey(updateThread.getUpdateGroup());
+            costByKey.merge(keys[i], estimateCostInMillis(updateThread), Double::sum);
+        }
+
+        final double[] costs = new double[size];
+        Integer[] positions = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            costs[i] = costByKey.get(keys[i]);
+            positions[i] = i;
+        }
+
+        // Stable: threads of equal cost, among them the chunks of one group, keep their input order.
+        Arrays.sort(positions, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Double.compare(costs[b], costs[a]);
+            }
+        });
+
+        ArrayList<UpdateThread> ordered = new ArrayList<UpdateThread>(size);
+        for (int i = 0; i < size; i++) {
+            ordered.add(threadList.get(positions[i]));
+        }
+
+        return ordered;
+    }
+
+    /**
+     * Estimated time of the thread's DB call.
+     * @param updateThread
+     * @return
+     */
+    public static double estimateCostInMillis(UpdateThread updateThread) {
+
+        RumUpdateGroup group = updateThread.getUpdateGroup();
+        int changes = (group.getChangeDetails() == null) ? 0 : group.getChangeDetails().size();
+
+        SmoothedAverage keyMillisPerChange = millisPerChangeByKey.get(getKey(group));
+        double perChange = (keyMillisPerChange != null ? keyMillisPerChange : millisPerChange).get();
+
+        return changes * perChange;
+    }
+
+    /**
+     * Record the duration of a group's DB call.
+     * @param group
+     * @param changes
+     * @param durationInMillis
+     */
+    public static void recordCall(RumUpdateGroup group, int changes, long durationInMillis) {
+
+        if (changes <= 0 || durationInMillis < 0L) {
+            return;
+        }
+
+        double perChange = (double) durationInMillis / changes;
+        millisPerChange.add(perChange);
+
+        if (millisPerChangeByKey.size() >= MAX_KEYS) {
+            millisPerChangeByKey.clear();
+        }
+        millisPerChangeByKey.computeIfAbsent(getKey(group), k -> new SmoothedAverage(LATENCY_SMOOTHING, 0.0)).add(perChange);
+    }
+
+    private static String getKey(RumUpdateGroup group) {
+
+        return group.getPlaceIdCdToUse() + "|" + group.getPlanId() + "|" + group.getClassTimeCode();
+    }
+}
@@ -0,0 +1,259 @@
+package com.hertz.api.corebusiness;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.hertz.rates.common.utils.logging.HertzLogger;
+import com.hertz.api.metrics.RumMetrics;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Retries the rows of a Place/Plan group that the DB reported as locked.
+ *
+ * When an UpdateThread finishes with locked rows, only those rows are sent again, in a new
+ * UpdateThread, after a jittered exponential backoff.  The wait is a timer entry: the group gives
+ * back its permit before waiting and takes a new one (through its Resubmitter) when the timer
+ * fires, so waiting retries do not hold an execution slot.  The original thread is finished when
+ * its last retry is, so callers waiting on it see the final outcome of every row.
+ *
+ * A retry is only scheduled if it can start before the group's deadline, and is dropped if the
+ * caller gives up on the thread (see UpdateThread.abandon) before it starts.
+ *
+ * Config Data (WebServicesControl):
+ *   LockedRetryMaxAttempts       - retries per group (default 3, 0 = no retries).
+ *   LockedRetryBaseDelayInMillis - backoff before the first retry (default 200).
+ *   LockedRetryMaxDelayInMillis  - longest backoff (default 5000).
+ *
+ */
+public class LockedGroupRetryScheduler {
+
+    private final static HertzLogger logger = new HertzLogger(LockedGroupRetryScheduler.class);
+
+    private final static int DEFAULT_MAX_ATTEMPTS = 3;
+    private final static long DEFAULT_BASE_DELAY_IN_MILLIS = 200L;
+    private final static long DEFAULT_MAX_DELAY_IN_MILLIS = 5000L;
+
+    /**
+     * Puts a retry thread back where its group runs: the Webservice Thread Manager or the file's governor.
+     */
+    public interface Resubmitter {
+
+        public void resubmit(UpdateThread retryThread);
+    }
+
+    /** Singleton */
+    private static volatile LockedGroupRetryScheduler schedulerSingleton = null;
+
+    private final ScheduledThreadPoolExecutor timer;
+    private final int maxAttempts;
+    private final long baseDelayInMillis;
+    private final long maxDelayInMillis;
+
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong recoveredRows = new AtomicLong();
+    private final AtomicLong exhaustedRows = new AtomicLong();
+
+    private volatile MeterRegistry boundRegistry = null;
+
+    /**
+     * Constructor
+     */
+    private LockedGroupRetryScheduler() {
+
+        this.maxAttempts = Math.max(0, WebServicesControlConfig.getInt("LockedRetryMaxAttempts", DEFAULT_MAX_ATTEMPTS));
+        this.baseDelayInMillis = Math.max(1L, WebServicesControlConfig.getLong("LockedRetryBaseDelayInMillis", DEFAULT_BASE_DELAY_IN_MILLIS));
+        this.maxDelayInMillis = Math.max(baseDelayInMillis, WebServicesControlConfig.getLong("LockedRetryMaxDelayInMillis", DEFAULT_MAX_DELAY_IN_MILLIS));
+
+        this.timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "LockedGroupRetry");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.timer.setRemoveOnCancelPolicy(true);
+
+        logger.info("Locked group retry - attempts: " + maxAttempts + " delay: " + baseDelayInMillis + " - " + maxDelayInMillis + " ms.");
+    }
+
+    /**
+     * Return the Singleton, creating it on first use.
+     * @return
+     */
+    public static LockedGroupRetryScheduler getScheduler() {
+
+        if (schedulerSingleton == null) {
+            synchronized (LockedGroupRetryScheduler.class) {
+                if (schedulerSingleton == null) {
+                    schedulerSingleton = new LockedGroupRetryScheduler();
+                }
+            }
+        }
+
+        return schedulerSingleton;
+    }
+
+    /**
+     * Called by a finishing UpdateThread.  Schedule a retry of its locked rows if it has any and
+     * another attempt is allowed.
+     * @param updateThread
+     * @return true if a retry was scheduled: the thread must not be marked finished yet.
+     */
+    public boolean scheduleRetry(final UpdateThread updateThread) {
+
+        RumUpdateGroup group = updateThread.getUpdateGroup();
+        ArrayList<RumChangeDetails> lockedDetails = getLockedDetails(group);
+
+        if (updateThread.getAttempt() > 0) {
+            recoveredRows.addAndGet(group.getChangeDetails().size() - lockedDetails.size() - countFailed(group));
+        }
+
+        if (lockedDetails.isEmpty() || maxAttempts == 0 || updateThread.getResubmitter() == null || updateThread.isAbandoned()) {
+            return false;
+        }
+
+        String threadName = describe(updateThread);
+
+        if (updateThread.getAttempt() >= maxAttempts) {
+            exhaustedRows.addAndGet(lockedDetails.size());
+            logger.warn(threadName + " still has " + lockedDetails.size() + " locked rows after " + maxAttempts + " retries");
+            return false;
+        }
+
+        long delay = getDelayInMillis(updateThread.getAttempt());
+        if (group.getRemainingTimeInMillis() <= delay) {
+            exhaustedRows.addAndGet(lockedDetails.size());
+            logger.warn(threadName + " has " + lockedDetails.size() + " locked rows but no time left to retry them");
+            return false;
+        }
+
+        final ArrayList<RumChangeDetails> detailsToRetry = lockedDetails;
+        try {
+            updateThread.setPendingRetry(timer.schedule(new Runnable() {
+                public void run() {
+                    resubmit(updateThread, detailsToRetry);
+                }
+            }, delay, TimeUnit.MILLISECONDS));
+        }
+        catch (RuntimeException e) {
+            logger.error(threadName + " retry could not be scheduled: " + e.getMessage());
+            return false;
+        }
+
+        retries.incrementAndGet();
+        logger.info(threadName + " retrying " + lockedDetails.size() + " locked rows in " + delay + " ms (attempt " + (updateThread.getAttempt() + 1) + ")");
+
+        return true;
+    }
+
+    /**
+     * Send the locked rows again in a new thread, which finishes the original one when it is done.
+     * @param updateThread
+     * @param lockedDetails
+     */
+    private void resubmit(UpdateThread updateThread, ArrayList<RumChangeDetails> lockedDetails) {
+
+        if (updateThread.isAbandoned()) {
+            // The caller has given up and reported the rows as they were: leave them alone.
+            logger.info(describe(updateThread) + " abandoned, retry dropped");
+            return;
+        }
+
+        RumUpdateGroup retryGroup = updateThread.getUpdateGroup().newRetryGroup(lockedDetails);
+        UpdateThread retryThread = updateThread.newRetryThread(retryGroup);
+
+        try {
+            updateThread.getResubmitter().resubmit(retryThread);
+        }
+        catch (RuntimeException e) {
+            logger.error(describe(updateThread) + " retry could not be started: " + e.getMessage());
+            retryGroup.addErrorMessageToDetails(e);
+            retryThread.setFinishedWithUpdate(true);
+        }
+    }
+
+    /**
+     * Backoff before the given attempt: doubles each time up to the maximum, with the upper half
+     * chosen at random so that groups locked together do not retry together.
+     * @param attempt retries already made.
+     * @return
+     */
+    private long getDelayInMillis(int attempt) {
+
+        long delay = baseDelayInMillis << Math.min(attempt, 20);
+        delay = Math.min(delay, maxDelayInMillis);
+
+        return (delay / 2) + ThreadLocalRandom.current().nextLong((delay / 2) + 1);
+    }
+
+    private static ArrayList<RumChangeDetails> getLockedDetails(RumUpdateGroup group) {
+
+        ArrayList<RumChangeDetails> lockedDetails = new ArrayList<RumChangeDetails>();
+
+        if (group.getChangeDetails() != null) {
+            Iterator<RumChangeDetails> iter = group.getChangeDetails().iterator();
+            while (iter.hasNext()) {
+                RumChangeDetails details = iter.next();
+                if (details.isLocked()) {
+                    lockedDetails.add(details);
+                }
+            }
+        }
+
+        return lockedDetails;
+    }
+
+    private static int countFailed(RumUpdateGroup group) {
+
+        int failed = 0;
+
+        Iterator<RumChangeDetails> iter = group.getChangeDetails().iterator();
+        while (iter.hasNext()) {
+            RumChangeDetails details = iter.next();
+            if (!details.isLocked() && details.getException() != null) {
+                failed++;
+            }
+        }
+
+        return failed;
+    }
+
+    private static String describe(UpdateThread updateThread) {
+
+        if (updateThread.getTransactionId() != null) {
+            return "<WS> Trans ID: " + updateThread.getTransactionId() + " index: " + updateThread.getIndex();
+        }
+
+        return "<FB> File: " + updateThread.getFileName() + " index: " + updateThread.getIndex();
+    }
+
+    /**
+     * Register retry, recovered row and exhausted row counters.  Safe to call repeatedly.
+     * @param meterRegistry
+     */
+    public void registerMetrics(MeterRegistry meterRegistry) {
+
+        if (meterRegistry == null || meterRegistry == boundRegistry) {
+            return;
+        }
+
+        synchronized (this) {
+            if (meterRegistry == boundRegistry) {
+                return;
+            }
+
+            FunctionCounter.builder(RumMetrics.METRIC_RUM_LOCKED_RETRY_COUNT, retries, AtomicLong::get).register(meterRegistry);
+            FunctionCounter.builder(RumMetrics.METRIC_RUM_LOCKED_RETRY_RECOVERED_ROW_COUNT, recoveredRows, AtomicLong::get).register(meterRegistry);
+            FunctionCounter.builder(RumMetrics.METRIC_RUM_LOCKED_RETRY_EXHAUSTED_ROW_COUNT, exhaustedRows, AtomicLong::get).register(meterRegistry);
+
+            boundRegistry = meterRegistry;
+        }
+    }
+}
@@ -12,6 +12,10 @@ public class RumChangeDetails {
     
     private HertzDateTime startDate;
     private HertzDateTime endDate;
+
+    // Dates as bound to the update procedure, rendered on first use
+    private String startDateString;
+    private String endDateString;
     
     private String rate;
     private String extraDay;
@@ -48,6 +52,19 @@ public class RumChangeDetails {
     public void setEndDate(HertzDateTime endDate) {
 
         this.endDate = endDate;
+        this.endDateString = null;
+    }
+
+    /**
+     * Return the End Date as toStringDateOnly() renders it, rendering it only once.
+     * @return
+     */
+    public String getEndDateString() {
+
+        if (endDateString == null && endDate != null) {
+            endDateString = endDate.toStringDateOnly();
+        }
+        return endDateString;
     }
 
     public RumErrorCodes getErrorCode() {
@@ -98,6 +115,19 @@ public class RumChangeDetails {
     public void setStartDate(HertzDateTime startDate) {
 
         this.startDate = startDate;
+        this.startDateString = null;
+    }
+
+    /**
+     * Return the Start Date as toStringDateOnly() renders it, rendering it only once.
+     * @return
+     */
+    public String getStartDateString() {
+
+        if (startDateString == null && startDate != null) {
+            startDateString = startDate.toStringDateOnly();
+        }
+        return startDateString;
     }
 
     public String getVehicle() {
@@ -1,7 +1,12 @@
 package com.hertz.api.corebusiness;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import com.hertz.rates.common.utils.HertzDateTime;
 import com.hertz.api.corebusiness.errorcodes.RumErrorCodes;
@@ -29,10 +34,31 @@ public class RumUpdateGroup {
     
     /** List of changes: each for a single Date Span/Vehicle */
     private ArrayList<RumChangeDetails> changeDetails;
+
+    /** Change details by Vehicle/Start Date/End Date, in list order, for matching stored procedure results. */
+    private HashMap<DetailKey, ArrayDeque<RumChangeDetails>> changeDetailIndex;
     
     private String timeToPurge;
     private boolean processed = false;
 
+    /** Time (epoch millis) by which the DB work of this group must be done; 0 for no deadline. */
+    private long deadline = 0L;
+
+    /** Stored procedure call running for this group, if any. */
+    private volatile CancellableCall activeCall = null;
+
+    /** Why the caller gave up on this group, or null.  Once set no call is started for it and no result is taken from one. */
+    private volatile String abandonReason = null;
+
+    /** Group this group is a chunk of, or null. */
+    private RumUpdateGroup chunkOf = null;
+
+    /** Chunks this group was split into for separate calls, or null. */
+    private ArrayList<RumUpdateGroup> chunks = null;
+
+    /** Number of changes of each transaction, if this group holds the changes of several (see WriteCoalescer). */
+    private LinkedHashMap<String, Integer> transactionDetailCounts = null;
+
     /**
      * Constructor
      * @param fileName
@@ -60,6 +86,10 @@ public class RumUpdateGroup {
     public void setProcessed(boolean threadCreated) {
 
         this.processed = threadCreated;
+
+        if (chunkOf != null) {
+            chunkOf.setProcessed(threadCreated);
+        }
     }
 
     public String getLocation() {
@@ -84,6 +114,7 @@ public class RumUpdateGroup {
         }
 
         changeDetails.add(details);
+        changeDetailIndex = null;
     }
 
     public String getPlaceIdCdToUse() {
@@ -202,29 +233,347 @@ public class RumUpdateGroup {
         return null;
     }
 
+    /**
+     * Return the first change detail with this Vehicle, Start Date and End Date that has no response yet.
+     * Uses the index, building it if the details changed since it was built.
+     * @param vehicleCode
+     * @param startDate Hertz system date
+     * @param endDate Hertz system date
+     * @return
+     */
     public RumChangeDetails getRumChangeDetailByLOKandVehicle(String vehicleCode, int startDate, int endDate) {
 
+        if (changeDetailIndex == null) {
+            buildChangeDetailIndex();
+        }
+
+        ArrayDeque<RumChangeDetails> matches = changeDetailIndex.get(new DetailKey(vehicleCode, startDate, endDate));
+        if (matches == null) {
+            return null;
+        }
+
+        // Answered details stay answered: drop them so the next unanswered one is at the head.
+        while (!matches.isEmpty() && matches.peekFirst().getResponseMessage() != null) {
+            matches.pollFirst();
+        }
+
+        return matches.peekFirst();
+    }
+
+    /**
+     * Index the change details by Vehicle, Start Date and End Date so each stored procedure
+     * result row is matched in constant time.  Called before the stored procedure runs; the
+     * dates are converted once here instead of once per result row.
+     */
+    public void buildChangeDetailIndex() {
+
+        HashMap<DetailKey, ArrayDeque<RumChangeDetails>> index = new HashMap<DetailKey, ArrayDeque<RumChangeDetails>>();
+
         if (this.changeDetails != null) {
             Iterator<RumChangeDetails> iter = changeDetails.iterator();
             while (iter.hasNext()) {
                 RumChangeDetails details = iter.next();
-                if (details.getResponseMessage() == null && details.getVehicle().equals(vehicleCode)) {
-
-                    HertzDateTime detailStartDate = details.getStartDate();
-                    HertzDateTime detailEndDate = details.getEndDate();
-
-                    if (detailStartDate != null && detailEndDate != null) {
-                        int startSystemDate = detailStartDate.getHertzSystemDate();
-                        int endSystemDate = detailEndDate.getHertzSystemDate();
-                        if (startSystemDate == startDate && endSystemDate == endDate) {
-                            return details;
-                        }
-                    }
+
+                HertzDateTime detailStartDate = details.getStartDate();
+                HertzDateTime detailEndDate = details.getEndDate();
+                if (details.getVehicle() == null || detailStartDate == null || detailEndDate == null) {
+                    // Can never match a result row.
+                    continue;
+                }
+
+                DetailKey key = new DetailKey(details.getVehicle(), detailStartDate.getHertzSystemDate(), detailEndDate.getHertzSystemDate());
+                ArrayDeque<RumChangeDetails> matches = index.get(key);
+                if (matches == null) {
+                    matches = new ArrayDeque<RumChangeDetails>(1);
+                    index.put(key, matches);
                 }
+                matches.addLast(details);
             }
         }
 
-        return null;
+        changeDetailIndex = index;
+    }
+
+    /**
+     * New group for a retry of some of this group's changes.  The changes are the same objects, so the
+     * retry's results are seen through this group; their previous result is cleared.
+     * @param detailsToRetry
+     * @return
+     */
+    public RumUpdateGroup newRetryGroup(ArrayList<RumChangeDetails> detailsToRetry) {
+
+        RumUpdateGroup retryGroup = newEmptyGroup();
+        retryGroup.transactionDetailCounts = transactionDetailCounts;
+
+        Iterator<RumChangeDetails> iter = detailsToRetry.iterator();
+        while (iter.hasNext()) {
+            RumChangeDetails details = iter.next();
+            details.setException(null);
+            details.setResponseMessage(null);
+            details.setFailureNumber(null);
+            details.setLocked(false);
+            retryGroup.addChangeDetail(details);
+        }
+
+        return retryGroup;
+    }
+
+    /**
+     * New group holding the changes of several groups for the same Place/Plan, in one stored
+     * procedure call.  The changes are the same objects, so each group sees its own results.
+     * The new group has the attributes of the first group and the earliest deadline.
+     * @param groups groups with the same coalescing key.
+     * @return
+     */
+    public static RumUpdateGroup newCoalescedGroup(List<RumUpdateGroup> groups) {
+
+        RumUpdateGroup coalescedGroup = groups.get(0).newEmptyGroup();
+        coalescedGroup.transactionDetailCounts = new LinkedHashMap<String, Integer>();
+
+        Iterator<RumUpdateGroup> groupIter = groups.iterator();
+        while (groupIter.hasNext()) {
+            RumUpdateGroup group = groupIter.next();
+
+            if (group.deadline > 0L && (coalescedGroup.deadline == 0L || group.deadline < coalescedGroup.deadline)) {
+                coalescedGroup.deadline = group.deadline;
+            }
+
+            if (group.changeDetails != null) {
+                Iterator<RumChangeDetails> iter = group.changeDetails.iterator();
+                while (iter.hasNext()) {
+                    coalescedGroup.addChangeDetail(iter.next());
+                }
+                coalescedGroup.transactionDetailCounts.merge(group.webTransactionId, group.changeDetails.size(), Integer::sum);
+            }
+        }
+
+        return coalescedGroup;
+    }
+
+    /**
+     * New group with this group's Place/Plan attributes and deadline, and no changes.
+     * @return
+     */
+    private RumUpdateGroup newEmptyGroup() {
+
+        RumUpdateGroup group = new RumUpdateGroup(fileName);
+        group.setWebTransactionId(webTransactionId);
+        group.setLocation(location);
+        group.setPlanId(planId);
+        group.setPlanType(planType);
+        group.setPlaceIdCd(placeIdCd);
+        group.setPlaceTypeCode(placeTypeCode);
+        group.setCompanyId(companyId);
+        group.setClassTimeCode(classTimeCode);
+        group.setDeadline(deadline);
+
+        return group;
+    }
+
+    /**
+     * Split this group into chunks of at most maxDetails changes, each sent in its own stored
+     * procedure call.  The changes are the same objects, so this group sees the results of all
+     * the chunks.
+     * By Vehicle, all the changes of a Vehicle go in the same chunk, so chunks never change the
+     * same rows and can run together; a Vehicle with more than maxDetails changes gets a chunk of
+     * its own.  Otherwise the changes are cut in list order.
+     * @param maxDetails
+     * @param byVehicle
+     * @return the chunks, in list order.
+     */
+    public ArrayList<RumUpdateGroup> splitIntoChunks(int maxDetails, boolean byVehicle) {
+
+        chunks = new ArrayList<RumUpdateGroup>();
+
+        if (byVehicle) {
+            LinkedHashMap<String, ArrayList<RumChangeDetails>> detailsByVehicle = new LinkedHashMap<String, ArrayList<RumChangeDetails>>();
+            Iterator<RumChangeDetails> iter = changeDetails.iterator();
+            while (iter.hasNext()) {
+                RumChangeDetails details = iter.next();
+                detailsByVehicle.computeIfAbsent(details.getVehicle(), v -> new ArrayList<RumChangeDetails>()).add(details);
+            }
+
+            RumUpdateGroup chunk = null;
+            Iterator<ArrayList<RumChangeDetails>> vehicleIter = detailsByVehicle.values().iterator();
+            while (vehicleIter.hasNext()) {
+                ArrayList<RumChangeDetails> vehicleDetails = vehicleIter.next();
+                if (chunk == null || chunk.changeDetails.size() + vehicleDetails.size() > maxDetails) {
+                    chunk = newChunk();
+                }
+                Iterator<RumChangeDetails> detailIter = vehicleDetails.iterator();
+                while (detailIter.hasNext()) {
+                    chunk.addChangeDetail(detailIter.next());
+                }
+            }
+        }
+        else {
+            RumUpdateGroup chunk = null;
+            Iterator<RumChangeDetails> iter = changeDetails.iterator();
+            while (iter.hasNext()) {
+                if (chunk == null || chunk.changeDetails.size() >= maxDetails) {
+                    chunk = newChunk();
+                }
+                chunk.addChangeDetail(iter.next());
+            }
+        }
+
+        return chunks;
+    }
+
+    private RumUpdateGroup newChunk() {
+
+        RumUpdateGroup chunk = newEmptyGroup();
+        chunk.changeDetails = new ArrayList<RumChangeDetails>();
+        chunk.chunkOf = this;
+        chunks.add(chunk);
+
+        return chunk;
+    }
+
+    public boolean isChunk() {
+
+        return (chunkOf != null);
+    }
+
+    /**
+     * Return the group this group was split from, or null if it is not a chunk.
+     * @return
+     */
+    public RumUpdateGroup getChunkOf() {
+
+        return chunkOf;
+    }
+
+    /**
+     * Capture times of this group's stored procedure calls, one per chunk if it was split.
+     * @return
+     */
+    public ArrayList<String> getTimesToPurge() {
+
+        ArrayList<String> timesToPurge = new ArrayList<String>(1);
+
+        if (chunks == null) {
+            timesToPurge.add(timeToPurge);
+        }
+        else {
+            Iterator<RumUpdateGroup> iter = chunks.iterator();
+            while (iter.hasNext()) {
+                timesToPurge.add(iter.next().getTimeToPurge());
+            }
+        }
+
+        return timesToPurge;
+    }
+
+    /**
+     * Groups with the same key can be sent in one stored procedure call: every parameter but the
+     * transaction ID and the changes is the same.
+     * @return
+     */
+    public String getCoalescingKey() {
+
+        return companyId + "|" + planId + "|" + planType + "|" + getPlaceIdCdToUse() + "|" + placeTypeCode + "|" + classTimeCode + "|" + isAFileUpdate();
+    }
+
+    /**
+     * Does the other group change a Vehicle and date span that this group changes too?
+     * @param other
+     * @return
+     */
+    public boolean sharesChangeWith(RumUpdateGroup other) {
+
+        if (changeDetailIndex == null) {
+            buildChangeDetailIndex();
+        }
+        if (other.changeDetailIndex == null) {
+            other.buildChangeDetailIndex();
+        }
+
+        Iterator<DetailKey> iter = other.changeDetailIndex.keySet().iterator();
+        while (iter.hasNext()) {
+            if (changeDetailIndex.containsKey(iter.next())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Number of changes of each transaction, in the order the groups were added, or null if this
+     * group holds the changes of its own transaction only.
+     * @return
+     */
+    public Map<String, Integer> getTransactionDetailCounts() {
+
+        return transactionDetailCounts;
+    }
+
+    public long getDeadline() {
+
+        return deadline;
+    }
+
+    public void setDeadline(long deadline) {
+
+        this.deadline = deadline;
+    }
+
+    /**
+     * Time left before the deadline, or Long.MAX_VALUE if the group has none.
+     * @return
+     */
+    public long getRemainingTimeInMillis() {
+
+        if (deadline <= 0L) {
+            return Long.MAX_VALUE;
+        }
+
+        return deadline - System.currentTimeMillis();
+    }
+
+    public CancellableCall getActiveCall() {
+
+        return activeCall;
+    }
+
+    public void setActiveCall(CancellableCall activeCall) {
+
+        this.activeCall = activeCall;
+    }
+
+    /**
+     * Cancel the stored procedure call running for this group, if there is one.
+     * @param reason
+     * @return true if a call was cancelled.
+     */
+    public boolean cancelActiveCall(String reason) {
+
+        CancellableCall call = activeCall;
+        if (call == null) {
+            return false;
+        }
+
+        call.cancel(reason);
+        return true;
+    }
+
+    /**
+     * Give up on this group: cancel its call, and stop any call that has not started or not yet
+     * registered from being run or from changing the details.
+     * @param reason
+     * @return true if a call was cancelled.
+     */
+    public boolean abandon(String reason) {
+
+        abandonReason = reason;
+
+        return cancelActiveCall(reason);
+    }
+
+    public String getAbandonReason() {
+
+        return abandonReason;
     }
 
     public String getTimeToPurge() {
@@ -261,8 +610,8 @@ public class RumUpdateGroup {
                 }
 
                 updateArray[recordCount][0] = details.getSequenceNumber();
-                updateArray[recordCount][1] = details.getStartDate().toStringDateOnly();
-                updateArray[recordCount][2] = details.getEndDate().toStringDateOnly();
+                updateArray[recordCount][1] = details.getStartDateString();
+                updateArray[recordCount][2] = details.getEndDateString();
                 updateArray[recordCount][3] = details.getVehicle();
                 updateArray[recordCount][4] = details.getRate();
                 updateArray[recordCount][5] = details.getExtraDay();
@@ -276,7 +625,11 @@ public class RumUpdateGroup {
         return updateArray;
     }
 
-    private int getNumberOfNonErroredDetails() {
+    /**
+     * Number of changes that will be sent to the DB.
+     * @return
+     */
+    public int getNumberOfNonErroredDetails() {
 
         int numberOfValid = 0;
         if (changeDetails != null) {
@@ -364,6 +717,45 @@ public class RumUpdateGroup {
         
         return s.toString();
     }
+
+    /**
+     * Vehicle, Start Date and End Date of a change detail.
+     */
+    private static final class DetailKey {
+
+        private final String vehicle;
+        private final int startDate;
+        private final int endDate;
+
+        private DetailKey(String vehicle, int startDate, int endDate) {
+
+            this.vehicle = vehicle;
+            this.startDate = startDate;
+            this.endDate = endDate;
+        }
+
+        public boolean equals(Object obj) {
+
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof DetailKey)) {
+                return false;
+            }
+
+            DetailKey other = (DetailKey) obj;
+            return startDate == other.startDate && endDate == other.endDate
+                    && (vehicle == null ? other.vehicle == null : vehicle.equals(other.vehicle));
+        }
+
+        public int hashCode() {
+
+            int hash = (vehicle == null) ? 0 : vehicle.hashCode();
+            hash = 31 * hash + startDate;
+            hash = 31 * hash + endDate;
+            return hash;
+        }
+    }
 }
 
 /*
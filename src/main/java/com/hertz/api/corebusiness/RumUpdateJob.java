@@ -0,0 +1,165 @@
+package com.hertz.api.corebusiness;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * One asynchronous Webservice update, tracked by its Transaction ID.
+ *
+ * UpdateDriver fills in the update list and the threads as it creates them, so the job can
+ * report per Place/Plan progress while the stored procedures run.  The response is the same
+ * text the synchronous call returns.
+ *
+ */
+public class RumUpdateJob {
+
+    public final static String STATUS_QUEUED = "QUEUED";
+    public final static String STATUS_RUNNING = "RUNNING";
+    public final static String STATUS_COMPLETE = "COMPLETE";
+    public final static String STATUS_FAILED = "FAILED";
+
+    private final String transactionId;
+    /** Released once the driver has it, so finished jobs do not hold the request. */
+    private volatile String updateString;
+    private final String clientIP;
+    private final long submitTime;
+
+    private volatile String status = STATUS_QUEUED;
+    private volatile long startTime = 0L;
+    private volatile long endTime = 0L;
+
+    /** Set once the input has been sorted into Place/Plan groups. */
+    private volatile UpdateList updateList = null;
+
+    /** One thread per Place/Plan group, added as UpdateDriver creates them. */
+    private final CopyOnWriteArrayList<UpdateThread> updateThreads = new CopyOnWriteArrayList<UpdateThread>();
+
+    private volatile String responseMessage = null;
+    private volatile String errorMessage = null;
+
+    /**
+     * Constructor
+     * @param transactionId
+     * @param updateString
+     * @param clientIP
+     */
+    public RumUpdateJob(String transactionId, String updateString, String clientIP) {
+
+        this.transactionId = transactionId;
+        this.updateString = updateString;
+        this.clientIP = clientIP;
+        this.submitTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Called when a worker picks up the job.
+     */
+    public void markRunning() {
+
+        startTime = System.currentTimeMillis();
+        status = STATUS_RUNNING;
+    }
+
+    /**
+     * Called when UpdateDriver has returned its response.
+     * @param response
+     */
+    public void complete(String response) {
+
+        responseMessage = response;
+        endTime = System.currentTimeMillis();
+        status = STATUS_COMPLETE;
+    }
+
+    /**
+     * Called if UpdateDriver failed outright.
+     * @param e
+     */
+    public void fail(Exception e) {
+
+        errorMessage = e.getClass().getName() + ": " + e.getMessage();
+        endTime = System.currentTimeMillis();
+        status = STATUS_FAILED;
+    }
+
+    public boolean isDone() {
+
+        return STATUS_COMPLETE.equals(status) || STATUS_FAILED.equals(status);
+    }
+
+    public void setUpdateList(UpdateList updateList) {
+
+        this.updateList = updateList;
+    }
+
+    public UpdateList getUpdateList() {
+
+        return updateList;
+    }
+
+    /**
+     * Record the threads created for this job's Place/Plan groups.
+     * @param threads
+     */
+    public void addUpdateThreads(ArrayList<UpdateThread> threads) {
+
+        updateThreads.addAll(threads);
+    }
+
+    public List<UpdateThread> getUpdateThreads() {
+
+        return updateThreads;
+    }
+
+    public String getTransactionId() {
+
+        return transactionId;
+    }
+
+    /**
+     * Hand the request to the driver and let go of it.
+     * @return
+     */
+    public String takeUpdateString() {
+
+        String request = updateString;
+        updateString = null;
+        return request;
+    }
+
+    public String getClientIP() {
+
+        return clientIP;
+    }
+
+    public String getStatus() {
+
+        return status;
+    }
+
+    public long getSubmitTime() {
+
+        return submitTime;
+    }
+
+    public long getStartTime() {
+
+        return startTime;
+    }
+
+    public long getEndTime() {
+
+        return endTime;
+    }
+
+    public String getResponseMessage() {
+
+        return responseMessage;
+    }
+
+    public String getErrorMessage() {
+
+        return errorMessage;
+    }
+}
@@ -0,0 +1,203 @@
+package com.hertz.api.corebusiness;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.hertz.rates.common.mq.GUIDGenerator;
+import com.hertz.rates.common.utils.logging.HertzLogger;
+import com.hertz.api.drivers.UpdateDriver;
+import com.hertz.api.metrics.RumMetrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Runs asynchronous Webservice updates and keeps them available for status and result calls.
+ *
+ * Each job runs UpdateDriver.doWebServiceUpdate on one of a small set of job threads, so the HTTP
+ * request can return as soon as the job is accepted.  The job threads only drive a request; the
+ * stored procedure calls still go through the WebServiceThreadManager permits.
+ * Finished jobs are dropped after the retention time.  They are kept in the order they finished,
+ * so each submit or lookup only looks at the jobs that have just expired.
+ *
+ * Config Data (WebServicesControl):
+ *   AsyncJobThreadCount     - jobs driven at once (default 10).
+ *   AsyncJobQueueSize       - jobs waiting for a job thread before new ones are refused (default 100).
+ *   AsyncJobRetentionInMillis - how long a finished job can be queried (default 1 hour).
+ *
+ */
+public class RumUpdateJobRegistry {
+
+    private final static HertzLogger logger = new HertzLogger(RumUpdateJobRegistry.class);
+
+    private final static int DEFAULT_THREAD_COUNT = 10;
+    private final static int DEFAULT_QUEUE_SIZE = 100;
+    private final static long DEFAULT_RETENTION_IN_MILLIS = (60L * 60L * 1000L);
+
+    /** Singleton */
+    private static volatile RumUpdateJobRegistry registrySingleton = null;
+
+    private final ConcurrentHashMap<String, RumUpdateJob> jobs = new ConcurrentHashMap<String, RumUpdateJob>();
+    /** Finished jobs, oldest end time first. */
+    private final ConcurrentLinkedQueue<RumUpdateJob> finishedJobs = new ConcurrentLinkedQueue<RumUpdateJob>();
+    private final ThreadPoolExecutor jobExecutor;
+    private final long retentionInMillis;
+
+    /**
+     * Constructor
+     */
+    private RumUpdateJobRegistry() {
+
+        int threadCount = Math.max(1, WebServicesControlConfig.getInt("AsyncJobThreadCount", DEFAULT_THREAD_COUNT));
+        int queueSize = Math.max(1, WebServicesControlConfig.getInt("AsyncJobQueueSize", DEFAULT_QUEUE_SIZE));
+        this.retentionInMillis = WebServicesControlConfig.getLong("AsyncJobRetentionInMillis", DEFAULT_RETENTION_IN_MILLIS);
+
+        this.jobExecutor = new ThreadPoolExecutor(threadCount, threadCount, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize),
+                new JobThreadFactory());
+        this.jobExecutor.allowCoreThreadTimeOut(true);
+
+        logger.info("<WSJ> Async job registry - threads: " + threadCount + " queue: " + queueSize + " retention: " + retentionInMillis + " ms.");
+    }
+
+    /**
+     * Return the Singleton, creating it on first use.
+     * @return
+     */
+    public static RumUpdateJobRegistry getRegistry() {
+
+        if (registrySingleton == null) {
+            synchronized (RumUpdateJobRegistry.class) {
+                if (registrySingleton == null) {
+                    registrySingleton = new RumUpdateJobRegistry();
+                }
+            }
+        }
+
+        return registrySingleton;
+    }
+
+    /**
+     * Accept an update and start it in the background.
+     * @param updateString
+     * @param clientIP
+     * @param meterRegistry
+     * @return the job, whose Transaction ID identifies it in later calls.
+     * @throws RejectedExecutionException if too many jobs are already waiting.
+     */
+    public RumUpdateJob submit(String updateString, String clientIP, final MeterRegistry meterRegistry) {
+
+        evictExpiredJobs();
+
+        String transactionId = GUIDGenerator.generateGUID(updateString, 24);
+        RumUpdateJob job = new RumUpdateJob(transactionId, updateString, clientIP);
+        while (jobs.putIfAbsent(transactionId, job) != null) {
+            // Same request submitted twice in the same instant: give the new one its own ID.
+            transactionId = GUIDGenerator.generateGUID(updateString + System.nanoTime(), 24);
+            job = new RumUpdateJob(transactionId, updateString, clientIP);
+        }
+
+        final RumUpdateJob jobToRun = job;
+        try {
+            jobExecutor.execute(new Runnable() {
+                public void run() {
+                    runJob(jobToRun, meterRegistry);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            jobs.remove(transactionId);
+            logger.error("<WSJ> Trans ID: " + transactionId + " refused - " + jobExecutor.getQueue().size() + " jobs already waiting");
+            throw e;
+        }
+
+        logger.info("<WSJ> Trans ID: " + transactionId + " accepted - jobs waiting: " + jobExecutor.getQueue().size());
+
+        return job;
+    }
+
+    /**
+     * Drive one job through UpdateDriver on a job thread.
+     * @param job
+     * @param meterRegistry
+     */
+    private void runJob(RumUpdateJob job, MeterRegistry meterRegistry) {
+
+        job.markRunning();
+        long startTime = System.currentTimeMillis();
+
+        try {
+            UpdateDriver updateDriver = new UpdateDriver(meterRegistry);
+            String response = updateDriver.doWebServiceUpdate(job.takeUpdateString(), job.getClientIP(), job.getTransactionId(), job);
+            job.complete(response);
+            logger.info("<WSJ> Trans ID: " + job.getTransactionId() + " complete after " + (job.getEndTime() - job.getSubmitTime()) + " ms.");
+        }
+        catch (Exception e) {
+            job.fail(e);
+            logger.error("<WSJ> Trans ID: " + job.getTransactionId() + " failed: " + e.getMessage());
+        }
+        finally {
+            // Only done jobs are queued, so the queue stays in end time order.
+            if (job.isDone()) {
+                finishedJobs.offer(job);
+            }
+
+            try {
+                if (meterRegistry != null) {
+                    meterRegistry.timer(RumMetrics.METRIC_RUM_RATES_UPDATE_LATENCY).record(System.currentTimeMillis() - startTime, TimeUnit.MILLISECONDS);
+                }
+            }
+            catch (Exception e) {
+                logger.error("Dynatrace record latency metric exception: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Return the job for the Transaction ID, or null if it is unknown or has expired.
+     * @param transactionId
+     * @return
+     */
+    public RumUpdateJob getJob(String transactionId) {
+
+        evictExpiredJobs();
+
+        return jobs.get(transactionId);
+    }
+
+    /**
+     * Drop finished jobs older than the retention time.  Stops at the first job still kept.
+     */
+    private void evictExpiredJobs() {
+
+        long oldestToKeep = System.currentTimeMillis() - retentionInMillis;
+
+        synchronized (finishedJobs) {
+            RumUpdateJob job = finishedJobs.peek();
+            while (job != null && job.getEndTime() < oldestToKeep) {
+                finishedJobs.poll();
+                jobs.remove(job.getTransactionId(), job);
+                job = finishedJobs.peek();
+            }
+        }
+    }
+
+    /**
+     * Names the job threads so they can be found in thread dumps.
+     */
+    private static class JobThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        public Thread newThread(Runnable r) {
+
+            Thread thread = new Thread(r, "RumUpdateJob-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.hertz.api.corebusiness;
+
+/**
+ * Rate, Extra Day and Extra Hour amounts as a long count of 1/10000 units.
+ *
+ * An amount is parsed once from its text, and compared as a long instead of through a Decimal.
+ * Only plain decimal text is parsed: an optional sign, digits and an optional fraction of at most
+ * SCALE digits, with leading and trailing blanks ignored.  Anything else (too many decimals, an
+ * exponent, too large, not a number) is NOT_SCALED, and the caller falls back to Decimal, so no
+ * value is ever rounded or read differently.
+ *
+ */
+public final class ScaledAmount {
+
+    /** Number of decimals kept. */
+    public final static int SCALE = 4;
+
+    /** 1.0 as a scaled amount. */
+    public final static long ONE = 10000L;
+
+    /** Text that cannot be held exactly as a scaled amount. */
+    public final static long NOT_SCALED = Long.MIN_VALUE;
+
+    /** Whole parts from this one on might overflow once scaled. */
+    private final static long MAX_WHOLE = Long.MAX_VALUE / ONE;
+
+    private ScaledAmount() {
+
+    }
+
+    /**
+     * Parse an amount.
+     * @param value
+     * @return the amount in 1/10000 units, or NOT_SCALED.
+     */
+    public static long parse(String value) {
+
+        if (value == null) {
+            return NOT_SCALED;
+        }
+
+        int end = value.length();
+        int i = 0;
+        while (i < end && value.charAt(i) <= ' ') {
+            i++;
+        }
+        while (end > i && value.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        boolean negative = false;
+        if (i < end && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+            negative = (value.charAt(i) == '-');
+            i++;
+        }
+
+        long whole = 0L;
+        int digits = 0;
+        while (i < end && isDigit(value.charAt(i))) {
+            whole = (whole * 10L) + (value.charAt(i) - '0');
+            if (whole >= MAX_WHOLE) {
+                return NOT_SCALED;
+            }
+            digits++;
+            i++;
+        }
+
+        long fraction = 0L;
+        int decimals = 0;
+        if (i < end && value.charAt(i) == '.') {
+            i++;
+            while (i < end && isDigit(value.charAt(i))) {
+                if (decimals == SCALE) {
+                    return NOT_SCALED;
+                }
+                fraction = (fraction * 10L) + (value.charAt(i) - '0');
+                decimals++;
+                i++;
+            }
+        }
+
+        if (i != end || (digits + decimals) == 0) {
+            return NOT_SCALED;
+        }
+
+        for (int d = decimals; d < SCALE; d++) {
+            fraction *= 10L;
+        }
+
+        long amount = (whole * ONE) + fraction;
+
+        return negative ? -amount : amount;
+    }
+
+    /**
+     * Parse an amount that must be plain decimal text, such as a limit.
+     * @param value
+     * @return
+     */
+    public static long of(String value) {
+
+        long amount = parse(value);
+        if (amount == NOT_SCALED) {
+            throw new IllegalArgumentException("Not a scaled amount: " + value);
+        }
+
+        return amount;
+    }
+
+    private static boolean isDigit(char c) {
+
+        return c >= '0' && c <= '9';
+    }
+}
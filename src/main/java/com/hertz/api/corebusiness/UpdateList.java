@@ -13,6 +13,9 @@ public class UpdateList {
     /** List of updates, each for a single place/plan */
     private ArrayList<RumUpdateGroup> listOfUpdates;
 
+    /** Every change in the order it was received, across all groups.  Used to answer in input order. */
+    private ArrayList<RumChangeDetails> detailsInInputOrder = new ArrayList<RumChangeDetails>();
+
     /**
      * Adds group of changes for a Place/Plan/Company ID and its date span/vehicles to the list of updates. 
      * @param group
@@ -31,6 +34,20 @@ public class UpdateList {
         return listOfUpdates;
     }
 
+    /**
+     * Record a change in the order it was received.  The change must also be added to its group.
+     * @param details
+     */
+    public void addDetailInInputOrder(RumChangeDetails details) {
+
+        detailsInInputOrder.add(details);
+    }
+
+    public ArrayList<RumChangeDetails> getDetailsInInputOrder() {
+
+        return detailsInInputOrder;
+    }
+
     /**
      * 
      * @param e
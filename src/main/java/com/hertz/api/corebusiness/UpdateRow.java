@@ -23,6 +23,8 @@ public class UpdateRow {
     private HertzDateTime startDate;
     private HertzDateTime endDate;
     private String rate;
+    /** Rate parsed as a ScaledAmount, or ScaledAmount.NOT_SCALED. */
+    private long scaledRate = ScaledAmount.NOT_SCALED;
     private String extraDay;
     private String extraHour;
     private String vehicle;
@@ -190,6 +192,16 @@ public class UpdateRow {
         this.rate = rate;
     }
 
+    public long getScaledRate() {
+
+        return scaledRate;
+    }
+
+    public void setScaledRate(long scaledRate) {
+
+        this.scaledRate = scaledRate;
+    }
+
     public HertzDateTime getStartDate() {
 
         return startDate;
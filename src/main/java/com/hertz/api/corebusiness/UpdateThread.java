@@ -1,19 +1,33 @@
 package com.hertz.api.corebusiness;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import com.hertz.rates.common.service.data.DataServiceLocator;
 import com.hertz.rates.common.utils.HertzException;
 import com.hertz.rates.common.utils.logging.HertzLogger;
 import com.hertz.rates.common.utils.logging.LogLevel;
+import com.hertz.api.corebusiness.errorcodes.RumErrorCodes;
+import com.hertz.api.corebusiness.execution.ConcurrencyGovernor;
+import com.hertz.api.corebusiness.execution.ConcurrencySample;
+import com.hertz.api.corebusiness.execution.KeyedSerializer;
 import com.hertz.api.corebusiness.logging.RumStats;
 import com.hertz.api.corebusiness.logging.RumWebStats;
 import com.hertz.api.service.data.update.IRumUpdateDataService;
 
 /**
- * This thread performs RUM updates for a single Plan/Place.
+ * This task performs RUM updates for a single Plan/Place.
  * These changes are held in the RumUpdateGroup
+ * 
+ * The task is run by the shared UpdateExecutionEngine; it no longer owns a Thread of its own.
+ * It reports its DB call duration and locked rows so the concurrency limit can adapt.
  *
  */
-public class UpdateThread extends Thread {
+public class UpdateThread implements Runnable, ConcurrencySample {
 
     private static final  HertzLogger logger = new HertzLogger(UpdateThread.class);
 
@@ -42,8 +56,14 @@ public class UpdateThread extends Thread {
     /** Data service for DB call. */
     private IRumUpdateDataService reqTrnDataSvc = null;
     
-    /** Is this thread finished with its work ? */
-    private boolean finishedWithUpdate = false;
+    /** Has this thread started its work ? Read by job status calls. */
+    private volatile boolean started = false;
+
+    /** Is this thread finished with its work ? Read by other threads so must be volatile. */
+    private volatile boolean finishedWithUpdate = false;
+
+    /** Completed with the update group as soon as this thread is finished with its work. */
+    private final CompletableFuture<RumUpdateGroup> completion = new CompletableFuture<RumUpdateGroup>();
 
     
     /** This is the length of time a Thread can be in the DB call before it is considered to be a 'Long Running' thread. */
@@ -51,6 +71,51 @@ public class UpdateThread extends Thread {
     
     /** This is the time that this thread was put into the thread pool. */
     private long timePutIntoThreadPool = 0;
+
+    /** Duration of the DB call, or -1 if the call was not made. */
+    private volatile long callDurationInMillis = -1;
+
+    /** Retries made before this thread: 0 unless this thread retries locked rows. */
+    private int attempt = 0;
+
+    /** Thread whose locked rows this thread retries, finished when this one is. */
+    private UpdateThread retryOf = null;
+
+    /** Puts retries of this thread's locked rows back on their governor; null for no retries. */
+    private LockedGroupRetryScheduler.Resubmitter resubmitter = null;
+
+    /** Retry of this thread's locked rows waiting for its backoff, and the latest retry thread; null if none. */
+    private volatile Future<?> pendingRetry = null;
+    private volatile UpdateThread retriedBy = null;
+
+    /** Set once the caller has given up on this thread: it no longer calls the DB or retries. */
+    private volatile boolean abandoned = false;
+
+    /** Whether run() or abandon() came first.  Whichever does gives back the key and permit, so a call still running keeps them. */
+    private final static int RUN_PENDING = 0;
+    private final static int RUN_STARTED = 1;
+    private final static int RUN_ABANDONED = 2;
+    private final AtomicInteger runState = new AtomicInteger(RUN_PENDING);
+
+    /** Permit of a File-based thread; Webservice threads are tracked by the Webservice Thread Manager. */
+    private volatile ConcurrencyGovernor.Ticket ticket = null;
+
+    /** Threads whose groups this thread updates in its one call (see WriteCoalescer); null if none. */
+    private List<UpdateThread> coalescedThreads = null;
+
+    /** Place/Plan key this thread holds in the group serializer, if any. */
+    private volatile String groupKey = null;
+    /** Key shared with the other chunks of a group split by Vehicle; null to take the key alone. */
+    private KeyedSerializer.SharedKey sharedGroupKey = null;
+
+    /** Where this thread is with its Place/Plan key.  Moves forward only, so the key is given back exactly once. */
+    private final static int KEY_NONE = 0;
+    private final static int KEY_WAITING = 1;
+    private final static int KEY_HELD = 2;
+    private final static int KEY_GIVEN_BACK = 3;
+    private final AtomicInteger keyState = new AtomicInteger(KEY_NONE);
+    /** Place in the key's queue while this thread waits for it. */
+    private volatile Runnable keyTurn = null;
     
     
     /**
@@ -101,17 +166,32 @@ public class UpdateThread extends Thread {
         }
         logger.entry(LogLevel.INFO, methodName);
 
+        if (!runState.compareAndSet(RUN_PENDING, RUN_STARTED) || isAbandoned()) {
+            // Given up on while it waited for a permit: its outcome has already been reported.
+            logger.info(threadLogStart + " Thread " + getThreadId() + " index " + getIndex() + " abandoned before it started");
+            releaseGroupKey();
+            if (isWebserviceThread) {
+                WebServiceThreadManager.removeAbandonedThread(this);
+            }
+            setFinishedWithUpdate(true);
+            logger.exit(LogLevel.INFO, methodName);
+            return;
+        }
+        markStarted();
+
         logger.info(threadLogStart + " Thread " + getThreadId() + " index " + getIndex() + " for: " +  updateGroup.getLocation() + " " + updateGroup.getPlaceIdCd() + " " + updateGroup.getCompanyId() + "  " + updateGroup.getPlanId() + " " + updateGroup.getPlanType() + " updates: " + updateGroup.getChangeDetails().size());
         
+        long start = -1L;
         try {
             DataServiceLocator svcLookup = new DataServiceLocator();
             reqTrnDataSvc = (IRumUpdateDataService) svcLookup.getService(RUM_UPDATE_DS);
 
-            long start = markThreadBegin();
+            start = markThreadBegin();
             
             updateGroup = reqTrnDataSvc.doRumUpdate(updateGroup);
             
-            markThreadEnd(start);
+            callDurationInMillis = markThreadEnd(start);
+            GroupOrdering.recordCall(updateGroup, updateGroup.getChangeDetails().size(), callDurationInMillis);
         }
         catch (HertzException e) {
             if (isFileBasedThread) {
@@ -120,7 +200,9 @@ public class UpdateThread extends Thread {
             else if (isWebserviceThread) {
                 logger.warn("<WS> HertzException in " + RumWebStats.TRANS_ID + this.getTransactionId() + " Update Thread threadID: " + getThreadId());
             }
-            updateGroup.addErrorMessageToDetails(e);
+            if (!isAbandoned()) {
+                updateGroup.addErrorMessageToDetails(e);
+            }
         }
         catch (Exception e1) {
             if (isFileBasedThread) {
@@ -129,23 +211,268 @@ public class UpdateThread extends Thread {
             else if (isWebserviceThread) {
                 logger.warn("<WS> Other Exception in " + RumWebStats.TRANS_ID + this.getTransactionId() + " Update Thread threadID: " + getThreadId());
             }
-            updateGroup.addErrorMessageToDetails(e1);
+            if (!isAbandoned()) {
+                updateGroup.addErrorMessageToDetails(e1);
+            }
         }
         finally {
             //  UpdateDriver.mapThreadResponse(fileName, updateGroup);
 
-            // This *must* happen or the Thread Pool will lose a slot.
+            if (start >= 0L && callDurationInMillis < 0L) {
+                // The call failed: how long it took still tells the concurrency limit how the database is doing.
+                callDurationInMillis = markThreadEnd(start);
+            }
+
+            // Let the next thread for this Place/Plan start.
+            releaseGroupKey();
+
+            // This *must* happen or the Thread Pool will lose a slot.  A thread given up on during its call is removed here too,
+            // only once the call has returned.
             if (isWebserviceThread) {
-                // Completed thread is for a Webservice call. Remove it from the Webservice Thread Manager.
-                WebServiceThreadManager.getWebThreadManager().removeCompletedThread(this);
+                if (abandoned) {
+                    WebServiceThreadManager.removeAbandonedThread(this);
+                }
+                else {
+                    // Completed thread is for a Webservice call. Remove it from the Webservice Thread Manager.
+                    WebServiceThreadManager.getWebThreadManager().removeCompletedThread(this);
+                }
             }
 
             logger.exit(LogLevel.INFO, methodName);
 
-            finishedWithUpdate = true;
+            // Locked rows are retried after a backoff; this thread is finished by its retry.
+            if (isAbandoned() || !LockedGroupRetryScheduler.getScheduler().scheduleRetry(this)) {
+                setFinishedWithUpdate(true);
+            }
         }
     }
 
+    /**
+     * New thread to retry some of this thread's rows, in the retry group.
+     * @param retryGroup
+     * @return
+     */
+    public UpdateThread newRetryThread(RumUpdateGroup retryGroup) {
+
+        UpdateThread retryThread = new UpdateThread(threadId, retryGroup, fileName, transactionId, index, longRunningInMillis);
+        retryThread.attempt = attempt + 1;
+        retryThread.retryOf = this;
+        retryThread.resubmitter = resubmitter;
+        retriedBy = retryThread;
+
+        return retryThread;
+    }
+
+    /**
+     * Give up on this thread once its caller has stopped waiting for it.  Its DB call is cancelled,
+     * a retry of its locked rows that is waiting for its backoff is dropped and a running one given
+     * up on too.  Nothing it does afterwards changes its rows, so the caller can report them.
+     *
+     * A thread that has not started gives back its Place/Plan key and permit now.  A started one keeps
+     * them until its call has returned, even if the cancel takes effect late, so the next thread for
+     * the same Place/Plan never runs alongside it.
+     * @param reason
+     * @return true if a DB call was cancelled.
+     */
+    public boolean abandon(String reason) {
+
+        abandoned = true;
+
+        boolean cancelled = updateGroup.abandon(reason);
+
+        Future<?> retry = pendingRetry;
+        if (retry != null) {
+            retry.cancel(false);
+        }
+        UpdateThread retryThread = retriedBy;
+        if (retryThread != null && retryThread.abandon(reason)) {
+            cancelled = true;
+        }
+
+        if (runState.compareAndSet(RUN_PENDING, RUN_ABANDONED)) {
+            releaseGroupKey();
+            if (isWebserviceThread) {
+                WebServiceThreadManager.removeAbandonedThread(this);
+            }
+            else if (ticket != null) {
+                ticket.release();
+            }
+        }
+
+        return cancelled;
+    }
+
+    /**
+     * Has the caller given up on this thread, or on the thread whose rows it retries?
+     * @return
+     */
+    public boolean isAbandoned() {
+
+        return abandoned || (retryOf != null && retryOf.isAbandoned());
+    }
+
+    /**
+     * Record the retry of this thread's locked rows while it waits for its backoff.
+     * @param pendingRetry
+     */
+    void setPendingRetry(Future<?> pendingRetry) {
+
+        this.pendingRetry = pendingRetry;
+    }
+
+    /**
+     * Record the permit of a File-based thread, so it can be given back if the thread is abandoned.
+     * @param ticket
+     */
+    public void setTicket(ConcurrencyGovernor.Ticket ticket) {
+
+        this.ticket = ticket;
+    }
+
+    /**
+     * New thread updating the groups of the given Webservice threads in one call.  The threads are
+     * finished when it is.
+     * @param threads threads whose groups have the same coalescing key, in the order they were queued.
+     * @return
+     */
+    public static UpdateThread newCoalescedThread(List<UpdateThread> threads) {
+
+        ArrayList<RumUpdateGroup> groups = new ArrayList<RumUpdateGroup>(threads.size());
+        Iterator<UpdateThread> iter = threads.iterator();
+        while (iter.hasNext()) {
+            groups.add(iter.next().getUpdateGroup());
+        }
+
+        UpdateThread first = threads.get(0);
+        UpdateThread coalescedThread = new UpdateThread(first.threadId, RumUpdateGroup.newCoalescedGroup(groups), first.fileName, first.transactionId, first.index, first.longRunningInMillis);
+        coalescedThread.resubmitter = first.resubmitter;
+        coalescedThread.coalescedThreads = new ArrayList<UpdateThread>(threads);
+
+        return coalescedThread;
+    }
+
+    private void markStarted() {
+
+        started = true;
+
+        if (coalescedThreads != null) {
+            Iterator<UpdateThread> iter = coalescedThreads.iterator();
+            while (iter.hasNext()) {
+                iter.next().markStarted();
+            }
+        }
+    }
+
+    /**
+     * Take this group's Place/Plan key before asking for a permit, so threads for the same rows
+     * run one after another.  If the thread is released while it waits, the key is passed on as
+     * soon as it is handed to it and admitLater is not run.
+     * @param admitLater run when the key is handed to this thread, if it is busy now.
+     * @return true if the key was free: the caller admits the thread itself.
+     */
+    public boolean acquireGroupKey(final Runnable admitLater) {
+
+        groupKey = getGroupKey(updateGroup);
+
+        Runnable onTurn = new Runnable() {
+            public void run() {
+                if (keyState.compareAndSet(KEY_WAITING, KEY_HELD)) {
+                    admitLater.run();
+                }
+                else {
+                    // Released while waiting: let the next thread for this Place/Plan start.
+                    giveBackGroupKey();
+                }
+            }
+        };
+        keyTurn = onTurn;
+        keyState.set(KEY_WAITING);
+
+        boolean free;
+        if (sharedGroupKey != null) {
+            free = sharedGroupKey.acquire(onTurn);
+        }
+        else {
+            free = KeyedSerializer.getGroupSerializer().acquire(groupKey, onTurn);
+        }
+        if (free && !keyState.compareAndSet(KEY_WAITING, KEY_HELD)) {
+            // Released before the key was taken.
+            giveBackGroupKey();
+            return false;
+        }
+
+        return free;
+    }
+
+    /**
+     * Give back the Place/Plan key, or give up this thread's place in the queue for it if it is
+     * still waiting.  Only the first call has any effect.
+     */
+    public void releaseGroupKey() {
+
+        if (keyState.compareAndSet(KEY_HELD, KEY_GIVEN_BACK)) {
+            giveBackGroupKey();
+        }
+        else if (keyState.compareAndSet(KEY_WAITING, KEY_GIVEN_BACK)) {
+            // If the key is being handed over right now, onTurn finds it given back and passes it on.
+            if (sharedGroupKey != null) {
+                sharedGroupKey.cancel(keyTurn);
+            }
+            else {
+                KeyedSerializer.getGroupSerializer().cancel(groupKey, keyTurn);
+            }
+        }
+    }
+
+    private void giveBackGroupKey() {
+
+        if (sharedGroupKey != null) {
+            sharedGroupKey.release();
+        }
+        else {
+            KeyedSerializer.getGroupSerializer().release(groupKey);
+        }
+    }
+
+    /**
+     * Let the threads run together under one Place/Plan key: they update chunks of one group with
+     * different Vehicles, so they cannot collide with each other.
+     * @param chunkThreads
+     */
+    public static void shareGroupKey(List<UpdateThread> chunkThreads) {
+
+        if (chunkThreads.size() < 2) {
+            return;
+        }
+
+        KeyedSerializer.SharedKey sharedKey = KeyedSerializer.getGroupSerializer().newSharedKey(getGroupKey(chunkThreads.get(0).getUpdateGroup()));
+
+        Iterator<UpdateThread> iter = chunkThreads.iterator();
+        while (iter.hasNext()) {
+            iter.next().sharedGroupKey = sharedKey;
+        }
+    }
+
+    private static String getGroupKey(RumUpdateGroup group) {
+
+        return group.getPlaceIdCdToUse() + "|" + group.getPlanId() + "|" + group.getClassTimeCode();
+    }
+
+    public int getAttempt() {
+
+        return attempt;
+    }
+
+    public LockedGroupRetryScheduler.Resubmitter getResubmitter() {
+
+        return resubmitter;
+    }
+
+    public void setResubmitter(LockedGroupRetryScheduler.Resubmitter resubmitter) {
+
+        this.resubmitter = resubmitter;
+    }
+
     public long getThreadId() {
 
         return threadId;
@@ -164,6 +491,25 @@ public class UpdateThread extends Thread {
 
         return finishedWithUpdate;
     }
+
+    /**
+     * Has this thread started its work ?  False while it waits for a permit.
+     * @return
+     */
+    public boolean isStarted() {
+
+        return started;
+    }
+
+    /**
+     * Future that completes with the update group when this thread is finished with its work.
+     * UpdateDriver waits on these instead of polling isFinishedWithUpdate().
+     * @return
+     */
+    public CompletableFuture<RumUpdateGroup> getCompletion() {
+
+        return completion;
+    }
     
     
     public String getFileName() {
@@ -193,9 +539,28 @@ public class UpdateThread extends Thread {
         this.timePutIntoThreadPool = timePutIntoThreadPool;
     }
 
+    /**
+     * Mark this thread finished.  Marking it finished also releases anyone waiting on getCompletion().
+     * @param finishedWithUpdate
+     */
     public void setFinishedWithUpdate(boolean finishedWithUpdate) {
         
         this.finishedWithUpdate = finishedWithUpdate;
+
+        if (finishedWithUpdate) {
+            completion.complete(updateGroup);
+
+            if (retryOf != null) {
+                retryOf.setFinishedWithUpdate(true);
+            }
+
+            if (coalescedThreads != null) {
+                Iterator<UpdateThread> iter = coalescedThreads.iterator();
+                while (iter.hasNext()) {
+                    iter.next().setFinishedWithUpdate(true);
+                }
+            }
+        }
     }
 
     /**
@@ -222,8 +587,9 @@ public class UpdateThread extends Thread {
      * Mark when a thread call to DB ends.
      * Report if this was a long call.
      * @param begin
+     * @return duration of the call
      */
-    private void markThreadEnd(long begin) {
+    private long markThreadEnd(long begin) {
 
         long now = System.currentTimeMillis();
         long duration = (now - begin);
@@ -247,6 +613,56 @@ public class UpdateThread extends Thread {
                 logger.warn(this.toStringVerbose("<WS> LONG RUNNING THREAD " + RumWebStats.TRANS_ID + getTransactionId() + " threadID: " + this.threadId + " index: " + getIndex()));
             }
         }
+
+        return duration;
+    }
+
+    public boolean hasSample() {
+
+        return callDurationInMillis >= 0;
+    }
+
+    public long getCallDurationInMillis() {
+
+        return callDurationInMillis;
+    }
+
+    public int getCallRows() {
+
+        return updateGroup.getChangeDetails().size();
+    }
+
+    /**
+     * Did the DB report any of this group's rows as locked?
+     * @return
+     */
+    public boolean hasLockedResult() {
+
+        Iterator<RumChangeDetails> iter = updateGroup.getChangeDetails().iterator();
+        while (iter.hasNext()) {
+            if (iter.next().isLocked()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Was the call stopped by its timeout or cancelled?
+     * @return
+     */
+    public boolean hasTimedOutResult() {
+
+        Iterator<RumChangeDetails> iter = updateGroup.getChangeDetails().iterator();
+        while (iter.hasNext()) {
+            Exception e = iter.next().getException();
+            if (e instanceof HertzException && ((HertzException) e).getErrorCode() == RumErrorCodes.STORED_PROC_TIMEOUT) {
+                return true;
+            }
+        }
+
+        return false;
     }
 
     /**
@@ -2,25 +2,36 @@ package com.hertz.api.corebusiness;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 
 import com.hertz.rates.common.utils.HertzException;
 import com.hertz.rates.common.utils.config.ConfigData;
 import com.hertz.rates.common.utils.config.PropertyGroup;
 import com.hertz.rates.common.utils.logging.HertzLogger;
 import com.hertz.rates.common.utils.logging.LogLevel;
+import com.hertz.api.corebusiness.execution.ConcurrencyGovernor;
+import com.hertz.api.corebusiness.execution.ConcurrencyLimitFactory;
+import com.hertz.api.corebusiness.execution.UpdateExecutionEngineFactory;
 import com.hertz.api.drivers.UpdateDriver;
 
+import io.micrometer.core.instrument.MeterRegistry;
+
 /**
- * Implement using Java 6 technology as this is what is in the WAS Production environment.
- * 
  * This Singleton class manages active threads which are used by the Webservice calls.
  * It imposes a maximum thread count across all Webservices calls.
+ * The maximum is a budget of permits held by a ConcurrencyGovernor: each UpdateThread task holds
+ *   a permit while it runs on the shared UpdateExecutionEngine, so no Thread is created per Place/Plan.
  * All the sub-threads for a particular WS thread will be allocated *before* threads
  *   will be allocated to another WS thread.  This imposes FIFO order on thread allocation
  * and prevents blocking or starvation.
+ * Queuing never blocks the caller: sub-threads that can not get a permit wait in the governor
+ *   and are started as running sub-threads complete.
+ * A sub-thread whose Place/Plan is being updated by another thread first waits for its key in the
+ *   KeyedSerializer, without holding a permit, and nearby sub-threads of other WS calls for the same
+ *   Place/Plan may be merged into one call by the WriteCoalescer.
  * 
  * WS #1 Call -> requests sub-thread 1 of 4   WS #1 is added to FIFO - thread count increments, sub-thread start allowed
  * WS #1 Call -> requests sub-thread 2 of 4                          - thread count increments, sub-thread start allowed
@@ -43,20 +54,20 @@ public class WebServiceThreadManager {
     /** Singleton */
     private static final WebServiceThreadManager webThreadManagerSingleton = new WebServiceThreadManager();
 
-    /** Maximum Threads that can be concurrently running across all Webservice calls. */
+    /** Maximum Threads that can be concurrently running across all Webservice calls.  The adaptive limit never goes above it. */
     private static int MAX_THREADS = 300;
 
     // Smaller limit for testing
     //private static int MAX_THREADS = 10;
 
-    /** If true then queue accesses for threads blocked on insertion or removal, are processed in FIFO order; if false the access order is unspecified. */
-    private static boolean IS_FAIR = true;
+    /** Hands out the permits for all Webservice calls with FIFO fairness. */
+    private static volatile ConcurrencyGovernor governor = null;
 
-    /** Holds running threads for all Webservice call with FIFO fairness. */
-    private static ArrayBlockingQueue<UpdateThread> threadPool = null;
+    /** Threads which hold or are waiting for a permit, for the monitor.  Removal releases the permit. */
+    private static final Map<UpdateThread, ConcurrencyGovernor.Ticket> threadPool = new ConcurrentHashMap<UpdateThread, ConcurrencyGovernor.Ticket>();
 
-    /** Maximum Threads. */
-    private static int maximumThreads = -1;  // Uninitialized
+    /** Maximum Threads.  Volatile so a value read from Config by one thread is seen whole by the others. */
+    private static volatile int maximumThreads = -1;  // Uninitialized
 
     /** This is the logging level of Thread Pool messages. */
     public final static LogLevel TIMING_LOG_LEVEL = LogLevel.INFO;
@@ -97,16 +108,16 @@ public class WebServiceThreadManager {
     }
 
     /**
-     * Add all threads in the list to the thread pool.  If full, this will block until there is room.
-     * Once a thread has been queued, it can be started.
-     * Thread-safe - only one call at a time can be made.
-     * We *WANT* this call to be single-filed so that all threads for a particular WS call are queued
-     * before another WS call can do any queuing.
+     * Add all threads in the list to the thread pool.  This never blocks: threads beyond the
+     * maximum wait in the governor and are started as other threads complete.
+     * All threads for a particular WS call are queued together, before another WS call can
+     * do any queuing, so they are started in FIFO order.
+     * Not synchronized: the governor serializes the queuing and getMaxThreads() is safe from any thread.
      * 
      * @param transactionID
      * @param updateThreadList
      */
-    public synchronized void queueNewWebserviceCallThreads(String transactionID, ArrayList<UpdateThread> updateThreadList) {
+    public void queueNewWebserviceCallThreads(String transactionID, ArrayList<UpdateThread> updateThreadList) {
 
         final String methodName = "<WS> TransID: " + transactionID + " WebServiceThreadManager queuing threadlist";
         try {
@@ -115,16 +126,52 @@ public class WebServiceThreadManager {
             // Initialize DML count for this transaction
             txnDMLCountMap.put(transactionID, 0);
 
-            // Queue and Start each thread
+            ConcurrencyGovernor wsGovernor = getGovernor();
+            WriteCoalescer coalescer = WriteCoalescer.getCoalescer();
+            ArrayList<ConcurrencyGovernor.Ticket> tickets = new ArrayList<ConcurrencyGovernor.Ticket>(updateThreadList.size());
+
+            // Record each thread before it can start, so that its completion always finds it.
+            long now = System.currentTimeMillis();
             Iterator<UpdateThread> threadListIter = updateThreadList.iterator();
             while (threadListIter.hasNext()) {
 
                 UpdateThread updateThreadToStart = threadListIter.next();
-                boolean wasAdded = addThreadToPool(transactionID, updateThreadToStart);
-                if (!wasAdded) {
-                    logger.error("<WS> TransID: " + transactionID + " FAILED to add thread" + "\n" + updateThreadToStart.toStringVerbose() + "\n");
+                if (updateThreadToStart == null) {
+                    // Why is the thread null ?
+                    logger.error("<WS> Skipping null thread: TransID: " + transactionID);
+                    continue;
                 }
+
+                // Record when this thread was put into the Thread Pool.
+                updateThreadToStart.setTimePutIntoThreadPool(now);
+
+                // Threads for a Place/Plan of other transactions may be merged with this one: it is queued when its window ends.
+                if (coalescer.accepts(updateThreadToStart)) {
+                    coalescer.offer(updateThreadToStart);
+                    continue;
+                }
+
+                ConcurrencyGovernor.Ticket ticket = wsGovernor.newTicket(updateThreadToStart);
+                threadPool.put(updateThreadToStart, ticket);
+                tickets.add(ticket);
+            }
+
+            int waitingBefore = wsGovernor.getWaiting();
+            int available = wsGovernor.getLimit() - wsGovernor.getInUse();
+            logger.info("<WS> Before adding TransID: " + transactionID + " threads: " + tickets.size() + " - capacity: " + available + " waiting: " + waitingBefore + " max: " + getMaxThreads());
+
+            // Warn if we are running low on threads.
+            if (available < (getMaxThreads() / 10)) {
+                logger.warn("<WS> Thread Capacity is below 10%: " + available);
             }
+
+            UpdateDriver.displayMemory("<WS>");
+
+            // Threads within the limit are started now, the rest wait for a permit.
+            // A thread whose Place/Plan is being updated by another thread asks for its permit once that one finishes.
+            wsGovernor.admit(takeGroupKeys(wsGovernor, tickets));
+
+            logger.info("<WS> After adding TransID: " + transactionID + " - " + wsGovernor);
         }
         finally {
             logger.exit(HertzLogger.INFO, methodName);
@@ -132,87 +179,79 @@ public class WebServiceThreadManager {
     }
 
     /**
-     * Call ONLY from synchronized code.
-     * Adds a thread and blocks if there is no room.
-     * @param transactionID
-     * @param updateThreadToStart
-     * @return
+     * Queue a retry of a Webservice thread's locked rows.  It waits for a permit like any other thread.
+     * @param retryThread
      */
-    private static boolean addThreadToPool(String transactionID, UpdateThread updateThreadToStart) {
-
-        boolean wasAdded = false;
+    public void queueRetryThread(UpdateThread retryThread) {
 
-        if (updateThreadToStart != null) {
-            long index = updateThreadToStart.getIndex();
+        retryThread.setTimePutIntoThreadPool(System.currentTimeMillis());
+        queueThread(retryThread);
 
-            try {
+        logger.info("<WS> TransID: " + retryThread.getTransactionId() + " retry attempt " + retryThread.getAttempt() + " index: " + retryThread.getIndex() + " - " + getGovernor());
+    }
 
-                ArrayBlockingQueue<UpdateThread> threadPool = getThreadPool();
-                if (threadPool != null) {
-                    int remainingCapacity = getThreadPool().remainingCapacity();
+    /**
+     * Queue a thread whose coalescing window has ended: a thread on its own or one holding the
+     * changes of several transactions.  It waits for a permit like any other thread.
+     * @param coalescedThread
+     */
+    public void queueCoalescedThread(UpdateThread coalescedThread) {
 
-                    logger.info("<WS> Before adding TransID: " + transactionID + " index: " + index + " - capacity: " + remainingCapacity + " max: " + getMaxThreads());
-                    //logger.debug("<WS> Before adding TransID: " + transactionID + " thread: " + count + " - capacity: " + remainingCapacity);
-                    
-                    // Warn if we are running low on threads.
-                    if (remainingCapacity < (maximumThreads / 10) ) {
-                        logger.warn("<WS> Thread Capacity is below 10%: " + remainingCapacity);
-                    }
-                    
-                    boolean willLikelyBlock = (remainingCapacity == 0);
-                    final String methodText;
+        if (coalescedThread.getTimePutIntoThreadPool() == 0L) {
+            coalescedThread.setTimePutIntoThreadPool(System.currentTimeMillis());
+        }
+        queueThread(coalescedThread);
 
-                    if (willLikelyBlock) {
-                        methodText = "<WS> Likely blocking while adding TransID: " + transactionID + " index: " + index + " to Thread Pool with capacity: " + remainingCapacity;
-                        logger.before(TIMING_LOG_LEVEL, methodText);
-                    }
-                    else {
-                        methodText = ""; // Not Used: Must be initialized since it is 'final' to avoid compiler warning.
-                    }
+        logger.debug("<WS> TransID: " + coalescedThread.getTransactionId() + " queued coalesced thread index: " + coalescedThread.getIndex() + " - " + getGovernor());
+    }
 
-                    // Record when this thread was put into the Thread Pool.
-                    long now = System.currentTimeMillis();
-                    updateThreadToStart.setTimePutIntoThreadPool(now);
+    private void queueThread(UpdateThread updateThread) {
 
-                    // Put this thread into the Thread Pool - possibly waiting until there is room.
-                    threadPool.put(updateThreadToStart);
+        ConcurrencyGovernor wsGovernor = getGovernor();
 
-                    if (willLikelyBlock) {
-                        logger.after(TIMING_LOG_LEVEL, methodText);
-                    }
+        ConcurrencyGovernor.Ticket ticket = wsGovernor.newTicket(updateThread);
+        threadPool.put(updateThread, ticket);
 
-                    logger.info("<WS> After adding TransID: " + transactionID + " index; " + index + " - capacity: " + getThreadPool().remainingCapacity());
-                    //logger.debug("<WS> After  adding TransID: " + transactionID + " count; " + count + " - capacity: " + getThreadPool().remainingCapacity());
+        ArrayList<ConcurrencyGovernor.Ticket> tickets = new ArrayList<ConcurrencyGovernor.Ticket>(1);
+        tickets.add(ticket);
+        wsGovernor.admit(takeGroupKeys(wsGovernor, tickets));
+    }
 
-                    // Start thread processing.
-                    UpdateDriver.displayMemory("<WS>");
-                    logger.info("<WS> TransID: " + transactionID + " Starting Thread: index: " + index);
-                    updateThreadToStart.start();
-                    wasAdded = true;
-                }
-                else {
-                    // Thread Pool should *NEVER* be null.
-                    logger.error("<WS> Skipping null Thread Pool: TransID: " + transactionID + " index: " + index);
+    /**
+     * Take the Place/Plan key of each thread.
+     * @param wsGovernor
+     * @param tickets
+     * @return the tickets whose key was free, to admit now.  The others are admitted when their key is free.
+     */
+    private static List<ConcurrencyGovernor.Ticket> takeGroupKeys(final ConcurrencyGovernor wsGovernor, List<ConcurrencyGovernor.Ticket> tickets) {
+
+        ArrayList<ConcurrencyGovernor.Ticket> ready = new ArrayList<ConcurrencyGovernor.Ticket>(tickets.size());
+
+        Iterator<ConcurrencyGovernor.Ticket> iter = tickets.iterator();
+        while (iter.hasNext()) {
+            final ConcurrencyGovernor.Ticket ticket = iter.next();
+            final UpdateThread updateThread = (UpdateThread) ticket.getTask();
+
+            boolean free = updateThread.acquireGroupKey(new Runnable() {
+                public void run() {
+                    ArrayList<ConcurrencyGovernor.Ticket> turn = new ArrayList<ConcurrencyGovernor.Ticket>(1);
+                    turn.add(ticket);
+                    if (wsGovernor.admit(turn) == 0) {
+                        // Removed while it waited for its key: it will never run, so pass the key on.
+                        updateThread.releaseGroupKey();
+                    }
                 }
+            });
+            if (free) {
+                ready.add(ticket);
             }
-            catch (InterruptedException e) {
-                // Something went wrong.  Log and try to remove the thread.
-                e.printStackTrace();
-                // Remove the item
-                boolean wasRemoved = getThreadPool().remove(updateThreadToStart);
-                logger.error("<WS> Attempt to remove INTERRUPTED WS Thread for TransID: " + transactionID + " index: " + index + " was " + (wasRemoved ? "successful" : "failed"));
-            }
-        }
-        else {
-            // Why is the thread null ?
-            logger.error("<WS> Skipping null thread: TransID: " + transactionID);
         }
 
-        return wasAdded;
+        return ready;
     }
 
     /**
-     * Remove a completed thread.  This may unblock a put().
+     * Remove a completed thread and give back its permit.  This may start a waiting thread.
      * @param updateThread
      */
     public void removeCompletedThread(UpdateThread updateThread) {
@@ -224,23 +263,18 @@ public class WebServiceThreadManager {
         try {
             logger.entry(TIMING_LOG_LEVEL, methodName);
 
-            int capacityBefore = getThreadPool().remainingCapacity();
-            //logger.debug("<WS> Before removing completed thread for Transaction: " + transactionID + " thread: " + count + " - capacity: " + capacityBefore);
-
-            boolean wasRemoved = getThreadPool().remove(updateThread);
+            boolean wasRemoved = releaseThread(updateThread);
             if (!wasRemoved) {
                 logger.warn("<WS> Completed thread was not removed from Thread Pool!");
             }
 
-            int capacityAfter = getThreadPool().remainingCapacity();
-            
-            if (capacityAfter == getMaxThreads()) {
+            if (threadPool.isEmpty()) {
                 // The pool is full again.
                 logger.info("<WS> TransID: " + transactionID +" Removing thread index: " + index + " which returned all threads to pool");
             }
             
-            logger.debug("<WS> TransID: " + transactionID + " After removing completed thread thread index: " + index + " - capacity before: " + capacityBefore
-                    + " capacity after: " + capacityAfter + " result: " + (wasRemoved ? "successful" : "failed"));
+            logger.debug("<WS> TransID: " + transactionID + " After removing completed thread thread index: " + index + " - " + getGovernor()
+                    + " result: " + (wasRemoved ? "successful" : "failed"));
         }
         finally {
             logger.exit(TIMING_LOG_LEVEL, methodName);
@@ -248,7 +282,51 @@ public class WebServiceThreadManager {
     }
 
     /**
-     * Call ONLY from synchronized code.
+     * Remove the thread from the Thread Pool and give back its permit.  Only the first call for a thread has any effect.
+     * @param updateThread
+     * @return
+     */
+    private static boolean releaseThread(UpdateThread updateThread) {
+
+        ConcurrencyGovernor.Ticket ticket = threadPool.remove(updateThread);
+        if (ticket == null) {
+            return false;
+        }
+
+        ticket.release();
+
+        return true;
+    }
+
+    /**
+     * The execution engine refused a thread (it is shutting down).  Fail the group so the caller is not left waiting.
+     * @param task
+     * @param e
+     */
+    private static void threadRejected(Runnable task, RejectedExecutionException e) {
+
+        if (task instanceof UpdateThread) {
+            UpdateThread updateThread = (UpdateThread) task;
+            threadPool.remove(updateThread);
+            updateThread.releaseGroupKey();
+            updateThread.getUpdateGroup().addErrorMessageToDetails(e);
+            updateThread.setFinishedWithUpdate(true);
+            logger.error("<WS> TransID: " + updateThread.getTransactionId() + " index: " + updateThread.getIndex() + " rejected by Execution Engine");
+        }
+    }
+
+    /**
+     * Register the governor's permit, waiter and wait-time metrics.
+     * @param meterRegistry
+     */
+    public static void registerMetrics(MeterRegistry meterRegistry) {
+
+        getGovernor().registerMetrics(meterRegistry);
+    }
+
+    /**
+     * Safe to call from any thread: the value is published through a volatile field, and threads which
+     * race on the first call each read the same Config value, so whichever write lands last is the same.
      * Return a value to be used for Max Threads.
      * If there is an override from Config data, use it.
      * This might include an override from a XML config file.
@@ -256,9 +334,10 @@ public class WebServiceThreadManager {
      */
     private static int getMaxThreads() {
 
-        if (maximumThreads > 0) {
+        int current = maximumThreads;
+        if (current > 0) {
             // Value has been initialized.
-            return maximumThreads;
+            return current;
         }
         else {
             // Value not initialized so do so.
@@ -307,32 +386,24 @@ public class WebServiceThreadManager {
 
             maximumThreads = maxThreads;
 
-            logger.debug("<WS> Returning maximumThreads: " + maximumThreads);
+            logger.debug("<WS> Returning maximumThreads: " + maxThreads);
 
-            return maximumThreads;
+            return maxThreads;
         }
     }
 
     /**
-     * Return an array of all UpdateThreads currently in the Thread Pool.
-     * Documentation says:
-     * Returns an array containing all of the elements in this queue, in proper sequence. 
-     * The returned array will be "safe" in that no references to it are maintained by this queue. 
-     * (In other words, this method must allocate a new array). The caller is thus free to modify the returned array. 
+     * Return an array of all UpdateThreads currently in the Thread Pool, running or waiting for a permit.
+     * The returned array is a copy, so the caller is free to modify it.
      * @return
      */
     public static Object[] getThreadPoolAsArray() {
 
-        if (threadPool == null) {
-            return null;
-        }
-        else {
-            return threadPool.toArray();
-        }
+        return threadPool.keySet().toArray();
     }
 
     /**
-     * Remove the specified thread from the Thread Pool.  
+     * Remove the specified thread from the Thread Pool and give back its permit.  
      * It has been there so long we think it actually died and didn't remove itself.
      * @param deadUpdateThread
      * @return
@@ -341,29 +412,44 @@ public class WebServiceThreadManager {
 
         logger.error("<WSTMM> WebServiceThreadManager - removeDeadThread: " + "\n" + deadUpdateThread.toStringVerbose());
 
-        boolean wasRemoved = getThreadPool().remove(deadUpdateThread);
+        boolean wasRemoved = releaseThread(deadUpdateThread);
 
         return wasRemoved;
     }
 
     /**
-     * Return the Thread Pool.
+     * Remove a thread its caller has given up on from the Thread Pool and give back its permit.
+     * @param abandonedThread
      * @return
      */
-    private static ArrayBlockingQueue<UpdateThread> getThreadPool() {
+    public static boolean removeAbandonedThread(UpdateThread abandonedThread) {
 
-        if (threadPool == null) {
-            logger.info("Initializing Thread Pool for: " + getMaxThreads());
-            
+        boolean wasRemoved = releaseThread(abandonedThread);
+        if (wasRemoved) {
+            logger.warn("<WS> TransID: " + abandonedThread.getTransactionId() + " removed abandoned thread index: " + abandonedThread.getIndex() + " - " + getGovernor());
+        }
+
+        return wasRemoved;
+    }
+
+    /**
+     * Return the governor holding the permits.
+     * @return
+     */
+    private static ConcurrencyGovernor getGovernor() {
+
+        if (governor == null) {
             synchronized (WebServiceThreadManager.class) {
-                if (threadPool == null) {
+                if (governor == null) {
                     int maxThreads = getMaxThreads();
-                    threadPool = new ArrayBlockingQueue<UpdateThread>(maxThreads, IS_FAIR);
+                    logger.info("Initializing Thread Pool for: " + maxThreads);
+                    governor = new ConcurrencyGovernor("WebService", ConcurrencyLimitFactory.createLimit("WebService", maxThreads),
+                            UpdateExecutionEngineFactory.getEngine(), WebServiceThreadManager::threadRejected);
                 }
             }
         }
 
-        return threadPool;
+        return governor;
     }
 
     /**
@@ -383,9 +469,9 @@ public class WebServiceThreadManager {
 
         StringBuffer s = new StringBuffer();
 
-        s.append(indent + "WebServiceThreadManager" + "\n");
+        s.append(indent + "WebServiceThreadManager " + getGovernor() + "\n");
 
-        Iterator<UpdateThread> i = getThreadPool().iterator();
+        Iterator<UpdateThread> i = threadPool.keySet().iterator();
 
         while (i.hasNext()) {
             UpdateThread updateThread = i.next();
@@ -88,7 +88,14 @@ public class WebServiceThreadManagerMonitor extends Thread {
                                 logger.error("<WSTMM> WebServiceThreadManagerMonitor - DEAD THREAD DETECTED - start: " + start + " now: " + now + " ageWhenDead: " + ageWhenDead
                                         + " age: " + age + " ms." + " Trans ID: " + updateThread.getThreadId() + " thread index: " + updateThread.getIndex());
 
-                                // Mark thread finished and remove from Thread Pool.
+                                // Stop its DB call so the connection and row locks are given back.
+                                if (updateThread.getUpdateGroup().cancelActiveCall("dead thread after " + age + " ms")) {
+                                    logger.error("<WSTMM> WebServiceThreadManagerMonitor - cancelled stored procedure of Trans ID: " + updateThread.getThreadId());
+                                }
+
+                                // Mark thread finished and remove from Thread Pool.  Give back its Place/Plan key, or its place
+                                // in the queue for the key if it never got it, so the next thread for its Place/Plan can start.
+                                updateThread.releaseGroupKey();
                                 updateThread.setFinishedWithUpdate(true);
                                 WebServiceThreadManager.removeDeadThread(updateThread);
                             }
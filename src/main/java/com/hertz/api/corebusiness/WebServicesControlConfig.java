@@ -0,0 +1,143 @@
+package com.hertz.api.corebusiness;
+
+import com.hertz.rates.common.utils.HertzException;
+import com.hertz.rates.common.utils.config.ConfigData;
+import com.hertz.rates.common.utils.config.PropertyGroup;
+import com.hertz.rates.common.utils.logging.HertzLogger;
+
+/**
+ * Reads tuning values from the "WebServicesControl" group of Config Data.
+ *
+ * Any value that is missing or can not be parsed falls back to the supplied default,
+ * the same way getMaxThreads() and getDeadThreadAgeInMillis() handle their settings.
+ *
+ */
+public final class WebServicesControlConfig {
+
+    private final static HertzLogger logger = new HertzLogger(WebServicesControlConfig.class);
+
+    /** Config Data group holding the RUM processing controls. */
+    public final static String GROUP = "WebServicesControl";
+
+    /**
+     * Constructor - static access only.
+     */
+    private WebServicesControlConfig() {
+
+    }
+
+    /**
+     * Return the raw property value or the default if it is not configured.
+     * @param property
+     * @param defaultValue
+     * @return
+     */
+    public static String getString(String property, String defaultValue) {
+
+        String value = null;
+
+        try {
+            ConfigData configData = ConfigData.getInstance();
+            if (configData == null) {
+                logger.debug(property + " - invalid ConfigData");
+            }
+            else {
+                PropertyGroup propertyGroup = configData.getGroup(GROUP);
+                if (propertyGroup == null) {
+                    logger.debug(property + " - propertyGroup is null");
+                }
+                else {
+                    value = propertyGroup.getPropertyValue(property);
+                    if (value == null) {
+                        logger.debug(property + " - property value is null");
+                    }
+                }
+            }
+        }
+        catch (HertzException e) {
+            // Do nothing, just return the default value.
+            logger.debug(property + " - ConfigData issue");
+        }
+
+        return (value != null) ? value.trim() : defaultValue;
+    }
+
+    /**
+     * Return an integer property or the default if it is not configured or invalid.
+     * @param property
+     * @param defaultValue
+     * @return
+     */
+    public static int getInt(String property, int defaultValue) {
+
+        String value = getString(property, null);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value);
+            }
+            catch (NumberFormatException e) {
+                logger.error(property + " - invalid value: >" + value + "<");
+            }
+        }
+
+        return defaultValue;
+    }
+
+    /**
+     * Return a long property or the default if it is not configured or invalid.
+     * @param property
+     * @param defaultValue
+     * @return
+     */
+    public static long getLong(String property, long defaultValue) {
+
+        String value = getString(property, null);
+        if (value != null) {
+            try {
+                return Long.parseLong(value);
+            }
+            catch (NumberFormatException e) {
+                logger.error(property + " - invalid value: >" + value + "<");
+            }
+        }
+
+        return defaultValue;
+    }
+
+    /**
+     * Return a double property or the default if it is not configured or invalid.
+     * @param property
+     * @param defaultValue
+     * @return
+     */
+    public static double getDouble(String property, double defaultValue) {
+
+        String value = getString(property, null);
+        if (value != null) {
+            try {
+                return Double.parseDouble(value);
+            }
+            catch (NumberFormatException e) {
+                logger.error(property + " - invalid value: >" + value + "<");
+            }
+        }
+
+        return defaultValue;
+    }
+
+    /**
+     * Return a boolean property ("true"/"false") or the default if it is not configured.
+     * @param property
+     * @param defaultValue
+     * @return
+     */
+    public static boolean getBoolean(String property, boolean defaultValue) {
+
+        String value = getString(property, null);
+        if (value != null) {
+            return Boolean.parseBoolean(value);
+        }
+
+        return defaultValue;
+    }
+}
@@ -0,0 +1,246 @@
+package com.hertz.api.corebusiness;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.hertz.rates.common.utils.logging.HertzLogger;
+import com.hertz.api.metrics.RumMetrics;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Merges Webservice threads for the same Place/Plan from different transactions into one
+ * stored procedure call.
+ *
+ * The first thread for a Place/Plan opens a batch which stays open for the coalescing window.
+ * Threads of other transactions for the same Place/Plan queued in that time join it.  When the
+ * window ends the batch is queued on the Webservice Thread Manager: a batch of one thread as it
+ * is, a larger batch as one thread holding the changes of all of them.  The changes are the same
+ * objects, so each transaction's response sees its own results; every thread of the batch is
+ * finished when the merged one is.
+ *
+ * A thread that changes a Vehicle and date span already in the batch, or that would take the batch
+ * past the maximum number of changes, closes it and opens the next one.  Batches for a Place/Plan
+ * are queued in the order they were opened, so changes to the same rows keep their order.
+ *
+ * Config Data (WebServicesControl):
+ *   CoalesceWindowInMillis - time a batch stays open (default 0 = do not coalesce).
+ *   CoalesceMaxDetails     - most changes in one merged call (default 1000).
+ *
+ */
+public class WriteCoalescer {
+
+    private final static HertzLogger logger = new HertzLogger(WriteCoalescer.class);
+
+    private final static long DEFAULT_WINDOW_IN_MILLIS = 0L;
+    private final static int DEFAULT_MAX_DETAILS = 1000;
+
+    /** Singleton */
+    private static volatile WriteCoalescer coalescerSingleton = null;
+
+    private final long windowInMillis;
+    private final int maxDetails;
+    private final ScheduledThreadPoolExecutor timer;
+
+    /** Open batch of each coalescing key.  Guarded by this. */
+    private final HashMap<String, Batch> openBatches = new HashMap<String, Batch>();
+
+    private final AtomicInteger pendingThreads = new AtomicInteger();
+    private final AtomicLong mergedCalls = new AtomicLong();
+    private final AtomicLong mergedThreads = new AtomicLong();
+
+    private volatile MeterRegistry boundRegistry = null;
+
+    /**
+     * Threads waiting in the window for one coalescing key.
+     */
+    private static final class Batch {
+
+        private final String key;
+        private final ArrayList<UpdateThread> threads = new ArrayList<UpdateThread>();
+        private int details = 0;
+        private ScheduledFuture<?> flush = null;
+
+        private Batch(String key) {
+
+            this.key = key;
+        }
+    }
+
+    /**
+     * Constructor
+     */
+    private WriteCoalescer() {
+
+        this.windowInMillis = Math.max(0L, WebServicesControlConfig.getLong("CoalesceWindowInMillis", DEFAULT_WINDOW_IN_MILLIS));
+        this.maxDetails = Math.max(1, WebServicesControlConfig.getInt("CoalesceMaxDetails", DEFAULT_MAX_DETAILS));
+
+        if (windowInMillis > 0L) {
+            this.timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "WriteCoalescer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            this.timer.setRemoveOnCancelPolicy(true);
+        }
+        else {
+            this.timer = null;
+        }
+
+        logger.info("<WS> Write coalescing - window: " + windowInMillis + " ms max details: " + maxDetails);
+    }
+
+    /**
+     * Return the Singleton, creating it on first use.
+     * @return
+     */
+    public static WriteCoalescer getCoalescer() {
+
+        if (coalescerSingleton == null) {
+            synchronized (WriteCoalescer.class) {
+                if (coalescerSingleton == null) {
+                    coalescerSingleton = new WriteCoalescer();
+                }
+            }
+        }
+
+        return coalescerSingleton;
+    }
+
+    /**
+     * Can this thread wait in a batch?  Only new Webservice threads are coalesced, and only when a window is configured.
+     * Chunks of a split group are not: they were split to be sent apart.
+     * @param updateThread
+     * @return
+     */
+    public boolean accepts(UpdateThread updateThread) {
+
+        return timer != null && updateThread.getTransactionId() != null && updateThread.getAttempt() == 0
+                && updateThread.getUpdateGroup().getChangeDetails() != null && !updateThread.getUpdateGroup().isChunk();
+    }
+
+    /**
+     * Put the thread in the open batch for its Place/Plan, opening one if needed.  The batch is
+     * queued on the Webservice Thread Manager when its window ends.
+     * @param updateThread a thread this coalescer accepts.
+     */
+    public synchronized void offer(UpdateThread updateThread) {
+
+        RumUpdateGroup group = updateThread.getUpdateGroup();
+        String key = group.getCoalescingKey();
+        int details = group.getChangeDetails().size();
+
+        Batch batch = openBatches.get(key);
+        if (batch != null && (batch.details + details > maxDetails || sharesChange(batch, group))) {
+            // Send what is there first so these changes come after it.
+            closeAndQueue(batch);
+            batch = null;
+        }
+
+        if (batch == null) {
+            final Batch newBatch = new Batch(key);
+            newBatch.flush = timer.schedule(new Runnable() {
+                public void run() {
+                    flush(newBatch);
+                }
+            }, windowInMillis, TimeUnit.MILLISECONDS);
+            openBatches.put(key, newBatch);
+            batch = newBatch;
+        }
+
+        batch.threads.add(updateThread);
+        batch.details += details;
+        pendingThreads.incrementAndGet();
+    }
+
+    /**
+     * End of a batch's window.  It may already have been closed by a thread that could not join it.
+     * @param batch
+     */
+    private synchronized void flush(Batch batch) {
+
+        if (openBatches.get(batch.key) == batch) {
+            closeAndQueue(batch);
+        }
+    }
+
+    /**
+     * Close the batch and queue its threads, merged into one if there are several.  Called while
+     * holding the lock, so batches for a key are queued in the order they were opened.
+     * @param batch
+     */
+    private void closeAndQueue(Batch batch) {
+
+        openBatches.remove(batch.key);
+        if (batch.flush != null) {
+            batch.flush.cancel(false);
+        }
+        pendingThreads.addAndGet(-batch.threads.size());
+
+        UpdateThread threadToQueue;
+        if (batch.threads.size() == 1) {
+            threadToQueue = batch.threads.get(0);
+        }
+        else {
+            threadToQueue = UpdateThread.newCoalescedThread(batch.threads);
+            mergedCalls.incrementAndGet();
+            mergedThreads.addAndGet(batch.threads.size());
+            logger.info("<WS> Trans ID: " + threadToQueue.getTransactionId() + " coalesced " + batch.threads.size() + " threads with " + batch.details + " updates for: " + batch.key);
+        }
+
+        try {
+            WebServiceThreadManager.getWebThreadManager().queueCoalescedThread(threadToQueue);
+        }
+        catch (RuntimeException e) {
+            logger.error("<WS> Coalesced thread could not be queued: " + e.getMessage());
+            threadToQueue.getUpdateGroup().addErrorMessageToDetails(e);
+            threadToQueue.setFinishedWithUpdate(true);
+        }
+    }
+
+    private static boolean sharesChange(Batch batch, RumUpdateGroup group) {
+
+        Iterator<UpdateThread> iter = batch.threads.iterator();
+        while (iter.hasNext()) {
+            if (iter.next().getUpdateGroup().sharesChangeWith(group)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Register merged call, merged thread and pending thread metrics.  Safe to call repeatedly.
+     * @param meterRegistry
+     */
+    public void registerMetrics(MeterRegistry meterRegistry) {
+
+        if (meterRegistry == null || meterRegistry == boundRegistry) {
+            return;
+        }
+
+        synchronized (this) {
+            if (meterRegistry == boundRegistry) {
+                return;
+            }
+
+            FunctionCounter.builder(RumMetrics.METRIC_RUM_COALESCED_CALL_COUNT, mergedCalls, AtomicLong::get).register(meterRegistry);
+            FunctionCounter.builder(RumMetrics.METRIC_RUM_COALESCED_THREAD_COUNT, mergedThreads, AtomicLong::get).register(meterRegistry);
+            Gauge.builder(RumMetrics.METRIC_RUM_COALESCER_PENDING, pendingThreads, AtomicInteger::get).register(meterRegistry);
+
+            boundRegistry = meterRegistry;
+        }
+    }
+}
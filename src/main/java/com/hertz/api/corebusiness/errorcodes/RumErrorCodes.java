@@ -90,6 +90,9 @@ public class RumErrorCodes extends HertzErrorCode {
     public static final RumErrorCodes STORED_PROC_TIMING_IS_INVALID =
             new RumErrorCodes( "STORED_PROC_TIMING_IS_INVALID", ErrorSystem.CLIENT_SYSTEM, ErrorCategory.CODING_BUG);   
 
+    public static final RumErrorCodes STORED_PROC_TIMEOUT =
+        new RumErrorCodes( "STORED_PROC_TIMEOUT", ErrorSystem.CLIENT_SYSTEM, ErrorCategory.UNEXPECTED_PROBLEM);
+
     public static final RumErrorCodes GENERIC_ERROR =
         new RumErrorCodes( "GENERIC_ERROR", ErrorSystem.CLIENT_SYSTEM, ErrorCategory.UNEXPECTED_PROBLEM);   
  
@@ -0,0 +1,121 @@
+package com.hertz.api.corebusiness.execution;
+
+import com.hertz.rates.common.utils.logging.HertzLogger;
+
+/**
+ * Additive-increase / multiplicative-decrease limit driven by stored procedure latency.
+ *
+ * Latency is measured per rate row, so a large Plan/Place group is not mistaken for a slow
+ * database.  A short-term average is compared with a slowly moving baseline: when it rises
+ * above baseline * latencyTolerance, or a call reports locked rows or times out, the limit is cut by
+ * backoffRatio (at most once per cooldown).  Every healthy call adds 1/limit, so the limit
+ * grows by about one per round of calls.  The limit always stays between floor and ceiling.
+ *
+ */
+public class AimdConcurrencyLimit implements ConcurrencyLimit {
+
+    private final static HertzLogger logger = new HertzLogger(AimdConcurrencyLimit.class);
+
+    /** Weight of a new sample in the short-term per-row latency. */
+    private final static double RECENT_WEIGHT = 0.3;
+
+    /** Weight of a healthy sample in the baseline per-row latency. */
+    private final static double BASELINE_WEIGHT = 0.01;
+
+    /** Weight of a congested sample in the baseline, so a lasting slow-down is eventually accepted as normal. */
+    private final static double CONGESTED_BASELINE_WEIGHT = 0.001;
+
+    private final String name;
+    private final int floor;
+    private final int ceiling;
+    private final double backoffRatio;
+    private final double latencyTolerance;
+    private final long cooldownInMillis;
+
+    /** Guarded by this. */
+    private double limit;
+    private double recentPerRow = -1.0;
+    private double baselinePerRow = -1.0;
+    private long lastDecreaseTime = 0L;
+
+    /** Read without locking by the governor. */
+    private volatile int currentLimit;
+
+    /**
+     * Constructor.  The limit starts at the ceiling, matching the old fixed setting.
+     * @param name
+     * @param floor
+     * @param ceiling
+     * @param backoffRatio
+     * @param latencyTolerance
+     * @param cooldownInMillis
+     */
+    public AimdConcurrencyLimit(String name, int floor, int ceiling, double backoffRatio, double latencyTolerance, long cooldownInMillis) {
+
+        this.name = name;
+        this.ceiling = Math.max(1, ceiling);
+        this.floor = Math.max(1, Math.min(floor, this.ceiling));
+        this.backoffRatio = backoffRatio;
+        this.latencyTolerance = latencyTolerance;
+        this.cooldownInMillis = cooldownInMillis;
+
+        this.limit = this.ceiling;
+        this.currentLimit = this.ceiling;
+    }
+
+    public int getLimit() {
+
+        return currentLimit;
+    }
+
+    public int getMaximum() {
+
+        return ceiling;
+    }
+
+    public synchronized void onSample(long durationInMillis, int rows, boolean locked, boolean timedOut) {
+
+        double perRow = ((double) Math.max(0L, durationInMillis)) / Math.max(1, rows);
+
+        if (baselinePerRow < 0) {
+            baselinePerRow = perRow;
+            recentPerRow = perRow;
+        }
+        else {
+            recentPerRow += RECENT_WEIGHT * (perRow - recentPerRow);
+        }
+
+        boolean slow = recentPerRow > (baselinePerRow * latencyTolerance);
+
+        if (locked || timedOut || slow) {
+            baselinePerRow += CONGESTED_BASELINE_WEIGHT * (perRow - baselinePerRow);
+
+            long now = System.currentTimeMillis();
+            if ((now - lastDecreaseTime) >= cooldownInMillis && limit > floor) {
+                lastDecreaseTime = now;
+                limit = Math.max(floor, limit * backoffRatio);
+
+                logger.warn("<EXE> " + name + " concurrency limit lowered to " + (int) limit + (locked ? " - locked rows" : "") + (timedOut ? " - call timed out" : "")
+                        + (slow ? " - per row latency " + (long) recentPerRow + " ms baseline " + (long) baselinePerRow + " ms" : ""));
+            }
+        }
+        else {
+            baselinePerRow += BASELINE_WEIGHT * (perRow - baselinePerRow);
+
+            if (limit < ceiling) {
+                limit = Math.min(ceiling, limit + (1.0 / limit));
+                if ((int) limit == ceiling) {
+                    logger.info("<EXE> " + name + " concurrency limit back at maximum " + ceiling);
+                }
+            }
+        }
+
+        currentLimit = (int) limit;
+    }
+
+    public synchronized String toString() {
+
+        return "AIMD[" + name + " limit: " + (int) limit + " floor: " + floor + " ceiling: " + ceiling
+                + " recent: " + (long) recentPerRow + " ms/row baseline: " + (long) baselinePerRow + " ms/row]";
+    }
+}
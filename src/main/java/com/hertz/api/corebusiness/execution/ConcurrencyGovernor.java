@@ -0,0 +1,436 @@
+package com.hertz.api.corebusiness.execution;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.hertz.rates.common.utils.logging.HertzLogger;
+import com.hertz.api.metrics.RumMetrics;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Caps the number of update tasks running at once and starts waiting tasks in FIFO order.
+ *
+ * Admission never blocks the caller: a task that gets a permit is handed to the
+ * UpdateExecutionEngine at once, otherwise it is queued and started by whichever task
+ * releases the next permit.  All tasks of one admit() call are queued together, so the
+ * tasks of one transaction are started before those of any later transaction.
+ *
+ * The number of permits comes from a ConcurrencyLimit, which is told about every finished
+ * call that reports a ConcurrencySample and may move the limit up or down.
+ *
+ * Acquire and release are O(1) under a single short lock: a ticket released while it waits
+ * is only marked released and is dropped when it reaches the head of the queue.  Each Ticket
+ * gives its permit back exactly once, whether it is released by the task finishing or by a
+ * monitor that has given up on it.
+ *
+ */
+public class ConcurrencyGovernor {
+
+    private final static HertzLogger logger = new HertzLogger(ConcurrencyGovernor.class);
+
+    /** Metric tag naming the governor. */
+    public final static String TAG_GOVERNOR = "governor";
+
+    /** Called for a task the execution engine refused to run. */
+    public interface RejectionHandler {
+
+        public void rejected(Runnable task, RejectedExecutionException e);
+    }
+
+    private final String name;
+    private final ConcurrencyLimit concurrencyLimit;
+    private final UpdateExecutionEngine engine;
+    private final RejectionHandler rejectionHandler;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    /** May also hold tickets released while they waited, which are skipped.  Guarded by lock. */
+    private final ArrayDeque<Ticket> waiting = new ArrayDeque<Ticket>();
+
+    /** Guarded by lock. */
+    private int limit;
+    private int inUse = 0;
+    /** Tickets in the wait queue which are still WAITING. */
+    private int waitingCount = 0;
+
+    /** Totals for logging, guarded by lock. */
+    private long totalAdmitted = 0L;
+    private long totalWaitNanos = 0L;
+
+    private volatile Timer waitTimer = null;
+    private volatile MeterRegistry boundRegistry = null;
+
+    /**
+     * Constructor
+     * @param name
+     * @param concurrencyLimit
+     * @param engine
+     * @param rejectionHandler
+     */
+    public ConcurrencyGovernor(String name, ConcurrencyLimit concurrencyLimit, UpdateExecutionEngine engine, RejectionHandler rejectionHandler) {
+
+        this.name = name;
+        this.concurrencyLimit = concurrencyLimit;
+        this.limit = Math.max(1, concurrencyLimit.getLimit());
+        this.engine = engine;
+        this.rejectionHandler = rejectionHandler;
+    }
+
+    /**
+     * Create a ticket for the task without admitting it.  Lets a caller record the ticket
+     * before the task can possibly start.
+     * @param task
+     * @return
+     */
+    public Ticket newTicket(Runnable task) {
+
+        return new Ticket(task);
+    }
+
+    /**
+     * Admit a single task.
+     * @param task
+     * @return
+     */
+    public Ticket admit(Runnable task) {
+
+        ArrayList<Ticket> tickets = new ArrayList<Ticket>(1);
+        tickets.add(new Ticket(task));
+        admit(tickets);
+
+        return tickets.get(0);
+    }
+
+    /**
+     * Admit the tickets in order.  Tickets within the limit start now, the rest wait behind
+     * every ticket admitted before them.  Never blocks.
+     * @param tickets
+     * @return number of tickets admitted: tickets already admitted or released are skipped.
+     */
+    public int admit(List<Ticket> tickets) {
+
+        ArrayList<Ticket> toStart = new ArrayList<Ticket>();
+        int admitted = 0;
+
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+
+            Iterator<Ticket> iter = tickets.iterator();
+            while (iter.hasNext()) {
+                Ticket ticket = iter.next();
+                if (ticket.state != Ticket.NEW) {
+                    // Already admitted or released by a monitor.
+                    continue;
+                }
+
+                ticket.admittedNanos = now;
+                totalAdmitted++;
+                admitted++;
+
+                if (waitingCount == 0 && inUse < limit) {
+                    startLocked(ticket);
+                    toStart.add(ticket);
+                }
+                else {
+                    ticket.state = Ticket.WAITING;
+                    waiting.addLast(ticket);
+                    waitingCount++;
+                }
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+
+        submitAll(toStart);
+
+        return admitted;
+    }
+
+    /**
+     * Report a finished task to the ConcurrencyLimit and pick up any change in the limit.
+     * @param task
+     */
+    private void recordSample(Runnable task) {
+
+        if (!(task instanceof ConcurrencySample)) {
+            return;
+        }
+
+        ConcurrencySample sample = (ConcurrencySample) task;
+        if (!sample.hasSample()) {
+            return;
+        }
+
+        concurrencyLimit.onSample(sample.getCallDurationInMillis(), sample.getCallRows(), sample.hasLockedResult(), sample.hasTimedOutResult());
+
+        if (concurrencyLimit.getLimit() != getLimit()) {
+            applyLimit();
+        }
+    }
+
+    /**
+     * Take the number of permits from the ConcurrencyLimit.  Raising it starts waiting tasks
+     * at once, lowering it takes effect as running tasks finish.
+     */
+    private void applyLimit() {
+
+        ArrayList<Ticket> toStart;
+
+        lock.lock();
+        try {
+            limit = Math.max(1, concurrencyLimit.getLimit());
+            toStart = pollStartableLocked();
+        }
+        finally {
+            lock.unlock();
+        }
+
+        submitAll(toStart);
+    }
+
+    /**
+     * Give back the ticket's permit, or take it out of the wait count if it has not started.
+     * A ticket released before it is admitted is never started.
+     * Starts the next waiting task(s).
+     * @param ticket
+     * @return true if this call released the ticket, false if it was already released.
+     */
+    boolean release(Ticket ticket) {
+
+        ArrayList<Ticket> toStart = null;
+
+        lock.lock();
+        try {
+            if (ticket.state == Ticket.RELEASED) {
+                return false;
+            }
+
+            if (ticket.state == Ticket.WAITING) {
+                // Rare: only a monitor gives up on a task that has not started.
+                // It stays queued as RELEASED and is skipped when polled.
+                waitingCount--;
+                if (waitingCount == 0) {
+                    // Only skipped tickets are left, each added once, so this stays O(1) per ticket.
+                    waiting.clear();
+                }
+            }
+            else if (ticket.state == Ticket.RUNNING) {
+                inUse--;
+                toStart = pollStartableLocked();
+            }
+            ticket.state = Ticket.RELEASED;
+        }
+        finally {
+            lock.unlock();
+        }
+
+        if (toStart != null) {
+            submitAll(toStart);
+        }
+
+        return true;
+    }
+
+    /**
+     * Call ONLY while holding the lock.
+     * @return waiting tickets that now have a permit.
+     */
+    private ArrayList<Ticket> pollStartableLocked() {
+
+        ArrayList<Ticket> toStart = new ArrayList<Ticket>();
+        while (inUse < limit && waitingCount > 0) {
+            Ticket ticket = waiting.pollFirst();
+            if (ticket.state != Ticket.WAITING) {
+                // Released while it waited.
+                continue;
+            }
+            waitingCount--;
+            startLocked(ticket);
+            toStart.add(ticket);
+        }
+
+        return toStart;
+    }
+
+    /**
+     * Call ONLY while holding the lock.
+     * @param ticket
+     */
+    private void startLocked(Ticket ticket) {
+
+        inUse++;
+        ticket.state = Ticket.RUNNING;
+
+        long waitNanos = System.nanoTime() - ticket.admittedNanos;
+        totalWaitNanos += waitNanos;
+
+        Timer timer = waitTimer;
+        if (timer != null) {
+            timer.record(waitNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Hand tickets to the execution engine outside the lock.
+     * @param toStart
+     */
+    private void submitAll(List<Ticket> toStart) {
+
+        for (int i = 0; i < toStart.size(); i++) {
+            final Ticket ticket = toStart.get(i);
+            try {
+                engine.submit(ticket);
+            }
+            catch (RejectedExecutionException e) {
+                logger.error("<EXE> " + name + " task rejected by Execution Engine " + engine.getName());
+                release(ticket);
+                if (rejectionHandler != null) {
+                    rejectionHandler.rejected(ticket.task, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Register live permit, waiter and wait-time metrics.  Safe to call repeatedly.
+     * @param meterRegistry
+     */
+    public void registerMetrics(MeterRegistry meterRegistry) {
+
+        if (meterRegistry == null || meterRegistry == boundRegistry) {
+            return;
+        }
+
+        synchronized (this) {
+            if (meterRegistry == boundRegistry) {
+                return;
+            }
+
+            Gauge.builder(RumMetrics.METRIC_RUM_GOVERNOR_PERMITS_IN_USE, this, ConcurrencyGovernor::getInUse)
+                    .tag(TAG_GOVERNOR, name).register(meterRegistry);
+            Gauge.builder(RumMetrics.METRIC_RUM_GOVERNOR_PERMIT_LIMIT, this, ConcurrencyGovernor::getLimit)
+                    .tag(TAG_GOVERNOR, name).register(meterRegistry);
+            Gauge.builder(RumMetrics.METRIC_RUM_GOVERNOR_WAITERS, this, ConcurrencyGovernor::getWaiting)
+                    .tag(TAG_GOVERNOR, name).register(meterRegistry);
+            waitTimer = Timer.builder(RumMetrics.METRIC_RUM_GOVERNOR_WAIT_TIME)
+                    .tag(TAG_GOVERNOR, name).register(meterRegistry);
+
+            boundRegistry = meterRegistry;
+        }
+    }
+
+    public String getName() {
+
+        return name;
+    }
+
+    public int getLimit() {
+
+        lock.lock();
+        try {
+            return limit;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInUse() {
+
+        lock.lock();
+        try {
+            return inUse;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public int getWaiting() {
+
+        lock.lock();
+        try {
+            return waitingCount;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Describe this object.
+     * @return
+     */
+    public String toString() {
+
+        lock.lock();
+        try {
+            long averageWaitMillis = (totalAdmitted > 0) ? TimeUnit.NANOSECONDS.toMillis(totalWaitNanos / totalAdmitted) : 0L;
+            return name + " [inUse: " + inUse + " limit: " + limit + " waiting: " + waitingCount
+                    + " admitted: " + totalAdmitted + " avgWait: " + averageWaitMillis + " ms]";
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * One admitted task.  Runs the task and then gives its permit back.
+     */
+    public final class Ticket implements Runnable {
+
+        final static int NEW = 0;
+        final static int WAITING = 1;
+        final static int RUNNING = 2;
+        final static int RELEASED = 3;
+
+        private final Runnable task;
+
+        /** Guarded by the governor lock. */
+        private long admittedNanos = 0L;
+        private int state = NEW;
+
+        private Ticket(Runnable task) {
+
+            this.task = task;
+        }
+
+        public void run() {
+
+            try {
+                task.run();
+            }
+            finally {
+                try {
+                    recordSample(task);
+                }
+                finally {
+                    release();
+                }
+            }
+        }
+
+        /**
+         * Give back this ticket's permit.  Only the first call has any effect.
+         * @return true if this call released the ticket.
+         */
+        public boolean release() {
+
+            return ConcurrencyGovernor.this.release(this);
+        }
+
+        public Runnable getTask() {
+
+            return task;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.hertz.api.corebusiness.execution;
+
+/**
+ * Decides how many RUM update calls may run against the database at once.
+ *
+ * A ConcurrencyGovernor reads the limit and reports each finished call back, so an
+ * implementation may move the limit with the observed stored procedure latency.
+ *
+ */
+public interface ConcurrencyLimit {
+
+    /**
+     * Current number of calls allowed to run at once.
+     * @return
+     */
+    public int getLimit();
+
+    /**
+     * Highest limit this implementation will allow.
+     * @return
+     */
+    public int getMaximum();
+
+    /**
+     * Report one finished stored procedure call.
+     * @param durationInMillis time spent in the call
+     * @param rows number of rate rows sent in the call
+     * @param locked true if the database reported locked rows
+     * @param timedOut true if the call was stopped by its timeout or cancelled
+     */
+    public void onSample(long durationInMillis, int rows, boolean locked, boolean timedOut);
+}
@@ -0,0 +1,68 @@
+package com.hertz.api.corebusiness.execution;
+
+import com.hertz.rates.common.utils.logging.HertzLogger;
+import com.hertz.api.corebusiness.WebServicesControlConfig;
+
+/**
+ * Creates the ConcurrencyLimit for a governor.
+ *
+ * The configured maximum (WebServicesMaxThreadCount, numberOfConcurrentUpdates) is the ceiling.
+ *
+ * Config Data (WebServicesControl):
+ *   AdaptiveConcurrencyEnabled          - "true" (default) to adapt the limit, "false" for the fixed maximum.
+ *   AdaptiveConcurrencyFloor            - lowest limit (default 10, never above the ceiling).
+ *   AdaptiveConcurrencyBackoffRatio     - multiplier applied on congestion (default 0.9).
+ *   AdaptiveConcurrencyLatencyTolerance - per row latency over baseline that counts as congestion (default 2.0).
+ *   AdaptiveConcurrencyCooldownInMillis - minimum time between decreases (default 1000).
+ *
+ */
+public final class ConcurrencyLimitFactory {
+
+    private final static HertzLogger logger = new HertzLogger(ConcurrencyLimitFactory.class);
+
+    private final static int DEFAULT_FLOOR = 10;
+    private final static double DEFAULT_BACKOFF_RATIO = 0.9;
+    private final static double DEFAULT_LATENCY_TOLERANCE = 2.0;
+    private final static long DEFAULT_COOLDOWN_IN_MILLIS = 1000L;
+
+    /**
+     * Constructor - static access only.
+     */
+    private ConcurrencyLimitFactory() {
+
+    }
+
+    /**
+     * Build the limit selected in Config Data.
+     * @param name
+     * @param ceiling
+     * @return
+     */
+    public static ConcurrencyLimit createLimit(String name, int ceiling) {
+
+        if (!WebServicesControlConfig.getBoolean("AdaptiveConcurrencyEnabled", true)) {
+            return new FixedConcurrencyLimit(ceiling);
+        }
+
+        int floor = WebServicesControlConfig.getInt("AdaptiveConcurrencyFloor", DEFAULT_FLOOR);
+
+        double backoffRatio = WebServicesControlConfig.getDouble("AdaptiveConcurrencyBackoffRatio", DEFAULT_BACKOFF_RATIO);
+        if (backoffRatio <= 0.0 || backoffRatio >= 1.0) {
+            logger.error("<EXE> Invalid AdaptiveConcurrencyBackoffRatio: " + backoffRatio + " using " + DEFAULT_BACKOFF_RATIO);
+            backoffRatio = DEFAULT_BACKOFF_RATIO;
+        }
+
+        double latencyTolerance = WebServicesControlConfig.getDouble("AdaptiveConcurrencyLatencyTolerance", DEFAULT_LATENCY_TOLERANCE);
+        if (latencyTolerance <= 1.0) {
+            logger.error("<EXE> Invalid AdaptiveConcurrencyLatencyTolerance: " + latencyTolerance + " using " + DEFAULT_LATENCY_TOLERANCE);
+            latencyTolerance = DEFAULT_LATENCY_TOLERANCE;
+        }
+
+        long cooldownInMillis = WebServicesControlConfig.getLong("AdaptiveConcurrencyCooldownInMillis", DEFAULT_COOLDOWN_IN_MILLIS);
+
+        ConcurrencyLimit limit = new AimdConcurrencyLimit(name, floor, ceiling, backoffRatio, latencyTolerance, cooldownInMillis);
+        logger.info("<EXE> Concurrency limit: " + limit);
+
+        return limit;
+    }
+}
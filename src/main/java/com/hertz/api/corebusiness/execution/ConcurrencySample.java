@@ -0,0 +1,34 @@
+package com.hertz.api.corebusiness.execution;
+
+/**
+ * A task that can report how its stored procedure call went, for the ConcurrencyLimit.
+ * Failed and timed-out calls are reported too: they say the most about a struggling database.
+ *
+ */
+public interface ConcurrencySample {
+
+    /**
+     * @return false if the task never reached the database, so there is nothing to report.
+     */
+    public boolean hasSample();
+
+    /**
+     * @return time spent in the stored procedure call.
+     */
+    public long getCallDurationInMillis();
+
+    /**
+     * @return number of rate rows sent in the call.
+     */
+    public int getCallRows();
+
+    /**
+     * @return true if the database reported locked rows.
+     */
+    public boolean hasLockedResult();
+
+    /**
+     * @return true if the call was stopped by its timeout or cancelled.
+     */
+    public boolean hasTimedOutResult();
+}
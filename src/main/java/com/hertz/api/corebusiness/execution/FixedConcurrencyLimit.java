@@ -0,0 +1,39 @@
+package com.hertz.api.corebusiness.execution;
+
+/**
+ * A limit that never changes: the hand-tuned behavior from before adaptive limits.
+ *
+ */
+public class FixedConcurrencyLimit implements ConcurrencyLimit {
+
+    private final int limit;
+
+    /**
+     * Constructor
+     * @param limit
+     */
+    public FixedConcurrencyLimit(int limit) {
+
+        this.limit = Math.max(1, limit);
+    }
+
+    public int getLimit() {
+
+        return limit;
+    }
+
+    public int getMaximum() {
+
+        return limit;
+    }
+
+    public void onSample(long durationInMillis, int rows, boolean locked, boolean timedOut) {
+
+        // Fixed: samples are ignored.
+    }
+
+    public String toString() {
+
+        return "Fixed[" + limit + "]";
+    }
+}
@@ -0,0 +1,66 @@
+package com.hertz.api.corebusiness.execution;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Execution engine backed by a fixed-size pool of platform threads.
+ *
+ * Idle threads are allowed to time out so a quiet server does not hold the full pool.
+ * Tasks beyond the pool size wait in the pool's queue instead of creating new threads.
+ *
+ */
+public class FixedPoolExecutionEngine implements UpdateExecutionEngine {
+
+    /** Seconds an idle pool thread is kept before it is released. */
+    private final static long IDLE_KEEP_ALIVE_SECONDS = 60L;
+
+    private final ThreadPoolExecutor executor;
+    private final int poolSize;
+
+    /**
+     * Constructor
+     * @param poolSize
+     */
+    public FixedPoolExecutionEngine(int poolSize) {
+
+        this.poolSize = poolSize;
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, IDLE_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new UpdateThreadFactory());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    public Future<?> submit(Runnable task) {
+
+        return executor.submit(task);
+    }
+
+    public String getName() {
+
+        return "FixedPool[" + poolSize + "]";
+    }
+
+    public void shutdown() {
+
+        executor.shutdown();
+    }
+
+    /**
+     * Names the pool threads so they can be found in thread dumps.
+     */
+    private static class UpdateThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        public Thread newThread(Runnable r) {
+
+            Thread thread = new Thread(r, "RumUpdate-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
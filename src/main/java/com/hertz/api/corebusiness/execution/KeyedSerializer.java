@@ -0,0 +1,323 @@
+package com.hertz.api.corebusiness.execution;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.hertz.rates.common.utils.logging.HertzLogger;
+import com.hertz.api.corebusiness.WebServicesControlConfig;
+import com.hertz.api.metrics.RumMetrics;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Lets one task per key run at a time.  Tasks for a key that is busy wait in a FIFO queue for
+ * that key and are started, one by one, as the task ahead of them releases it.  Tasks for
+ * different keys never wait for each other.
+ *
+ * Update threads for the same Place/Plan would otherwise run in parallel and collide on the
+ * same rows.  The key is taken before a thread asks its governor for a permit, so a thread
+ * waiting for its key does not hold a permit.
+ *
+ * Config Data (WebServicesControl):
+ *   GroupSerializationEnabled - serialize threads for the same Place/Plan (default true).
+ *
+ */
+public class KeyedSerializer {
+
+    private final static HertzLogger logger = new HertzLogger(KeyedSerializer.class);
+
+    /** Singleton shared by the Webservice and File-based paths: both update the same rows. */
+    private static volatile KeyedSerializer groupSerializer = null;
+
+    private final String name;
+    private final boolean enabled;
+
+    /** Busy keys, each with the tasks waiting for it */
+    private final ConcurrentHashMap<String, ArrayDeque<Runnable>> busyKeys = new ConcurrentHashMap<String, ArrayDeque<Runnable>>();
+
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong contended = new AtomicLong();
+
+    private volatile MeterRegistry boundRegistry = null;
+
+    /**
+     * Constructor
+     * @param name
+     * @param enabled false to start every task at once.
+     */
+    public KeyedSerializer(String name, boolean enabled) {
+
+        this.name = name;
+        this.enabled = enabled;
+
+        logger.info("Keyed serializer " + name + " - enabled: " + enabled);
+    }
+
+    /**
+     * Return the serializer for Place/Plan groups, creating it on first use.
+     * @return
+     */
+    public static KeyedSerializer getGroupSerializer() {
+
+        if (groupSerializer == null) {
+            synchronized (KeyedSerializer.class) {
+                if (groupSerializer == null) {
+                    groupSerializer = new KeyedSerializer("PlacePlan", WebServicesControlConfig.getBoolean("GroupSerializationEnabled", true));
+                }
+            }
+        }
+
+        return groupSerializer;
+    }
+
+    /**
+     * Take the key for a task.
+     * @param key
+     * @param onTurn run when the key is handed to this task, if it is busy now.
+     * @return true if the key was free: the caller holds it and starts the task itself.
+     */
+    public boolean acquire(String key, final Runnable onTurn) {
+
+        if (!enabled || key == null) {
+            return true;
+        }
+
+        final boolean[] acquired = new boolean[1];
+        busyKeys.compute(key, (k, waiters) -> {
+            if (waiters == null) {
+                acquired[0] = true;
+                return new ArrayDeque<Runnable>(1);
+            }
+            waiters.addLast(onTurn);
+            return waiters;
+        });
+
+        if (!acquired[0]) {
+            waiting.incrementAndGet();
+            contended.incrementAndGet();
+            logger.debug(name + " key busy, task queued: " + key);
+        }
+
+        return acquired[0];
+    }
+
+    /**
+     * Give back the key.  The next task waiting for it, if any, now holds it and is started.
+     * @param key
+     */
+    public void release(String key) {
+
+        if (!enabled || key == null) {
+            return;
+        }
+
+        final Runnable[] next = new Runnable[1];
+        busyKeys.computeIfPresent(key, (k, waiters) -> {
+            next[0] = waiters.pollFirst();
+            return (next[0] == null) ? null : waiters;
+        });
+
+        if (next[0] != null) {
+            waiting.decrementAndGet();
+            next[0].run();
+        }
+    }
+
+    /**
+     * Take a task that is still waiting out of the key's queue, so the key is never handed to it.
+     * @param key
+     * @param onTurn the Runnable the task queued with.
+     * @return true if it was waiting; false if the key has already been handed to it.
+     */
+    public boolean cancel(String key, final Runnable onTurn) {
+
+        if (!enabled || key == null) {
+            return false;
+        }
+
+        final boolean[] removed = new boolean[1];
+        busyKeys.computeIfPresent(key, (k, waiters) -> {
+            removed[0] = waiters.removeFirstOccurrence(onTurn);
+            return waiters;
+        });
+
+        if (removed[0]) {
+            waiting.decrementAndGet();
+            logger.debug(name + " queued task cancelled: " + key);
+        }
+
+        return removed[0];
+    }
+
+    /**
+     * New key to be held jointly by several tasks that may run together, such as the chunks of one
+     * group that change different Vehicles.
+     * @param key
+     * @return
+     */
+    public SharedKey newSharedKey(String key) {
+
+        return new SharedKey(key);
+    }
+
+    /**
+     * A key taken once for a set of tasks.  The first task to ask for it takes it from the
+     * serializer; the others join it, or wait with the first one if it is busy.  It is given back to
+     * the serializer when the last task holding it releases it.
+     */
+    public final class SharedKey {
+
+        private final String key;
+        private boolean held = false;
+        private int holders = 0;
+        private ArrayList<Runnable> waiters = null;
+        /** Place of the waiters in the serializer's queue for the key. */
+        private final Runnable turnInQueue = new Runnable() {
+            public void run() {
+                handOver();
+            }
+        };
+
+        private SharedKey(String key) {
+
+            this.key = key;
+        }
+
+        /**
+         * Take the key for one of the tasks.
+         * @param onTurn run when the key is handed to the tasks, if it is busy now.
+         * @return true if the key is held: the caller starts the task itself.
+         */
+        public boolean acquire(Runnable onTurn) {
+
+            if (!enabled || key == null) {
+                return true;
+            }
+
+            synchronized (this) {
+                if (held) {
+                    holders++;
+                    return true;
+                }
+                if (waiters != null) {
+                    waiters.add(onTurn);
+                    return false;
+                }
+
+                // First task: ask the serializer.  It never calls back from within acquire.
+                if (KeyedSerializer.this.acquire(key, turnInQueue)) {
+                    held = true;
+                    holders = 1;
+                    return true;
+                }
+
+                waiters = new ArrayList<Runnable>();
+                waiters.add(onTurn);
+                return false;
+            }
+        }
+
+        /**
+         * Give back one task's hold on the key.
+         */
+        public void release() {
+
+            if (!enabled || key == null) {
+                return;
+            }
+
+            synchronized (this) {
+                holders--;
+                if (holders > 0) {
+                    return;
+                }
+                held = false;
+            }
+
+            KeyedSerializer.this.release(key);
+        }
+
+        /**
+         * Take a task that is still waiting out of the queue.  Once no task is left waiting the
+         * key's place in the serializer's queue is given up too.
+         * @param onTurn the Runnable the task queued with.
+         * @return true if it was waiting; false if the key has already been handed to it.
+         */
+        public boolean cancel(Runnable onTurn) {
+
+            if (!enabled || key == null) {
+                return false;
+            }
+
+            synchronized (this) {
+                if (waiters == null || !waiters.remove(onTurn)) {
+                    return false;
+                }
+                if (waiters.isEmpty() && KeyedSerializer.this.cancel(key, turnInQueue)) {
+                    waiters = null;
+                }
+            }
+
+            return true;
+        }
+
+        /**
+         * The serializer handed the key over: start every task waiting for it.  If they have all
+         * been cancelled the key goes straight back.
+         */
+        private void handOver() {
+
+            ArrayList<Runnable> turn;
+            synchronized (this) {
+                turn = waiters;
+                waiters = null;
+                held = !turn.isEmpty();
+                holders = turn.size();
+            }
+
+            if (turn.isEmpty()) {
+                KeyedSerializer.this.release(key);
+                return;
+            }
+
+            Iterator<Runnable> iter = turn.iterator();
+            while (iter.hasNext()) {
+                iter.next().run();
+            }
+        }
+    }
+
+    /**
+     * Register busy key, waiting task and contention metrics.  Safe to call repeatedly.
+     * @param meterRegistry
+     */
+    public void registerMetrics(MeterRegistry meterRegistry) {
+
+        if (meterRegistry == null || meterRegistry == boundRegistry) {
+            return;
+        }
+
+        synchronized (this) {
+            if (meterRegistry == boundRegistry) {
+                return;
+            }
+
+            Gauge.builder(RumMetrics.METRIC_RUM_SERIALIZER_BUSY_KEYS, busyKeys, ConcurrentHashMap::size).tag("serializer", name).register(meterRegistry);
+            Gauge.builder(RumMetrics.METRIC_RUM_SERIALIZER_WAITERS, waiting, AtomicInteger::get).tag("serializer", name).register(meterRegistry);
+            FunctionCounter.builder(RumMetrics.METRIC_RUM_SERIALIZER_CONTENDED_COUNT, contended, AtomicLong::get).tag("serializer", name).register(meterRegistry);
+
+            boundRegistry = meterRegistry;
+        }
+    }
+
+    public String toString() {
+
+        return "KeyedSerializer " + name + " busy keys: " + busyKeys.size() + " waiting: " + waiting.get() + " contended: " + contended.get();
+    }
+}
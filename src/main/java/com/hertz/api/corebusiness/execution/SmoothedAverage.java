@@ -0,0 +1,55 @@
+package com.hertz.api.corebusiness.execution;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An exponentially weighted moving average that many threads may add to without a lock.
+ *
+ * Each sample moves the average by weight times its distance from the average.  An average of
+ * exactly zero has no history yet: the first sample is taken as it is.
+ *
+ */
+public class SmoothedAverage {
+
+    private final double weight;
+
+    /** The average, as double bits. */
+    private final AtomicLong average;
+
+    /**
+     * Constructor
+     * @param weight weight of the newest sample, between 0 and 1.
+     * @param initial average before any sample; 0.0 to start from the first sample.
+     */
+    public SmoothedAverage(double weight, double initial) {
+
+        this.weight = weight;
+        this.average = new AtomicLong(Double.doubleToLongBits(initial));
+    }
+
+    /**
+     * Add a sample to the average.
+     * @param sample
+     */
+    public void add(double sample) {
+
+        while (true) {
+            long currentBits = average.get();
+            double current = Double.longBitsToDouble(currentBits);
+            double updated = (current == 0.0) ? sample : current + weight * (sample - current);
+            if (average.compareAndSet(currentBits, Double.doubleToLongBits(updated))) {
+                return;
+            }
+        }
+    }
+
+    public double get() {
+
+        return Double.longBitsToDouble(average.get());
+    }
+
+    public String toString() {
+
+        return String.valueOf(get());
+    }
+}
@@ -0,0 +1,32 @@
+package com.hertz.api.corebusiness.execution;
+
+import java.util.concurrent.Future;
+
+/**
+ * Runs RUM update tasks (one per Plan/Place group) on reusable threads.
+ *
+ * Callers hand over a task and return immediately.  How many threads exist, and whether
+ * they are platform or virtual threads, is decided by the implementation, so the cost of
+ * running a batch no longer grows with the number of groups in it.
+ *
+ */
+public interface UpdateExecutionEngine {
+
+    /**
+     * Schedule the task for execution.
+     * @param task
+     * @return Future that completes when the task has run.
+     */
+    public Future<?> submit(Runnable task);
+
+    /**
+     * Name of this engine, used in logging.
+     * @return
+     */
+    public String getName();
+
+    /**
+     * Stop accepting tasks.  Tasks already submitted are allowed to finish.
+     */
+    public void shutdown();
+}
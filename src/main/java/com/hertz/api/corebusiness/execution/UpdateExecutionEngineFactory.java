@@ -0,0 +1,74 @@
+package com.hertz.api.corebusiness.execution;
+
+import com.hertz.rates.common.utils.logging.HertzLogger;
+import com.hertz.api.corebusiness.WebServicesControlConfig;
+
+/**
+ * Creates the single UpdateExecutionEngine shared by File-based and Webservice updates.
+ *
+ * Config Data (WebServicesControl):
+ *   UpdateExecutionMode     - "FIXED" (default) for a platform thread pool, "VIRTUAL" for virtual-thread-per-task.
+ *   UpdateExecutionPoolSize - number of pool threads in FIXED mode (default 300).
+ *
+ */
+public final class UpdateExecutionEngineFactory {
+
+    private final static HertzLogger logger = new HertzLogger(UpdateExecutionEngineFactory.class);
+
+    public final static String MODE_FIXED = "FIXED";
+    public final static String MODE_VIRTUAL = "VIRTUAL";
+
+    private final static int DEFAULT_POOL_SIZE = 300;
+
+    private static volatile UpdateExecutionEngine engine = null;
+
+    /**
+     * Constructor - static access only.
+     */
+    private UpdateExecutionEngineFactory() {
+
+    }
+
+    /**
+     * Return the shared engine, creating it on first use.
+     * @return
+     */
+    public static UpdateExecutionEngine getEngine() {
+
+        if (engine == null) {
+            synchronized (UpdateExecutionEngineFactory.class) {
+                if (engine == null) {
+                    engine = createEngine();
+                    logger.info("<EXE> Update Execution Engine: " + engine.getName());
+                }
+            }
+        }
+
+        return engine;
+    }
+
+    /**
+     * Build the engine selected in Config Data.
+     * @return
+     */
+    private static UpdateExecutionEngine createEngine() {
+
+        String mode = WebServicesControlConfig.getString("UpdateExecutionMode", MODE_FIXED);
+
+        if (MODE_VIRTUAL.equalsIgnoreCase(mode)) {
+            return new VirtualThreadExecutionEngine();
+        }
+
+        if (!MODE_FIXED.equalsIgnoreCase(mode)) {
+            logger.error("<EXE> Unknown UpdateExecutionMode: >" + mode + "< using " + MODE_FIXED);
+        }
+
+        int poolSize = WebServicesControlConfig.getInt("UpdateExecutionPoolSize", DEFAULT_POOL_SIZE);
+        if (poolSize <= 0) {
+            logger.error("<EXE> Invalid UpdateExecutionPoolSize: " + poolSize + " using " + DEFAULT_POOL_SIZE);
+            poolSize = DEFAULT_POOL_SIZE;
+        }
+
+        return new FixedPoolExecutionEngine(poolSize);
+    }
+}
@@ -0,0 +1,41 @@
+package com.hertz.api.corebusiness.execution;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Execution engine that runs every task on its own virtual thread.
+ *
+ * Virtual threads are cheap to create and park while blocked in JDBC calls, so no pool
+ * sizing is needed.  The number of concurrent DB calls is still capped by the caller's
+ * permit budget.
+ *
+ */
+public class VirtualThreadExecutionEngine implements UpdateExecutionEngine {
+
+    private final ExecutorService executor;
+
+    /**
+     * Constructor
+     */
+    public VirtualThreadExecutionEngine() {
+
+        this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("RumUpdate-v-", 1).factory());
+    }
+
+    public Future<?> submit(Runnable task) {
+
+        return executor.submit(task);
+    }
+
+    public String getName() {
+
+        return "VirtualThreadPerTask";
+    }
+
+    public void shutdown() {
+
+        executor.shutdown();
+    }
+}
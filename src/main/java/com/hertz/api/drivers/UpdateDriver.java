@@ -3,7 +3,13 @@ package com.hertz.api.drivers;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import com.hertz.rates.common.errorcodes.CommonErrorCodes;
 import com.hertz.rates.common.mq.GUIDGenerator;
@@ -17,21 +23,34 @@ import com.hertz.rates.common.utils.config.PropertyGroup;
 import com.hertz.rates.common.utils.logging.HertzLogger;
 import com.hertz.rates.common.utils.logging.LogLevel;
 import com.hertz.api.corebusiness.AreaLocationsToPlaceIdCodeList;
+import com.hertz.api.corebusiness.GroupOrdering;
+import com.hertz.api.corebusiness.LockedGroupRetryScheduler;
 import com.hertz.api.corebusiness.RumChangeDetails;
 import com.hertz.api.corebusiness.RumLocationInfo;
 import com.hertz.api.corebusiness.RumUpdateGroup;
+import com.hertz.api.corebusiness.RumUpdateJob;
 import com.hertz.api.corebusiness.UpdateList;
 import com.hertz.api.corebusiness.UpdateRow;
 import com.hertz.api.corebusiness.UpdateThread;
+import com.hertz.api.corebusiness.WebServicesControlConfig;
 import com.hertz.api.corebusiness.WebServiceThreadManager;
+import com.hertz.api.corebusiness.WriteCoalescer;
 import com.hertz.api.corebusiness.errorcodes.RumErrorCodes;
+import com.hertz.api.corebusiness.execution.ConcurrencyGovernor;
+import com.hertz.api.corebusiness.execution.ConcurrencyLimit;
+import com.hertz.api.corebusiness.execution.ConcurrencyLimitFactory;
+import com.hertz.api.corebusiness.execution.KeyedSerializer;
+import com.hertz.api.corebusiness.execution.UpdateExecutionEngineFactory;
 import com.hertz.api.corebusiness.logging.RumStats;
 import com.hertz.api.corebusiness.logging.RumWebStats;
 import com.hertz.api.corebusiness.logging.RumWebStatsBean;
+import com.hertz.api.helpers.StatementCache;
+import com.hertz.api.helpers.StoredProcVersionDispatcher;
 import com.hertz.api.service.data.historical.IRumWebHistoricalDataService;
 import com.hertz.api.service.data.update.IRumGetPlaceTypeIdCodeDataService;
 import com.hertz.api.service.data.update.IRumPurgeMessagesDataService;
 import com.hertz.api.transform.OutputFileWriter;
+import com.hertz.api.transform.UpdateRequestParser;
 import com.hertz.api.transform.UpdateRowMapper;
 import com.hertz.api.metrics.RumMetrics;
 import io.micrometer.core.instrument.MeterRegistry;
@@ -71,7 +90,7 @@ public class UpdateDriver {
     
     private static final String UPDATE_SUCCESS_MSG = " Processed Successfully Update Successful";
 
-    private static AreaLocationsToPlaceIdCodeList areaLocationsAlreadyFound = null;
+    private static volatile AreaLocationsToPlaceIdCodeList areaLocationsAlreadyFound = null;
     private static Object loadTimeLock = new Object();
 
     /** Total number of Webservice calls that this server has processed. */
@@ -84,6 +103,23 @@ public class UpdateDriver {
     /** Time span that defines a "long running DB call": (30 sec * 1000 millis/sec) */
     private final static long LONG_RUNNING_IN_MILLIS_DEFAULT = (30L * 1000L);
     private long longRunningInMillis = -1;
+
+    /** Maximum wait for the threads of one update to finish: (10 min * 60 sec/min * 1000 millis/sec) */
+    private final static long UPDATE_WAIT_TIMEOUT_IN_MILLIS_DEFAULT = (10L * 60L * 1000L);
+    private static volatile long updateWaitTimeoutInMillis = -1;
+
+    /** Default time a Webservice transaction has for its stored procedure calls: 5 minutes */
+    private final static long TRANSACTION_BUDGET_IN_MILLIS_DEFAULT = (5L * 60L * 1000L);
+
+    /** Webservice retries of locked rows wait for a permit from the Webservice Thread Manager. */
+    private final static LockedGroupRetryScheduler.Resubmitter WS_RESUBMITTER = new LockedGroupRetryScheduler.Resubmitter() {
+        public void resubmit(UpdateThread retryThread) {
+            WebServiceThreadManager.getWebThreadManager().queueRetryThread(retryThread);
+        }
+    };
+
+    /** Concurrency limit shared by File-based updates.  Guarded by the class lock. */
+    private static ConcurrencyLimit fileConcurrencyLimit = null;
     
     /** Minimum memory encountered. Initialize this as the largest possible value. */
     private static long definitelyFreeMemoryLowest = Long.MAX_VALUE;
@@ -102,6 +138,13 @@ public class UpdateDriver {
      */
     public UpdateDriver(MeterRegistry meterRegistry) {
         this.meterRegistry = meterRegistry;
+        WebServiceThreadManager.registerMetrics(meterRegistry);
+        getAreaLocation().registerMetrics(meterRegistry);
+        StatementCache.registerMetrics(meterRegistry);
+        StoredProcVersionDispatcher.getDispatcher().registerMetrics(meterRegistry);
+        LockedGroupRetryScheduler.getScheduler().registerMetrics(meterRegistry);
+        KeyedSerializer.getGroupSerializer().registerMetrics(meterRegistry);
+        WriteCoalescer.getCoalescer().registerMetrics(meterRegistry);
         
     	logger.info("Config Data called.....");
         try {
@@ -132,21 +175,26 @@ public class UpdateDriver {
 
         // guard against multiple threads trying to load it at the same
         // time.  only one will actually win.  afterwards, there should not
-        // be any threading issues since everything is immutable.
+        // be any threading issues since the cache is thread-safe, so
+        // requests only take the lock until it exists.
         //
-        synchronized (loadTimeLock) {
-            if (areaLocationsAlreadyFound == null) { // if still unloaded by another thread
-                logger.before(HertzLogger.INFO, "Loading_Area_Number_Cache");
-                try {
-                    areaLocationsAlreadyFound = new AreaLocationsToPlaceIdCodeList();
-                }
-                finally {
-                    logger.after(HertzLogger.INFO, "Loading_Area_Number_Cache");
+        AreaLocationsToPlaceIdCodeList cache = areaLocationsAlreadyFound;
+        if (cache == null) {
+            synchronized (loadTimeLock) {
+                if (areaLocationsAlreadyFound == null) { // if still unloaded by another thread
+                    logger.before(HertzLogger.INFO, "Loading_Area_Number_Cache");
+                    try {
+                        areaLocationsAlreadyFound = new AreaLocationsToPlaceIdCodeList();
+                    }
+                    finally {
+                        logger.after(HertzLogger.INFO, "Loading_Area_Number_Cache");
+                    }
                 }
+                cache = areaLocationsAlreadyFound;
             }
         }
 
-        return areaLocationsAlreadyFound;
+        return cache;
     }
 
     /**
@@ -203,7 +251,7 @@ public class UpdateDriver {
                                 try {
                                     logger.entry(LogLevel.INFO, methodNameFake);
                                     // Do the update as if the data came from a Web Service call.
-                                    doRUMUpdateForWebservice(updateList, transactionId);
+                                    doRUMUpdateForWebservice(updateList, transactionId, null);
                                 }
                                 finally {
                                     logger.exit(LogLevel.INFO, methodNameFake);
@@ -223,7 +271,11 @@ public class UpdateDriver {
                         Iterator<RumUpdateGroup> responseIter = updateList.getListOfUpdates().iterator();
                         while (responseIter.hasNext()) {
                             RumUpdateGroup updateGroup = responseIter.next();
-                            doPurgeOfRumMessages(updateGroup.getTimeToPurge());
+                            // One capture time per stored procedure call: a split group has one per chunk.
+                            Iterator<String> timeIter = updateGroup.getTimesToPurge().iterator();
+                            while (timeIter.hasNext()) {
+                                doPurgeOfRumMessages(timeIter.next());
+                            }
                         }
                     }
                     else {
@@ -300,82 +352,76 @@ public class UpdateDriver {
                     // JWH: not sure why this test is here...
                     if (!rumUpdateGroup.isProcessed()) {
 
-                        // Create a unique thread ID for this thread.
-                        threadId = System.currentTimeMillis() + index;
+                        // One thread per chunk if the group is too large for one call.
+                        ArrayList<UpdateThread> groupThreads = new ArrayList<UpdateThread>(1);
+                        Iterator<RumUpdateGroup> callGroupIter = splitForCalls(rumUpdateGroup).iterator();
+                        while (callGroupIter.hasNext()) {
 
-                        UpdateThread updateThread = new UpdateThread(threadId, rumUpdateGroup, fileName, null, index, getLongRunningInMillis());
-                        threadList.add(updateThread);
+                            // Create a unique thread ID for this thread.
+                            threadId = System.currentTimeMillis() + index;
 
-                        index++;
+                            UpdateThread updateThread = new UpdateThread(threadId, callGroupIter.next(), fileName, null, index, getLongRunningInMillis());
+                            groupThreads.add(updateThread);
+
+                            index++;
+                        }
+                        shareChunkGroupKey(groupThreads);
+                        threadList.addAll(groupThreads);
                     }
                 }
 
                 logger.info("<FB> Created " + index + " threads");
 
-                // Start each thread
-                Iterator<UpdateThread> threadListIter = threadList.iterator();
-
-                while (threadListIter.hasNext()) {
-
-                    UpdateThread updateThreadToStart = threadListIter.next();
-
-                    if (getNumberOfThreadsRunning(threadList) < maxThreadsRunning) {
-                        //logger.info("Starting Thread " + updateThreadToStart.getThreadId());
-                        displayMemory("<FB1>");
-                        updateThreadToStart.start();
-                    }
-                    else {
-                        logger.info("<FB> Max number of " + maxThreadsRunning + 
-                                " concurrent threads reached, Thread " + updateThreadToStart.getThreadId()
-                                + " waiting for other threads to finish");
-                        
-                        int sleeps = 0;
-                        while (getNumberOfThreadsRunning(threadList) >= maxThreadsRunning) {
-                            // Do nothing, wait, must wait until thread becomes available
-                            // logger.info("Waiting for spot in Thread Pool " + updateThreadToStart.getThreadId());
-                            try {
-                                Thread.sleep(10);
-                                sleeps++;
-                            }
-                            catch (InterruptedException e) {
-                                HertzException.eatAndLogNonCriticalException(LogLevel.ERROR, RumErrorCodes.GENERIC_ERROR, e, "Error when waiting for thread count to be reduced");
+                // Start each thread on the shared engine, keeping at most maxThreadsRunning running for this file.
+                // The limit adapts to DB latency across files.  Threads beyond it wait in the governor and start as others finish.
+                ConcurrencyGovernor fileGovernor = new ConcurrencyGovernor("File", getFileConcurrencyLimit(maxThreadsRunning), UpdateExecutionEngineFactory.getEngine(),
+                        new ConcurrencyGovernor.RejectionHandler() {
+                            public void rejected(Runnable task, RejectedExecutionException e) {
+                                UpdateThread rejectedThread = (UpdateThread) task;
+                                rejectedThread.releaseGroupKey();
+                                rejectedThread.getUpdateGroup().addErrorMessageToDetails(e);
+                                rejectedThread.setFinishedWithUpdate(true);
+                                logger.error("<FB> Thread " + rejectedThread.getThreadId() + " rejected by Execution Engine");
                             }
+                        });
+
+                // Retries of locked rows take a new permit from the same governor.
+                final ConcurrencyGovernor retryGovernor = fileGovernor;
+                LockedGroupRetryScheduler.Resubmitter fileResubmitter = new LockedGroupRetryScheduler.Resubmitter() {
+                    public void resubmit(UpdateThread retryThread) {
+                        ConcurrencyGovernor.Ticket ticket = takeTicketAndGroupKey(retryGovernor, retryThread);
+                        if (ticket != null) {
+                            ArrayList<ConcurrencyGovernor.Ticket> ready = new ArrayList<ConcurrencyGovernor.Ticket>(1);
+                            ready.add(ticket);
+                            retryGovernor.admit(ready);
                         }
-
-                        // Thread is the ID of the Place/Plan thread.
-                        logger.info("<FB> Wait Over after " + sleeps + " .... Starting Thread " + updateThreadToStart.getThreadId());
-                        displayMemory("<FB2>");
-                        updateThreadToStart.start();
                     }
-                }
+                };
 
-                // Wait for each thread to be done.
-                threadListIter = threadList.iterator();
+                // A thread whose Place/Plan is being updated by another thread asks for its permit once that one finishes.
+                // Threads are queued in the configured order.
+                ArrayList<ConcurrencyGovernor.Ticket> tickets = new ArrayList<ConcurrencyGovernor.Ticket>(threadList.size());
+                Iterator<UpdateThread> threadListIter = GroupOrdering.order(threadList, GroupOrdering.FILE_PATH).iterator();
                 while (threadListIter.hasNext()) {
-                    
-                    UpdateThread threadToWaitFor = threadListIter.next();
-                    while (!threadToWaitFor.isFinishedWithUpdate()) {
-                        try {
-                            // Wait one half second before checking again - report the first thread we found that wasn't done.
-                            // Thread is the ID of the Place/Plan thread.
-                            logger.info("<FB> Waiting for Thread " + threadToWaitFor.getThreadId() + " index: " + threadToWaitFor.getIndex() + " to finish");
-                            Thread.sleep(500); // Sleep 0.5 seconds = 500 ms.
-                        }
-                        catch (InterruptedException e) {
-                            HertzException.eatAndLogNonCriticalException(LogLevel.ERROR, RumErrorCodes.GENERIC_ERROR, e, "Error when waiting for threads to finish");
-                        }
+                    UpdateThread updateThread = threadListIter.next();
+                    updateThread.setResubmitter(fileResubmitter);
+
+                    ConcurrencyGovernor.Ticket ticket = takeTicketAndGroupKey(fileGovernor, updateThread);
+                    if (ticket != null) {
+                        tickets.add(ticket);
                     }
+                }
 
-                    // Don't use the join method anymore, as ARRAY has the connection living inside it 
-                    // and join can get a deadlock.
-                    //                try {
-                    //                    threadToWaitFor.join(900000); //wait for 10 minutes.
-                    //                } catch (InterruptedException e) {
-                    //                    logger.error(e.getMessage());
-                    //                }              
+                displayMemory("<FB1>");
+                fileGovernor.admit(tickets);
+                logger.info("<FB> Max number of " + maxThreadsRunning + " concurrent threads - " + fileGovernor);
 
-                    // Mark all the groups as processed.
-                    threadToWaitFor.getUpdateGroup().setProcessed(true);
+                // Wait for all threads to be done, then mark all the groups as processed.
+                awaitUpdateThreads(threadList, "<FB> File: " + fileName);
+
+                threadListIter = threadList.iterator();
+                while (threadListIter.hasNext()) {
+                    threadListIter.next().getUpdateGroup().setProcessed(true);
                 }
 
                 logger.info("<FB> Started " + index + " threads");
@@ -389,6 +435,200 @@ public class UpdateDriver {
         return responseBuffer.toString();
     }
 
+
+    /**
+     * Give a File-based thread its ticket and take its Place/Plan key.  If the key is busy the
+     * ticket is admitted when the key is handed over.
+     * @param fileGovernor
+     * @param updateThread
+     * @return the ticket if the key was free, for the caller to admit; otherwise null.
+     */
+    private static ConcurrencyGovernor.Ticket takeTicketAndGroupKey(final ConcurrencyGovernor fileGovernor, final UpdateThread updateThread) {
+
+        final ConcurrencyGovernor.Ticket ticket = fileGovernor.newTicket(updateThread);
+        updateThread.setTicket(ticket);
+
+        boolean free = updateThread.acquireGroupKey(new Runnable() {
+            public void run() {
+                ArrayList<ConcurrencyGovernor.Ticket> turn = new ArrayList<ConcurrencyGovernor.Ticket>(1);
+                turn.add(ticket);
+                if (fileGovernor.admit(turn) == 0) {
+                    // Released while it waited for its key: it will never run, so pass the key on.
+                    updateThread.releaseGroupKey();
+                }
+            }
+        });
+
+        return free ? ticket : null;
+    }
+
+    /**
+     * Block until every thread in the list has finished, or until UpdateWaitTimeoutInMillis has passed.
+     * Threads still running at the deadline are abandoned, marked finished and their groups are given
+     * an error, the same way WebServiceThreadManagerMonitor handles dead threads.
+     *
+     * @param threadList
+     * @param logPrefix
+     */
+    private void awaitUpdateThreads(ArrayList<UpdateThread> threadList, String logPrefix) {
+
+        CompletableFuture<?>[] completions = new CompletableFuture<?>[threadList.size()];
+        for (int i = 0; i < completions.length; i++) {
+            completions[i] = threadList.get(i).getCompletion();
+        }
+
+        final long waitTimeout = getUpdateWaitTimeoutInMillis();
+        final long waitStart = System.currentTimeMillis();
+
+        try {
+            CompletableFuture.allOf(completions).get(waitTimeout, TimeUnit.MILLISECONDS);
+            logger.info(logPrefix + " all " + completions.length + " threads finished after " + (System.currentTimeMillis() - waitStart) + " ms.");
+        }
+        catch (TimeoutException e) {
+            logger.error(logPrefix + " threads did not finish within " + waitTimeout + " ms.");
+            failUnfinishedThreads(threadList, logPrefix, waitTimeout);
+        }
+        catch (InterruptedException e) {
+            HertzException.eatAndLogNonCriticalException(LogLevel.ERROR, RumErrorCodes.GENERIC_ERROR, e, "Error when waiting for threads to finish");
+            Thread.currentThread().interrupt();
+            failUnfinishedThreads(threadList, logPrefix, System.currentTimeMillis() - waitStart);
+        }
+        catch (ExecutionException e) {
+            // Completions are never completed exceptionally, but log it if one ever is.
+            HertzException.eatAndLogNonCriticalException(LogLevel.ERROR, RumErrorCodes.GENERIC_ERROR, e, "Error when waiting for threads to finish");
+        }
+    }
+
+    /**
+     * Give every thread that has not finished an error and mark it finished so the caller can respond.
+     * Each one is abandoned first: its DB call and any retry of its locked rows are stopped, so its
+     * rows no longer change once the response is built.  A thread still in its call keeps its key and
+     * permit until the call returns.
+     *
+     * @param threadList
+     * @param logPrefix
+     * @param waitedInMillis
+     */
+    private void failUnfinishedThreads(ArrayList<UpdateThread> threadList, String logPrefix, long waitedInMillis) {
+
+        Iterator<UpdateThread> threadListIter = threadList.iterator();
+        while (threadListIter.hasNext()) {
+
+            UpdateThread updateThread = threadListIter.next();
+            if (!updateThread.isFinishedWithUpdate()) {
+                logger.error(logPrefix + " Thread " + updateThread.getThreadId() + " index: " + updateThread.getIndex() + " not finished after " + waitedInMillis + " ms.");
+
+                // Stop the DB work too, so the connection and row locks are given back.
+                RumUpdateGroup updateGroup = updateThread.getUpdateGroup();
+                if (updateThread.abandon("update did not finish within " + waitedInMillis + " ms")) {
+                    updateGroup.addErrorMessageToDetails(
+                            new HertzException(RumErrorCodes.STORED_PROC_TIMEOUT, "Stored procedure cancelled after " + waitedInMillis + " ms", false));
+                }
+                else {
+                    updateGroup.addErrorMessageToDetails(
+                            new HertzException(RumErrorCodes.RUM_UPDATE_FAILED, "Update did not finish within " + waitedInMillis + " ms", false));
+                }
+                updateThread.setFinishedWithUpdate(true);
+            }
+        }
+    }
+
+    /**
+     * Return the adaptive limit shared by all File-based updates, with maxThreadsRunning as its ceiling.
+     * A new limit is created if the configured ceiling changes.
+     * @param maxThreadsRunning
+     * @return
+     */
+    private static synchronized ConcurrencyLimit getFileConcurrencyLimit(int maxThreadsRunning) {
+
+        int ceiling = Math.max(1, maxThreadsRunning);
+        if (fileConcurrencyLimit == null || fileConcurrencyLimit.getMaximum() != ceiling) {
+            fileConcurrencyLimit = ConcurrencyLimitFactory.createLimit("File", ceiling);
+        }
+
+        return fileConcurrencyLimit;
+    }
+
+    /**
+     * Give every group of a Webservice transaction the same deadline: the request start plus
+     * TransactionBudgetInMillis (default 5 minutes, 0 = no deadline).  The stored procedure calls
+     * are timed out when it passes.
+     * @param updateList
+     * @param requestStart
+     */
+    private static void applyTransactionDeadline(UpdateList updateList, long requestStart) {
+
+        long budget = WebServicesControlConfig.getLong("TransactionBudgetInMillis", TRANSACTION_BUDGET_IN_MILLIS_DEFAULT);
+        if (budget <= 0L || updateList == null || updateList.getListOfUpdates() == null) {
+            return;
+        }
+
+        Iterator<RumUpdateGroup> iter = updateList.getListOfUpdates().iterator();
+        while (iter.hasNext()) {
+            RumUpdateGroup rumUpdateGroup = iter.next();
+            if (rumUpdateGroup != null) {
+                rumUpdateGroup.setDeadline(requestStart + budget);
+            }
+        }
+    }
+
+    /**
+     * Groups to send for a group: the group itself, or its chunks if it has more than MaxDetailsPerCall
+     * changes (default 0 = never split).  Chunks hold the group's own changes, so their results are
+     * the group's results.
+     * @param rumUpdateGroup
+     * @return
+     */
+    private static ArrayList<RumUpdateGroup> splitForCalls(RumUpdateGroup rumUpdateGroup) {
+
+        int maxDetailsPerCall = WebServicesControlConfig.getInt("MaxDetailsPerCall", 0);
+        if (maxDetailsPerCall <= 0 || rumUpdateGroup.getChangeDetails() == null || rumUpdateGroup.getChangeDetails().size() <= maxDetailsPerCall) {
+            ArrayList<RumUpdateGroup> callGroups = new ArrayList<RumUpdateGroup>(1);
+            callGroups.add(rumUpdateGroup);
+            return callGroups;
+        }
+
+        ArrayList<RumUpdateGroup> chunks = rumUpdateGroup.splitIntoChunks(maxDetailsPerCall, isSplitByVehicle());
+        logger.info("Split " + rumUpdateGroup.getChangeDetails().size() + " updates for: " + rumUpdateGroup.getPlaceIdCdToUse() + " " + rumUpdateGroup.getPlanId()
+                + " into " + chunks.size() + " calls" + (isSplitByVehicle() ? " by Vehicle" : ""));
+
+        return chunks;
+    }
+
+    /**
+     * Chunks split by Vehicle never change the same rows, so they may run together under their
+     * Place/Plan key.  Chunks cut in list order take the key one after another.
+     * @param groupThreads threads of one group.
+     */
+    private static void shareChunkGroupKey(ArrayList<UpdateThread> groupThreads) {
+
+        if (groupThreads.size() > 1 && isSplitByVehicle()) {
+            UpdateThread.shareGroupKey(groupThreads);
+        }
+    }
+
+    /**
+     * Split large groups so that all the changes of a Vehicle are in the same chunk (SplitChunksByVehicle, default true).
+     * @return
+     */
+    private static boolean isSplitByVehicle() {
+
+        return WebServicesControlConfig.getBoolean("SplitChunksByVehicle", true);
+    }
+
+    /**
+     * Maximum time to wait for the threads of one update to finish.
+     * Defaults to 10 minutes, longer than the WebServiceThreadManagerMonitor dead thread age.
+     * @return
+     */
+    private static long getUpdateWaitTimeoutInMillis() {
+
+        if (updateWaitTimeoutInMillis < 0) {
+            updateWaitTimeoutInMillis = WebServicesControlConfig.getLong("UpdateWaitTimeoutInMillis", UPDATE_WAIT_TIMEOUT_IN_MILLIS_DEFAULT);
+        }
+
+        return updateWaitTimeoutInMillis;
+    }
     
     /**
      * Webservice-based RUM functions use this common method.
@@ -397,10 +637,10 @@ public class UpdateDriver {
      *   
      * @param updateList
      * @param transactionId
-     * @param maxThreadsRunning
+     * @param job asynchronous job to report the threads to, or null.
      * @return
      */
-    private String doRUMUpdateForWebservice(UpdateList updateList, String transactionId) {
+    private String doRUMUpdateForWebservice(UpdateList updateList, String transactionId, RumUpdateJob job) {
 
         StringBuffer responseBuffer = new StringBuffer("");
 
@@ -427,105 +667,59 @@ public class UpdateDriver {
                     // @@JWH - not sure what this test is for... it should always be true I think but maybe this handles an empty call.
                     if (!rumUpdateGroup.isProcessed()) {
 
-                        // Create a unique thread ID for this thread.
-                        threadId = System.currentTimeMillis() + index;
+                        // One thread per chunk if the group is too large for one call.
+                        ArrayList<UpdateThread> groupThreads = new ArrayList<UpdateThread>(1);
+                        Iterator<RumUpdateGroup> callGroupIter = splitForCalls(rumUpdateGroup).iterator();
+                        while (callGroupIter.hasNext()) {
+
+                            // Create a unique thread ID for this thread.
+                            threadId = System.currentTimeMillis() + index;
 
-                        UpdateThread updateThread = new UpdateThread(threadId, rumUpdateGroup, null, transactionId, index, getLongRunningInMillis());
-                        threadList.add(updateThread);
+                            UpdateThread updateThread = new UpdateThread(threadId, callGroupIter.next(), null, transactionId, index, getLongRunningInMillis());
+                            updateThread.setResubmitter(WS_RESUBMITTER);
+                            groupThreads.add(updateThread);
 
-                        index++;
+                            index++;
+                        }
+                        shareChunkGroupKey(groupThreads);
+                        threadList.addAll(groupThreads);
                     }
                 }
 
                 logger.info("<WS> Trans ID: " + transactionId + " Server Call: " + totalWSCalls + " created " + index + " place/plan threads");
 
-                // Send thread list to Thread Manager to have them started.
-                WebServiceThreadManager.getWebThreadManager().queueNewWebserviceCallThreads(transactionId, threadList);
-
-                // Wait for each thread to be done.
-                Iterator<UpdateThread> threadListIter = threadList.iterator();
-                while (threadListIter.hasNext()) {
-                    
-                    int checkCount = 0;
-                    UpdateThread threadToWaitFor = threadListIter.next();
-                    while (!threadToWaitFor.isFinishedWithUpdate()) {
-                        try {
-                            // Wait 100 ms. before checking again.
-                            if (checkCount % 10 == 0) {
-                                // Log only every 10 loops = 1 second.
-                                logger.info("<WS> Trans ID: " + transactionId + " waiting for Thread " + threadToWaitFor.getThreadId() + " index: " + threadToWaitFor.getIndex() + " To Finish " + "after " + (checkCount / 10) + " seconds.");
-                            }
-                            checkCount++;
-                            
-                            Thread.sleep(100);  // PTR 11849 reduced sleep time to 100 ms.
-                        }
-                        catch (InterruptedException e) {
-                            HertzException.eatAndLogNonCriticalException(LogLevel.ERROR, RumErrorCodes.GENERIC_ERROR, e, "Error when waiting for threads to finish");
-                        }
-                    }
-
-                    // Don't use the join method anymore, as ARRAY has the connection living inside it 
-                    // and join can get a deadlock.
-                    //                try {
-                    //                    threadToWaitFor.join(900000); //wait for 10 minutes.
-                    //                } catch (InterruptedException e) {
-                    //                    logger.error(e.getMessage());
-                    //                }              
+                if (job != null) {
+                    job.addUpdateThreads(threadList);
+                }
 
-                    // Mark all the groups as processed.
-                    threadToWaitFor.getUpdateGroup().setProcessed(true);
-                    
-                    // For web services call only PTR 11849
+                // Send thread list to Thread Manager to have them started, in the configured order.
+                WebServiceThreadManager.getWebThreadManager().queueNewWebserviceCallThreads(transactionId, GroupOrdering.order(threadList, GroupOrdering.WEBSERVICE_PATH));
 
-                    // Now check to see if there were errors during the update process
-                    ArrayList<RumChangeDetails> details = threadToWaitFor.getUpdateGroup().getChangeDetails();
+                // Wait for all threads to be done.  The response is built as soon as the last one finishes.
+                awaitUpdateThreads(threadList, "<WS> Trans ID: " + transactionId);
 
-                    Iterator<RumChangeDetails> detailIter = details.iterator();
-                    while (detailIter.hasNext()) {
-                        RumChangeDetails changeDetails = detailIter.next();
-                        responseBuffer.append(org.apache.commons.lang.StringUtils.isBlank(changeDetails.getResponseMessage()) ? "" : changeDetails.getResponseMessage());
-                        
-                        Exception e = changeDetails.getException();
-                        if (e != null) {
-                            // Update had an error: add it to the response
-                            
-                            String errorCode = ""; // Added this error code for each thread 
-                            StringBuffer errorDesc = new StringBuffer(""); // Added this errorDesc
-                            
-                            if (e instanceof HertzException) {
-                                HertzException hrtzExecption = (HertzException) e;
-                                HertzErrorCode htzErrorCode = hrtzExecption.getErrorCode();
-                                // HertzException.eatAndLogNonCriticalException(LogLevel.ERROR, htzErrorCode, e, "");
-                                if (htzErrorCode instanceof RumErrorCodes) {
-                                    errorCode = htzErrorCode.getCodeID();
-                                    responseBuffer.append(errorCode);
-                                    errorDesc.append(errorCode);
-                                }
-                                else {
-                                    // errorCode = "Unknown HertzErrorCode: " + ((htzErrorCode != null) ? htzErrorCode.getClass().getName() : "null");
-                                    OutputFileWriter.doNonHertzExceptionProcessing(errorDesc, e);
-                                    // errorCode = "Unknown HertzErrorCode: " + ((htzErrorCode != null) ? htzErrorCode.getClass().getName() : "null");
-                                    // OutputFileWriter.doNonHertzExceptionProcessing(responseBuffer, e);
-                                }
-                            }
-                            else {
-                                // errorCode = "Unknown HertzException: " + e.getClass().getName();
-                                HertzException.eatAndLogNonCriticalException(LogLevel.ERROR, RumErrorCodes.GENERIC_ERROR, e, "");
-                                OutputFileWriter.doNonHertzExceptionProcessing(errorDesc, e);
-                                // responseBuffer.append(errorCode);
-                            }
-                            
-                            responseBuffer.append(errorDesc);
-                            logger.error("<WSD> Trans ID: " + transactionId + " Update was unsuccessful due to : " + errorDesc);
-                        }
-                        else {
-                            // Update had no error
-                            logger.info("<WSD> Trans ID: " + transactionId + " Update Was Successful");
-                            responseBuffer.append(UPDATE_SUCCESS_MSG);
-                        }
+                // Mark all the groups as processed.
+                Iterator<UpdateThread> threadListIter = threadList.iterator();
+                while (threadListIter.hasNext()) {
+                    threadListIter.next().getUpdateGroup().setProcessed(true);
+                }
 
-                        responseBuffer.append(" | ");
-                    }
+                // For web services call only PTR 11849
+
+                // Now check to see if there were errors during the update process.
+                // Take each row's outcome once before building the response: a call of another transaction
+                // that coalesced rows with an abandoned thread may still be changing them.
+                // Answer the rows in the order they were received, not the order of the groups.
+                ArrayList<RumChangeDetails> details = updateList.getDetailsInInputOrder();
+                String[] responseMessages = new String[details.size()];
+                Exception[] exceptions = new Exception[details.size()];
+                for (int i = 0; i < responseMessages.length; i++) {
+                    RumChangeDetails changeDetails = details.get(i);
+                    responseMessages[i] = changeDetails.getResponseMessage();
+                    exceptions[i] = changeDetails.getException();
+                }
+                for (int i = 0; i < responseMessages.length; i++) {
+                    appendDetailResponse(responseBuffer, responseMessages[i], exceptions[i], transactionId);
                 }
 
                 logger.info("<WS> Trans ID: " + transactionId + " Completed " + index + " threads");
@@ -553,6 +747,58 @@ public class UpdateDriver {
         return responseBuffer.toString();
     }
     
+    /**
+     * Append the result of one row to the Webservice response.
+     * @param responseBuffer
+     * @param responseMessage
+     * @param e the row's error, or null if it was updated.
+     * @param transactionId
+     */
+    private static void appendDetailResponse(StringBuffer responseBuffer, String responseMessage, Exception e, String transactionId) {
+
+        responseBuffer.append(org.apache.commons.lang.StringUtils.isBlank(responseMessage) ? "" : responseMessage);
+        
+        if (e != null) {
+            // Update had an error: add it to the response
+            
+            String errorCode = ""; // Added this error code for each thread 
+            StringBuffer errorDesc = new StringBuffer(""); // Added this errorDesc
+            
+            if (e instanceof HertzException) {
+                HertzException hrtzExecption = (HertzException) e;
+                HertzErrorCode htzErrorCode = hrtzExecption.getErrorCode();
+                // HertzException.eatAndLogNonCriticalException(LogLevel.ERROR, htzErrorCode, e, "");
+                if (htzErrorCode instanceof RumErrorCodes) {
+                    errorCode = htzErrorCode.getCodeID();
+                    responseBuffer.append(errorCode);
+                    errorDesc.append(errorCode);
+                }
+                else {
+                    // errorCode = "Unknown HertzErrorCode: " + ((htzErrorCode != null) ? htzErrorCode.getClass().getName() : "null");
+                    OutputFileWriter.doNonHertzExceptionProcessing(errorDesc, e);
+                    // errorCode = "Unknown HertzErrorCode: " + ((htzErrorCode != null) ? htzErrorCode.getClass().getName() : "null");
+                    // OutputFileWriter.doNonHertzExceptionProcessing(responseBuffer, e);
+                }
+            }
+            else {
+                // errorCode = "Unknown HertzException: " + e.getClass().getName();
+                HertzException.eatAndLogNonCriticalException(LogLevel.ERROR, RumErrorCodes.GENERIC_ERROR, e, "");
+                OutputFileWriter.doNonHertzExceptionProcessing(errorDesc, e);
+                // responseBuffer.append(errorCode);
+            }
+            
+            responseBuffer.append(errorDesc);
+            logger.error("<WSD> Trans ID: " + transactionId + " Update was unsuccessful due to : " + errorDesc);
+        }
+        else {
+            // Update had no error
+            logger.info("<WSD> Trans ID: " + transactionId + " Update Was Successful");
+            responseBuffer.append(UPDATE_SUCCESS_MSG);
+        }
+
+        responseBuffer.append(" | ");
+    }
+
     /**
      * This will call the purging of the Rum Messages table. Fire and forget.
      *
@@ -576,7 +822,7 @@ public class UpdateDriver {
 
     /**
      * This method will sort the array list that holds all the update records from the 
-     * input file and put them into a HashSet sorted by place, plan.
+     * input file and put them into groups by place, plan, company ID, plan type and classification.
      * 
      * @param listOfUpdates - list of updates: all 'file rows' 
      * @param fileName - file name of input file
@@ -596,15 +842,18 @@ public class UpdateDriver {
 
         try {
             
-            String comparePlanId = null;
-            String comparePlace = null;
-            String compareCompanyId = null;
+            // Rows for the same Place/Plan/Company ID/Plan Type/Classification go into one group wherever
+            // they appear in the input, so interleaved input does not produce one group per run of rows.
+            // Groups are kept in the order their first row was received.
+            LinkedHashMap<String, RumUpdateGroup> groupsByKey = new LinkedHashMap<String, RumUpdateGroup>();
 
-            RumUpdateGroup rumGroup = null;
             // Returned list of updates to a single Place/Plan/Company ID.
             UpdateList updateList = new UpdateList();
 
-            // Keep the order in which we received the records
+            // Group of the previous row.  The code fields of a parsed request are shared Strings, so a
+            // row of the same group as the one before it is found by identity without building its key.
+            UpdateRow previousRow = null;
+            RumUpdateGroup previousGroup = null;
 
             Iterator<UpdateRow> iter = listOfUpdates.iterator();
             while (iter.hasNext()) {
@@ -616,61 +865,46 @@ public class UpdateDriver {
                     continue;
                 }
 
-                if (rumGroup == null) {
-                    // Initialize the update group for the file.
-                    rumGroup = new RumUpdateGroup(fileName);
-                    
-                    rumGroup.setLocation(row.getLocation());
-                    rumGroup.setPlaceTypeCode(row.getPlaceTypeCode());
-                    rumGroup.setCompanyId(row.getCompanyId());
-                    rumGroup.setPlanId(row.getPlanId());
-                    rumGroup.setPlanType(row.getPlanIdTypeCode());
-                    rumGroup.setClassTimeCode(row.getClassTimeCode());
-                    rumGroup.setWebTransactionId(transactionId); // Added Transaction Id
-                }
-
-                if (comparePlace == null) {
-                    comparePlace = row.getLocation();
-                }
-
-                if (compareCompanyId == null) {
-                    compareCompanyId = row.getCompanyId();
-                }
-
-                if (comparePlanId == null) {
-                    comparePlanId = row.getPlanId();
-                }
-
-                // If we match on plan id and place then we are still on the same Place/Plan so add to the list
-                if (row.getLocation().equals(comparePlace) && row.getPlanId().equals(comparePlanId)) {
-                    rumGroup.addChangeDetail(populateDetailsFromRow(row));
+                RumUpdateGroup rumGroup = null;
+                String groupKey = null;
+                if (previousRow != null && isSameGroupInstance(row, previousRow)) {
+                    rumGroup = previousGroup;
                 }
                 else {
-                    // If we don't match then we have moved to a different Place and/or Plan.       
-
-                    updateList.addRumUpdateGroup(rumGroup);
+                    groupKey = getGroupKey(row);
+                    rumGroup = groupsByKey.get(groupKey);
+                }
 
+                if (rumGroup == null) {
+                    // First row for this Place/Plan.
                     rumGroup = new RumUpdateGroup(fileName);
 
                     rumGroup.setLocation(row.getLocation());
                     rumGroup.setPlaceTypeCode(row.getPlaceTypeCode());
-
                     rumGroup.setCompanyId(row.getCompanyId());
                     rumGroup.setPlanId(row.getPlanId());
                     rumGroup.setPlanType(row.getPlanIdTypeCode());
                     rumGroup.setClassTimeCode(row.getClassTimeCode());
-                    rumGroup.addChangeDetail(populateDetailsFromRow(row));
-                    rumGroup.setWebTransactionId(transactionId); // Added Transition Id for Web services call 
+                    rumGroup.setWebTransactionId(transactionId); // Added Transaction Id
 
-                    // Update the compare variables for the new Place/Plan/Company ID.
-                    comparePlanId = row.getPlanId();
-                    comparePlace = row.getLocation();
-                    compareCompanyId = row.getCompanyId();
+                    groupsByKey.put(groupKey, rumGroup);
+                    updateList.addRumUpdateGroup(rumGroup);
                 }
+                previousRow = row;
+                previousGroup = rumGroup;
+
+                // Keep the order in which we received the records for the response.
+                RumChangeDetails details = populateDetailsFromRow(row);
+                rumGroup.addChangeDetail(details);
+                updateList.addDetailInInputOrder(details);
+            }
+
+            if (groupsByKey.isEmpty()) {
+                // No usable rows: keep the single empty entry the rest of the processing expects.
+                updateList.addRumUpdateGroup(null);
             }
 
-            // Add the last one
-            updateList.addRumUpdateGroup(rumGroup);
+            logger.info(methodName + " rows: " + listOfUpdates.size() + " groups: " + groupsByKey.size());
 
             return updateList;
         }
@@ -679,6 +913,39 @@ public class UpdateDriver {
         }
     }
 
+    /**
+     * Key identifying the Place/Plan group a row belongs to.
+     * @param row
+     * @return
+     */
+    private static String getGroupKey(UpdateRow row) {
+
+        StringBuilder key = new StringBuilder(64);
+        key.append(row.getLocation()).append('|');
+        key.append(row.getPlanId()).append('|');
+        key.append(row.getCompanyId()).append('|');
+        key.append(row.getPlanIdTypeCode()).append('|');
+        key.append(row.getClassTimeCode());
+
+        return key.toString();
+    }
+
+    /**
+     * Do the two rows hold the same instances of every field of the group key?  Only a shortcut:
+     * rows with equal but distinct Strings are still matched through the key.
+     * @param row
+     * @param other
+     * @return
+     */
+    private static boolean isSameGroupInstance(UpdateRow row, UpdateRow other) {
+
+        return row.getLocation() == other.getLocation()
+                && row.getPlanId() == other.getPlanId()
+                && row.getCompanyId() == other.getCompanyId()
+                && row.getPlanIdTypeCode() == other.getPlanIdTypeCode()
+                && row.getClassTimeCode() == other.getClassTimeCode();
+    }
+
     /**
      * Convert an UpdateRow into a RumChangeDetails.
      * @@JWH - the Company ID gets lost from the UpdateRow.
@@ -779,6 +1046,9 @@ public class UpdateDriver {
 
             AreaLocationsToPlaceIdCodeList areaLocationsAlreadyFound = getAreaLocation();
 
+            // Groups whose location is not cached, by location, in input order
+            LinkedHashMap<String, ArrayList<RumUpdateGroup>> uncachedGroups = new LinkedHashMap<String, ArrayList<RumUpdateGroup>>();
+
             Iterator<RumUpdateGroup> iter = updateList.getListOfUpdates().iterator();
             while (iter.hasNext()) {
 
@@ -791,10 +1061,10 @@ public class UpdateDriver {
                         
                         // JWH: Messy - is either an AreaLocation or a CountryStateCityLoc (implied with length = 9)
                         String updateGroupLocation = updateGroup.getLocation();
-                        if (areaLocationsAlreadyFound.isLocationInList(updateGroupLocation)) {
+                        RumLocationInfo rumLocationInfo = areaLocationsAlreadyFound.getRumLocationInfo(updateGroupLocation);
+                        if (rumLocationInfo != null) {
                             // Location is cached
                             logger.info("Found Area Number : " + updateGroupLocation + " in Cache!");
-                            RumLocationInfo rumLocationInfo = areaLocationsAlreadyFound.getRumLocationInfo(updateGroupLocation);
                             if (rumLocationInfo.getException() != null) {
                                 updateGroup.addErrorMessageToDetails(rumLocationInfo.getException());
                             }
@@ -804,32 +1074,22 @@ public class UpdateDriver {
                             }
                         }
                         else {
-                            // Location is NOT cached
+                            // Location is NOT cached - collect it so all misses are looked up together
                             logger.info("Area Number : " + updateGroupLocation + " Not in Cache, getting from DB");
-                            try {
-                                updateGroup = reqTrnDataSvc.getPlaceIdTypeCode(updateGroup);
-                                areaLocationsAlreadyFound.addLocation(new RumLocationInfo(updateGroup.getLocation(), updateGroup.getPlaceIdCd(), updateGroup.getPlaceTypeCode(), null));
-                            }
-                            catch (HertzException e) {
-                                logger.info("Exception caught for Area Location " + updateGroup.getLocation() + " ... Performing error routine");
-                                updateGroup.addErrorMessageToDetails(e);
-                                //RATES-8111 DJA - I commented this line out so that when an exception is thrown on the AREA/LOC lookup we won't cache the error.
-                                //                 That way we'll always go to the database for that location's info until the data is fixed and the exception goes away.
-                                //      areaLocationsAlreadyFound.addLocation(new RumLocationInfo(updateGroup.getLocation(), null, null, e));
-                                continue;
-                            }
-                            catch (SQLException e) {
-                                logger.info("Exception caught for Area Location " + updateGroup.getLocation() + " ... Performing error routine");
-                                updateGroup.addErrorMessageToDetails(e);
-                                //RATES-8111 DJA - I commented this line out so that when an exception is thrown on the AREA/LOC lookup we won't cache the error.
-                                //                 That way we'll always go to the database for that location's info until the data is fixed and the exception goes away.
-                                //      areaLocationsAlreadyFound.addLocation(new RumLocationInfo(updateGroup.getLocation(), null, null, e));
-                                continue;
+                            ArrayList<RumUpdateGroup> groupsForLocation = uncachedGroups.get(updateGroupLocation);
+                            if (groupsForLocation == null) {
+                                groupsForLocation = new ArrayList<RumUpdateGroup>();
+                                uncachedGroups.put(updateGroupLocation, groupsForLocation);
                             }
+                            groupsForLocation.add(updateGroup);
                         }
                     }
                 }
             }
+
+            if (reqTrnDataSvc != null && !uncachedGroups.isEmpty()) {
+                resolveUncachedLocations(reqTrnDataSvc, areaLocationsAlreadyFound, uncachedGroups);
+            }
         }
         finally {
             logger.exit(HertzLogger.INFO, methodName);
@@ -839,24 +1099,147 @@ public class UpdateDriver {
     }
 
     /**
-     * Iterate through the thread list and count how many are still 'alive', e.g. have not completed or errored.
-     * @param threadList
-     * @return
+     * Look up every uncached location of a request in one data service call, then fill in the
+     * groups and the cache.  A location is only read from the DB once, however many groups share it.
+     * 
+     * A location another request is already looking up is not read again: this request waits for
+     * that lookup and uses its result.
+     * 
+     * Lookup errors are given to the location's groups.  Only a location the DB does not know is
+     * cached, briefly, as a negative entry; transient errors are not cached, so the location is
+     * read from the DB again on the next request (RATES-8111).
+     * 
+     * @param reqTrnDataSvc
+     * @param areaLocationsAlreadyFound
+     * @param uncachedGroups groups by Area Location
      */
-    private static int getNumberOfThreadsRunning(ArrayList<UpdateThread> threadList) {
+    private static void resolveUncachedLocations(IRumGetPlaceTypeIdCodeDataService reqTrnDataSvc, AreaLocationsToPlaceIdCodeList areaLocationsAlreadyFound,
+            Map<String, ArrayList<RumUpdateGroup>> uncachedGroups) {
+
+        // Lookups this request owns, and lookups it shares with other requests
+        LinkedHashMap<String, CompletableFuture<RumLocationInfo>> ownedLookups = new LinkedHashMap<String, CompletableFuture<RumLocationInfo>>();
+        LinkedHashMap<String, CompletableFuture<RumLocationInfo>> sharedLookups = new LinkedHashMap<String, CompletableFuture<RumLocationInfo>>();
+
+        Iterator<String> locationIter = uncachedGroups.keySet().iterator();
+        while (locationIter.hasNext()) {
+            String areaLocation = locationIter.next();
+
+            CompletableFuture<RumLocationInfo> lookup = new CompletableFuture<RumLocationInfo>();
+            CompletableFuture<RumLocationInfo> pending = areaLocationsAlreadyFound.joinLookup(areaLocation, lookup);
+            if (pending == lookup && !lookup.isDone()) {
+                ownedLookups.put(areaLocation, lookup);
+            }
+            else {
+                sharedLookups.put(areaLocation, pending);
+            }
+        }
+
+        if (!ownedLookups.isEmpty()) {
+            lookUpOwnedLocations(reqTrnDataSvc, areaLocationsAlreadyFound, ownedLookups);
+        }
 
-        Iterator<UpdateThread> iter = threadList.iterator();
-        int count = 0;
+        if (!sharedLookups.isEmpty()) {
+            logger.info("Waiting for " + sharedLookups.size() + " Area Locations already being looked up");
+        }
+
+        final long waitTimeout = getUpdateWaitTimeoutInMillis();
+        final long waitStart = System.currentTimeMillis();
+
+        Iterator<Map.Entry<String, ArrayList<RumUpdateGroup>>> iter = uncachedGroups.entrySet().iterator();
         while (iter.hasNext()) {
-            UpdateThread thread = iter.next();
-            if (thread.isAlive()) {
-                count++;
+            Map.Entry<String, ArrayList<RumUpdateGroup>> entry = iter.next();
+            String areaLocation = entry.getKey();
+
+            CompletableFuture<RumLocationInfo> lookup = ownedLookups.get(areaLocation);
+            if (lookup == null) {
+                lookup = sharedLookups.get(areaLocation);
+            }
+
+            RumLocationInfo rumLocationInfo;
+            try {
+                long remaining = Math.max(0L, waitTimeout - (System.currentTimeMillis() - waitStart));
+                rumLocationInfo = lookup.get(remaining, TimeUnit.MILLISECONDS);
+            }
+            catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                rumLocationInfo = new RumLocationInfo(areaLocation, null, null, (cause instanceof Exception) ? (Exception) cause : e);
+            }
+            catch (TimeoutException e) {
+                rumLocationInfo = new RumLocationInfo(areaLocation, null, null,
+                        new HertzException(RumErrorCodes.RUM_UPDATE_FAILED, "Location lookup did not finish within " + waitTimeout + " ms", false));
             }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                rumLocationInfo = new RumLocationInfo(areaLocation, null, null, e);
+            }
+
+            if (rumLocationInfo.getException() != null) {
+                logger.info("Exception caught for Area Location " + areaLocation + " ... Performing error routine");
+            }
+
+            Iterator<RumUpdateGroup> groupIter = entry.getValue().iterator();
+            while (groupIter.hasNext()) {
+                RumUpdateGroup updateGroup = groupIter.next();
+                if (rumLocationInfo.getException() != null) {
+                    updateGroup.addErrorMessageToDetails(rumLocationInfo.getException());
+                }
+                else {
+                    updateGroup.setPlaceIdCd(rumLocationInfo.getPlaceIdCode());
+                    updateGroup.setPlaceTypeCode(rumLocationInfo.getPlaceTypeCode());
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the owned locations from the DB in one data service call and end their lookups.
+     * Every owned lookup is ended, whatever happens, so no other request waits on it forever.
+     * 
+     * @param reqTrnDataSvc
+     * @param areaLocationsAlreadyFound
+     * @param ownedLookups lookups by Area Location
+     */
+    private static void lookUpOwnedLocations(IRumGetPlaceTypeIdCodeDataService reqTrnDataSvc, AreaLocationsToPlaceIdCodeList areaLocationsAlreadyFound,
+            Map<String, CompletableFuture<RumLocationInfo>> ownedLookups) {
+
+        Map<String, RumLocationInfo> found = null;
+        Exception lookupError = null;
+        try {
+            found = reqTrnDataSvc.getPlaceIdTypeCodes(ownedLookups.keySet());
+        }
+        catch (HertzException e) {
+            lookupError = e;
+        }
+        catch (SQLException e) {
+            lookupError = e;
+        }
+        catch (RuntimeException e) {
+            lookupError = e;
         }
 
-        return count;
+        if (lookupError != null) {
+            logger.info("Exception caught looking up " + ownedLookups.size() + " Area Locations ... Performing error routine");
+        }
+
+        Iterator<Map.Entry<String, CompletableFuture<RumLocationInfo>>> iter = ownedLookups.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<String, CompletableFuture<RumLocationInfo>> entry = iter.next();
+            String areaLocation = entry.getKey();
+
+            if (lookupError != null) {
+                areaLocationsAlreadyFound.failLookup(areaLocation, entry.getValue(), lookupError);
+                continue;
+            }
+
+            RumLocationInfo rumLocationInfo = found.get(areaLocation);
+            if (rumLocationInfo == null) {
+                // Not returned at all: same as no place row.
+                rumLocationInfo = new RumLocationInfo(areaLocation, null, null, null);
+            }
+            areaLocationsAlreadyFound.completeLookup(areaLocation, entry.getValue(), rumLocationInfo);
+        }
     }
-    
+
     /**
      * Webservices RUM : Webservice call is processed starting here.
      * @param updateString
@@ -865,8 +1248,22 @@ public class UpdateDriver {
      */
     public String doWebServiceUpdate(String updateString, String clientIP) {
 
+        return doWebServiceUpdate(updateString, clientIP, GUIDGenerator.generateGUID(updateString, 24), null);
+    }
+
+    /**
+     * Process a Webservice update under a Transaction ID chosen by the caller.
+     * Used by asynchronous jobs, which report progress through the job while the update runs.
+     * @param updateString
+     * @param clientIP
+     * @param transactionId
+     * @param job null for a synchronous call.
+     * @return
+     */
+    public String doWebServiceUpdate(String updateString, String clientIP, String transactionId, RumUpdateJob job) {
+
         String clientCountryCode = NO_COUNTRY;
-        String transactionId = GUIDGenerator.generateGUID(updateString, 24);
+        final long requestStart = System.currentTimeMillis();
         
         final String methodName = RumWebStats.DO_WEBSERVICE_UPDATE + RumWebStats.TRANS_ID + transactionId;
         logger.entry(LogLevel.INFO, methodName);
@@ -881,18 +1278,27 @@ public class UpdateDriver {
         ArrayList<UpdateRow> listUpdateRow = new ArrayList<UpdateRow>();
 
         try {
-            FastStringTokenizer inputTokenizer = new FastStringTokenizer(updateString, '|');
             updateList = new UpdateList();
 
             UpdateRowMapper mapper = new UpdateRowMapper();
-            while (inputTokenizer.hasMoreTokens()) {
-                String updateFromInput = inputTokenizer.nextToken();
-                // System.out.println("String value ==> " + updateFromInput);
+            if (WebServicesControlConfig.getBoolean("StreamingRequestParser", true)) {
+                // One pass over the request: only the fields that are kept are copied.
+                UpdateRequestParser parser = new UpdateRequestParser(updateString, UpdateRowMapper.NUMBER_OF_COLUMNS_TO_EXPECT);
+                while (parser.nextRow()) {
+                    listUpdateRow.add(mapper.convertRowToObject(parser, 1));
+                }
+            }
+            else {
+                FastStringTokenizer inputTokenizer = new FastStringTokenizer(updateString, '|');
+                while (inputTokenizer.hasMoreTokens()) {
+                    String updateFromInput = inputTokenizer.nextToken();
+                    // System.out.println("String value ==> " + updateFromInput);
 
-                // Map the input from the WebService.
+                    // Map the input from the WebService.
 
-                UpdateRow row = mapper.convertLineToObject(updateFromInput, 1);
-                listUpdateRow.add(row);
+                    UpdateRow row = mapper.convertLineToObject(updateFromInput, 1);
+                    listUpdateRow.add(row);
+                }
             }
             
             // Extract country code from location if available
@@ -919,16 +1325,21 @@ public class UpdateDriver {
 
             /* Adding from doUpdate method () -PTR RATES-11876 */
             updateList = sortUpdateFileRowsToRumUpdateGroups(listUpdateRow, null, transactionId);
+            applyTransactionDeadline(updateList, requestStart);
 
             // We don't need the records list anymore, clear it to preserve space.
             listUpdateRow.clear();
 
+            if (job != null) {
+                job.setUpdateList(updateList);
+            }
+
             findPlaceTypeIdCode(updateList, null, transactionId);
             
             if (updateList != null) {
 
                 while (!updateList.allGroupsProcessed()) {
-                    String response = doRUMUpdateForWebservice(updateList, transactionId);
+                    String response = doRUMUpdateForWebservice(updateList, transactionId, job);
                     responseBuffer.append(response);
                 }
             }
@@ -4,12 +4,20 @@ import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import com.hertz.rates.common.utils.HertzException;
 import com.hertz.rates.common.utils.config.PropertyGroup;
 import com.hertz.rates.common.utils.jdbc.ConnectionMgr;
 import com.hertz.rates.common.utils.jdbc.DbDataUtilities;
 import com.hertz.rates.common.utils.logging.HertzLogger;
+import com.hertz.api.corebusiness.RumLocationInfo;
 import com.hertz.api.corebusiness.RumUpdateGroup;
 
 import oracle.jdbc.OracleTypes;
@@ -24,8 +32,28 @@ public class GetPlaceIdCodeHelper {
     // Strings used in Config Data
     private final static String RATES_DB_CONNECTION = "Oracle";
     private static final String PROC_NAME = "getPlaceIdCodeCall";
+    private static final String BLOCK_SIZE_NAME = "getPlaceIdCodeBlockSize";
     private static final String TXN_NAME = "GetPlaceIdCode";
 
+    /** Result set index of the place cursor of the procedure. */
+    private static final int PLACE_CURSOR_INDEX = 2;
+
+    /** Bind variables of one procedure call in the block: the location and the place cursor (see registerParams),
+     *  then the SQLCODE and SQLERRM of a call that failed. */
+    private static final int BINDS_PER_CALL = 4;
+
+    /** Procedure calls per PL/SQL block.  Each returns an open cursor, so keep well below OPEN_CURSORS. */
+    private static final int DEFAULT_BLOCK_SIZE = 50;
+    private static final int MAX_BLOCK_SIZE = 200;
+
+    /** SQLCODE of NO_DATA_FOUND in PL/SQL; JDBC reports the same error as vendor code 1403. */
+    private static final int SQLCODE_NO_DATA_FOUND = 100;
+    private static final int ORA_NO_DATA_FOUND = 1403;
+
+    /** The procedure call inside the configured statement, e.g. "pkg.proc(?, ?)" from "{call pkg.proc(?, ?)}". */
+    private static final Pattern PROC_CALL = Pattern.compile("^\\s*(?:\\{\\s*call\\s+|begin\\s+)?([^{}]+?\\(.*\\))\\s*(?:\\}|;\\s*end\\s*;)?\\s*$",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
     protected PropertyGroup configDataProperties = null;
 
     /**
@@ -77,7 +105,7 @@ public class GetPlaceIdCodeHelper {
 
         logger.entry(HertzLogger.INFO, "processResponse");
         
-        ResultSet rs = rsHelper.getResultSet(2);
+        ResultSet rs = rsHelper.getResultSet(PLACE_CURSOR_INDEX);
         
         try {
             while (rs.next()) {
@@ -137,7 +165,7 @@ public class GetPlaceIdCodeHelper {
             String txnName = this.getTransactionName(); // subclasses implement this
 
             conn = ConnectionMgr.getConnection(RATES_DB_CONNECTION, txnName);
-            statement = conn.prepareCall(this.getStoredProcString());
+            statement = StatementCache.prepareCall(conn, this.getStoredProcString());
 
             registerParams(statement, updateGroup.getLocation()); // subclasses might extend this
 
@@ -156,6 +184,248 @@ public class GetPlaceIdCodeHelper {
         return updateGroup;
     }
 
+    /**
+     * Look up the places of several Area Locations on one connection.
+     * 
+     * The locations are resolved getPlaceIdCodeBlockSize (default 50) at a time by one anonymous
+     * PL/SQL block which calls the single-location procedure once per location, so each block is one
+     * round trip.  Every call sends the location as registerParams does (see toDbLocation) and catches
+     * its own exception, so a location's result is read back by position and one failed location does
+     * not stop the others.  If the configured procedure statement can not be wrapped in a block, or the
+     * block size is 1, the procedure is executed once per location on the same connection instead.
+     * 
+     * A location the DB could not resolve gets a RumLocationInfo holding the exception; NO_DATA_FOUND
+     * is reported as vendor code 1403, the same as a single procedure call.
+     * A location whose cursor has no place row gets a RumLocationInfo with null codes, as doDBCall would.
+     * 
+     * @param areaLocations distinct Area Locations
+     * @return RUM Location information keyed by Area Location
+     * @throws HertzException
+     * @throws SQLException if the connection or statement can not be set up
+     */
+    public final Map<String, RumLocationInfo> doBatchDBCall(Collection<String> areaLocations) throws HertzException, SQLException {
+
+        Map<String, RumLocationInfo> results = new LinkedHashMap<String, RumLocationInfo>();
+        if (areaLocations.isEmpty()) {
+            return results;
+        }
+
+        Connection conn = null;
+
+        try {
+            String txnName = this.getTransactionName(); // subclasses implement this
+
+            conn = ConnectionMgr.getConnection(RATES_DB_CONNECTION, txnName);
+
+            String procCall = getProcCall();
+            int blockSize = Math.min(areaLocations.size(), getBlockSize());
+            if (procCall != null && blockSize > 1) {
+                doBlockCalls(conn, txnName, procCall, blockSize, areaLocations, results);
+            }
+            else {
+                doRoundTripPerLocation(conn, txnName, areaLocations, results);
+            }
+        }
+        finally {
+            ConnectionMgr.closeConnection(conn);
+        }
+
+        return results;
+    }
+
+    /**
+     * Resolve the locations with PL/SQL blocks of blockSize procedure calls.  Every block binds the same
+     * number of calls, the last one repeating its final location, so one statement text is prepared and
+     * cached.
+     */
+    private void doBlockCalls(Connection conn, String txnName, String procCall, int blockSize, Collection<String> areaLocations,
+            Map<String, RumLocationInfo> results) throws HertzException, SQLException {
+
+        String[] locations = areaLocations.toArray(new String[areaLocations.size()]);
+
+        StringBuffer block = new StringBuffer("BEGIN\n");
+        for (int i = 0; i < blockSize; i++) {
+            block.append("  BEGIN ").append(procCall).append("; EXCEPTION WHEN OTHERS THEN ? := SQLCODE; ? := SQLERRM; END;\n");
+        }
+        block.append("END;");
+
+        int blocks = 0;
+        CallableStatement statement = null;
+        try {
+            statement = StatementCache.prepareCall(conn, block.toString());
+
+            for (int first = 0; first < locations.length; first += blockSize) {
+                statement.clearParameters();
+                for (int i = 0; i < blockSize; i++) {
+                    int col = (i * BINDS_PER_CALL) + 1;
+                    statement.setString(col++, toDbLocation(locations[Math.min(first + i, locations.length - 1)]));
+                    statement.registerOutParameter(col++, OracleTypes.CURSOR);
+                    statement.registerOutParameter(col++, Types.INTEGER);
+                    statement.registerOutParameter(col++, Types.VARCHAR);
+                }
+
+                DbDataUtilities.executeStoredProcedure(txnName, statement); // handles retry logic as needed
+
+                ResultSetHelper rsHelper = new ResultSetHelper(statement);
+                for (int i = 0; i < blockSize; i++) {
+                    String areaLocation = locations[Math.min(first + i, locations.length - 1)];
+                    // Padding calls are read too, which closes their cursors.
+                    RumLocationInfo info = readBlockCall(rsHelper, statement, i * BINDS_PER_CALL, areaLocation);
+                    if ((first + i) < locations.length) {
+                        results.put(areaLocation, info);
+                    }
+                }
+                blocks++;
+            }
+        }
+        finally {
+            ConnectionMgr.closeStatement(statement);
+        }
+
+        logger.info("GetPlaceIdCode resolved " + locations.length + " locations in " + blocks + " PL/SQL blocks");
+    }
+
+    /**
+     * Read back the result of one procedure call of a block.
+     * @param rsHelper
+     * @param statement
+     * @param offset bind variables before this call
+     * @param areaLocation
+     * @return
+     */
+    private RumLocationInfo readBlockCall(ResultSetHelper rsHelper, CallableStatement statement, int offset, String areaLocation) {
+
+        try {
+            int sqlCode = statement.getInt(offset + 3);
+            if (!statement.wasNull()) {
+                // The call raised: report it as the single procedure call would have.
+                int vendorCode = (sqlCode == SQLCODE_NO_DATA_FOUND) ? ORA_NO_DATA_FOUND : -sqlCode;
+                return new RumLocationInfo(areaLocation, null, null, new SQLException(statement.getString(offset + 4), null, vendorCode));
+            }
+
+            ResultSet rs = rsHelper.getResultSet(offset + PLACE_CURSOR_INDEX);
+            if (rs == null) {
+                return new RumLocationInfo(areaLocation, null, null, new SQLException("GetPlaceIdCode returned no place cursor for: " + areaLocation));
+            }
+
+            String placeIdCode = null;
+            String placeTypeCode = null;
+            try {
+                while (rs.next()) {
+                    int col = 1;
+
+                    placeIdCode = rs.getString(col++);
+                    placeTypeCode = rs.getString(col++);
+                }
+            }
+            finally {
+                ConnectionMgr.closeResultSet(rs);
+            }
+
+            return new RumLocationInfo(areaLocation, placeIdCode, placeTypeCode, null);
+        }
+        catch (HertzException e) {
+            return new RumLocationInfo(areaLocation, null, null, e);
+        }
+        catch (SQLException e) {
+            return new RumLocationInfo(areaLocation, null, null, e);
+        }
+    }
+
+    /**
+     * Return the procedure call of the configured statement, to be wrapped in a PL/SQL block, or null if
+     * it is not in a form we recognize or does not take the parameters registerParams binds.
+     * @return
+     */
+    private String getProcCall() {
+
+        String procString = this.getStoredProcString();
+        if (procString != null) {
+            Matcher matcher = PROC_CALL.matcher(procString);
+            if (matcher.matches()) {
+                // Only the two parameters registerParams binds: the location and the place cursor.
+                String procCall = matcher.group(1).trim();
+                if (procCall.replace("?", "").length() == procCall.length() - PLACE_CURSOR_INDEX) {
+                    return procCall;
+                }
+            }
+        }
+
+        logger.warn("GetPlaceIdCode can not batch calls of: >" + procString + "<");
+        return null;
+    }
+
+    private int getBlockSize() {
+
+        String value = configDataProperties.getPropertyValue(BLOCK_SIZE_NAME);
+        if (value != null) {
+            try {
+                return Math.max(1, Math.min(MAX_BLOCK_SIZE, Integer.parseInt(value.trim())));
+            }
+            catch (NumberFormatException e) {
+                logger.error("Invalid " + BLOCK_SIZE_NAME + ": >" + value + "<");
+            }
+        }
+
+        return DEFAULT_BLOCK_SIZE;
+    }
+
+    /**
+     * Resolve each location with the single-location procedure, reusing one statement on one connection.
+     * A failure for one location is recorded against it and does not stop the others.
+     */
+    private void doRoundTripPerLocation(Connection conn, String txnName, Collection<String> areaLocations, Map<String, RumLocationInfo> results)
+            throws HertzException, SQLException {
+
+        CallableStatement statement = null;
+
+        try {
+            statement = StatementCache.prepareCall(conn, this.getStoredProcString());
+
+            Iterator<String> iter = areaLocations.iterator();
+            while (iter.hasNext()) {
+                String areaLocation = iter.next();
+
+                try {
+                    statement.clearParameters();
+                    registerParams(statement, areaLocation);
+
+                    DbDataUtilities.executeStoredProcedure(txnName, statement); // handles retry logic as needed
+
+                    RumUpdateGroup found = this.processResponse(new ResultSetHelper(statement), new RumUpdateGroup(null));
+                    results.put(areaLocation, new RumLocationInfo(areaLocation, found.getPlaceIdCd(), found.getPlaceTypeCode(), null));
+                }
+                catch (HertzException e) {
+                    results.put(areaLocation, new RumLocationInfo(areaLocation, null, null, e));
+                }
+                catch (SQLException e) {
+                    results.put(areaLocation, new RumLocationInfo(areaLocation, null, null, e));
+                }
+            }
+        }
+        finally {
+            ConnectionMgr.closeStatement(statement);
+        }
+    }
+
+    /**
+     * Area Location as the place procedure expects it, used for every call: a location shorter than
+     * 7 characters gets one leading zero, as the single-location lookup has always sent it.
+     * @param areaLocation
+     * @return
+     */
+    private static String toDbLocation(String areaLocation) {
+
+        if (areaLocation.length() < 7) {
+            StringBuffer buffer = new StringBuffer();
+            buffer.append("0");
+            buffer.append(areaLocation);
+            return buffer.toString();
+        }
+
+        return areaLocation;
+    }
+
     /**
      * Registers the input parameters to the stored procedure's callable statement.
      * 
@@ -167,15 +437,7 @@ public class GetPlaceIdCodeHelper {
 
         int col = 1;
 
-        if (areaLocation.length() < 7) {
-            StringBuffer buffer = new StringBuffer();
-            buffer.append("0");
-            buffer.append(areaLocation);
-            statement.setString(col++, buffer.toString());
-        }
-        else {
-            statement.setString(col++, areaLocation);
-        }
+        statement.setString(col++, toDbLocation(areaLocation));
         statement.registerOutParameter(col++, OracleTypes.CURSOR);
     }
 }
@@ -84,7 +84,7 @@ public class GetRumWebDataHelper {
             String txnName = this.getTransactionName(); // subclasses implement this
 
             conn = ConnectionMgr.getConnection(RATES_DB_CONNECTION, txnName);
-            statement = conn.prepareCall(this.getStoredProcString());
+            statement = StatementCache.prepareCall(conn, this.getStoredProcString());
 
             registerParams(statement, hertzDateTime); // subclasses might extend this
 
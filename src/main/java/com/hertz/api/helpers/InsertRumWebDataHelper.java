@@ -202,7 +202,7 @@ public class InsertRumWebDataHelper {
             String txnName = this.getTransactionName(); // subclasses implement this
 
             conn = ConnectionMgr.getConnection(RATES_DB_CONNECTION, txnName);
-            statement = conn.prepareCall(this.getStoredProcString(false));
+            statement = StatementCache.prepareCall(conn, this.getStoredProcString(false));
             
             registerParms(statement, bean, group);
 
@@ -78,7 +78,7 @@ public class RumPurgeMessageHelper {
             String txnName = this.getTransactionName(); // subclasses implement this
 
             conn = ConnectionMgr.getConnection(RATES_DB_CONNECTION, txnName);
-            statement = conn.prepareCall(this.getStoredProcString());
+            statement = StatementCache.prepareCall(conn, this.getStoredProcString());
 
             registerParams(statement, capturedDateTime); // subclasses might extend this
 
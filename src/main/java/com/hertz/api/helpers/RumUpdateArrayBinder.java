@@ -0,0 +1,101 @@
+package com.hertz.api.helpers;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+import com.hertz.api.corebusiness.RumChangeDetails;
+import com.hertz.api.corebusiness.RumUpdateGroup;
+
+import oracle.jdbc.OracleConnection;
+
+/**
+ * Binds the changes of a RumUpdateGroup to the RUM_UPDATE_TABLE parameter of the update procedure.
+ *
+ * Each change that has no error becomes the attributes of one element of the table, filled straight
+ * from its RumChangeDetails into an array sized once for the changes to bind.  The array is made with OracleConnection.createOracleArray, so the
+ * element type is the one the DB declares for the table type and is never named here, and the
+ * driver keeps the type descriptors of each connection instead of reading them on every call.
+ *
+ */
+public class RumUpdateArrayBinder {
+
+    /** Number of attributes in an element of RUM_UPDATE_TABLE */
+    private final static int RECORD_ATTRIBUTE_COUNT = 7;
+
+    /**
+     * Return true if the connection is an Oracle connection, so the changes can be bound directly.
+     * @param conn
+     * @return
+     */
+    public static boolean canBind(Connection conn) {
+
+        try {
+            return conn != null && conn.isWrapperFor(OracleConnection.class);
+        }
+        catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Bind the changes of the group that have no error, in list order.
+     *
+     * @param statement
+     * @param col parameter index of the RUM_UPDATE_TABLE parameter
+     * @param conn
+     * @param group
+     * @param tableTypeName collection type, e.g. RUM_UPDATE_TABLE
+     * @return number of records bound.
+     * @throws SQLException
+     */
+    public static int bindChanges(CallableStatement statement, int col, Connection conn, RumUpdateGroup group, String tableTypeName)
+            throws SQLException {
+
+        OracleConnection oracleConn = conn.unwrap(OracleConnection.class);
+
+        List<RumChangeDetails> changeDetails = group.getChangeDetails();
+
+        int recordCount = 0;
+        for (int i = 0; i < changeDetails.size(); i++) {
+            if (isBound(changeDetails.get(i))) {
+                recordCount++;
+            }
+        }
+
+        Object[] records = new Object[recordCount];
+        int record = 0;
+        for (int i = 0; i < changeDetails.size(); i++) {
+
+            RumChangeDetails details = changeDetails.get(i);
+            if (isBound(details)) {
+
+                Object[] attributes = new Object[RECORD_ATTRIBUTE_COUNT];
+                attributes[0] = details.getSequenceNumber();
+                attributes[1] = details.getStartDateString();
+                attributes[2] = details.getEndDateString();
+                attributes[3] = details.getVehicle();
+                attributes[4] = details.getRate();
+                attributes[5] = details.getExtraDay();
+                attributes[6] = details.getExtraHour();
+
+                records[record++] = attributes;
+            }
+        }
+
+        statement.setArray(col, oracleConn.createOracleArray(tableTypeName, records));
+
+        return recordCount;
+    }
+
+    /**
+     * Only changes without an error are sent to the procedure.
+     * @param details
+     * @return
+     */
+    private static boolean isBound(RumChangeDetails details) {
+
+        return details.getException() == null && details.getErrorCode() == null;
+    }
+}
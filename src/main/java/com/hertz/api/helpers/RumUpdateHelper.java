@@ -5,7 +5,8 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.HashMap;
-import java.util.Random;
+import java.util.Iterator;
+import java.util.Map;
 import oracle.jdbc.OracleTypes;
 
 import com.hertz.rates.common.utils.ErrorCategory;
@@ -16,25 +17,23 @@ import com.hertz.rates.common.utils.config.PropertyGroup;
 import com.hertz.rates.common.utils.jdbc.ConnectionMgr;
 import com.hertz.rates.common.utils.jdbc.DbDataUtilities;
 import com.hertz.rates.common.utils.logging.HertzLogger;
-import com.hertz.rates.common.utils.logging.LogLevel;
+import com.hertz.api.corebusiness.CancellableCall;
 import com.hertz.api.corebusiness.RumChangeDetails;
 import com.hertz.api.corebusiness.RumUpdateGroup;
 import com.hertz.api.corebusiness.WebServiceThreadManager;
+import com.hertz.api.corebusiness.WebServicesControlConfig;
 import com.hertz.api.corebusiness.errorcodes.RumErrorCodes;
 import com.hertz.api.corebusiness.logging.RumWebStats;
 
 /**
  * Performs a RUM update on a single RumUpdateGroup.
- * Randomly calls the 20 stored procedures for the DB update.
+ * Calls the least loaded of the 20 stored procedures for the DB update (see StoredProcVersionDispatcher).
  *
  */
 public class RumUpdateHelper {
 
     final static HertzLogger logger = new HertzLogger(RumUpdateHelper.class);
 
-    private static Random randomGenerator = null;
-    private static Object loadTimeLock = new Object();
-
     private static final String RUM_UPDATE_PROC_NAME_1 = "doRumUpdateCall_1";
     private static final String RUM_UPDATE_PROC_NAME_2 = "doRumUpdateCall_2";
     private static final String RUM_UPDATE_PROC_NAME_3 = "doRumUpdateCall_3";
@@ -79,6 +78,9 @@ public class RumUpdateHelper {
 
     private static int SEQUENCE_TO_ADD_TO_CAPTURE_DATE = 1;
     
+    /** Vendor code of a call stopped by a query timeout or a cancel (ORA-01013). */
+    private final static int CALL_CANCELLED_ERROR_CODE = 1013;
+
     // Constants for stored procedure output parameters
     private static int RUM_STORED_PROC_DML_ROW_COUNT_INDEX = 11;
     private static int RUM_STORED_PROC_REF_CURSOR_INDEX = 12;
@@ -141,9 +143,19 @@ public class RumUpdateHelper {
      * Subclasses must override this to return a stored proc name/params string for the helper.
      * This is used in looking up the stored proc to call for this transaction that this helper is working on.
      * 
+     * @param procNumber copy of the procedure chosen by the StoredProcVersionDispatcher, 0 based.
      * @return A string specifying the proc name and param positions (with ?s) for this helper's transaction
      */
-    protected String getStoredProcString() {
+    protected String getStoredProcString(int procNumber) {
+
+        return configDataProperties.getPropertyValue(numberToProcCallMap.get(String.valueOf(procNumber)));
+    }
+
+    /**
+     * Number of copies of the Process_RUM_Update procedure to spread the calls over.
+     * @return
+     */
+    protected int getNumberOfProcVersions() {
 
         // Default number of instances of the Process_RUM_Update procedure.
         int nbrOfVersions = 20;
@@ -153,10 +165,8 @@ public class RumUpdateHelper {
         if (versions != null) {
             nbrOfVersions = Integer.parseInt(versions);
         }
-        
-        int procNumber = getNumberGenerator().nextInt(nbrOfVersions);
 
-        return configDataProperties.getPropertyValue(numberToProcCallMap.get(String.valueOf(procNumber)));
+        return nbrOfVersions;
     }
 
     /**
@@ -171,27 +181,6 @@ public class RumUpdateHelper {
         return RUM_UPDATE_TXN;
     }
 
-    private Random getNumberGenerator() {
-
-        // guard against multiple threads trying to load it at the same
-        // time.  only one will actually win.  afterwards, there should not
-        // be any threading issues since everything is immutable.
-        //
-        synchronized (loadTimeLock) {
-            if (randomGenerator == null) { // if still unloaded by another thread
-                logger.before(LogLevel.INFO, "Loading_Random_Number_Generator");
-                try {
-                    randomGenerator = new Random();
-                }
-                finally {
-                    logger.after(LogLevel.INFO, "Loading_Random_Number_Generator");
-                }
-            }
-        }
-
-        return randomGenerator;
-    }
-
     /**
      * Subclasses must override this to do the actual processing of the result sets for a stored proc
      * call.  The statement has already been executed and is ready
@@ -386,6 +375,10 @@ public class RumUpdateHelper {
 
         String capturedDateTime = null;
 
+        StoredProcVersionDispatcher dispatcher = StoredProcVersionDispatcher.getDispatcher();
+        int procNumber = -1;
+        long callStart = 0L;
+
         // This uses a connection mgr which can be configured to
         // allow running disconnected from the db (using playback),
         // running within WebSphere and its pool of connections,
@@ -395,7 +388,12 @@ public class RumUpdateHelper {
             String txnName = this.getTransactionName(); // subclasses implement this
 
             conn = ConnectionMgr.getConnection(RATES_DB_CONNECTION, txnName);
-            statement = conn.prepareCall(this.getStoredProcString());
+
+            // Least loaded copy of the procedure
+            procNumber = dispatcher.acquire(getNumberOfProcVersions());
+            callStart = System.currentTimeMillis();
+
+            statement = StatementCache.prepareCall(conn, this.getStoredProcString(procNumber));
 
             capturedDateTime = registerParams(statement, group, conn, txnName); // subclasses might extend this
 
@@ -409,26 +407,36 @@ public class RumUpdateHelper {
                 else {
                     txnNameExtended = txnName + RumWebStats.TRANS_ID + group.getWebTransactionId();
                 }
-                DbDataUtilities.executeStoredProcedure(txnNameExtended, statement); // handles retry logic as needed
-
-                // Extract DML row count from stored procedure output parameter
-                Object rowCountObj = statement.getObject(RUM_STORED_PROC_DML_ROW_COUNT_INDEX);
-                int dmlRowCount = (null != rowCountObj) ? (Integer)rowCountObj : 0;
-                if (dmlRowCount > 0) {
-                    Integer currentDMLRowCount = WebServiceThreadManager.txnDMLCountMap.get(group.getWebTransactionId());
-                    if (null != currentDMLRowCount) {
-                        currentDMLRowCount += dmlRowCount;
-                        WebServiceThreadManager.txnDMLCountMap.put(group.getWebTransactionId(), currentDMLRowCount);
-                    }
+
+                // Index the details now so result rows are matched without scanning the group.
+                group.buildChangeDetailIndex();
+
+                executeWithinDeadline(txnNameExtended, statement, group);
+
+                if (group.getAbandonReason() != null) {
+                    // The caller gave up while the call ran and has reported these rows already: leave them as they are.
+                    logger.warn("Stored procedure call finished after it was given up on (" + group.getAbandonReason() + ") - results ignored for " + txnNameExtended);
                 }
+                else {
+                    // Extract DML row count from stored procedure output parameter
+                    Object rowCountObj = statement.getObject(RUM_STORED_PROC_DML_ROW_COUNT_INDEX);
+                    int dmlRowCount = (null != rowCountObj) ? (Integer)rowCountObj : 0;
+                    if (dmlRowCount > 0) {
+                        creditDMLRowCount(group, dmlRowCount);
+                    }
 
-                // Process the result set using the ref cursor output parameter
-                ResultSetHelper rsHelper = new ResultSetHelper(statement);
-                group = this.processUpdateResponse(rsHelper, group);
+                    // Process the result set using the ref cursor output parameter
+                    ResultSetHelper rsHelper = new ResultSetHelper(statement);
+                    group = this.processUpdateResponse(rsHelper, group);
+                }
             }
         }
         finally {
 
+            if (procNumber >= 0) {
+                dispatcher.release(procNumber, System.currentTimeMillis() - callStart, group.getChangeDetails().size());
+            }
+
             group.setTimeToPurge(capturedDateTime);
 
             if (capturedDateTime != null) {
@@ -443,6 +451,116 @@ public class RumUpdateHelper {
         return group;
     }
 
+    /**
+     * Add the rows changed by the call to the DML count of the group's transaction.  A group holding
+     * the changes of several transactions splits the count between them by number of changes.
+     * @param group
+     * @param dmlRowCount
+     */
+    private static void creditDMLRowCount(RumUpdateGroup group, int dmlRowCount) {
+
+        Map<String, Integer> transactionDetailCounts = group.getTransactionDetailCounts();
+        if (transactionDetailCounts == null || transactionDetailCounts.size() < 2) {
+            addDMLRowCount(group.getWebTransactionId(), dmlRowCount);
+            return;
+        }
+
+        long totalDetails = 0L;
+        Iterator<Integer> countIter = transactionDetailCounts.values().iterator();
+        while (countIter.hasNext()) {
+            totalDetails += countIter.next().intValue();
+        }
+
+        // Each transaction gets its share, rounded down; the first one also gets what is left over.
+        int credited = 0;
+        String firstTransactionId = null;
+        Iterator<Map.Entry<String, Integer>> iter = transactionDetailCounts.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<String, Integer> entry = iter.next();
+            if (firstTransactionId == null) {
+                firstTransactionId = entry.getKey();
+                continue;
+            }
+            int share = (int) ((long) dmlRowCount * entry.getValue().intValue() / Math.max(1L, totalDetails));
+            addDMLRowCount(entry.getKey(), share);
+            credited += share;
+        }
+        addDMLRowCount(firstTransactionId, dmlRowCount - credited);
+    }
+
+    private static void addDMLRowCount(String transactionId, int dmlRowCount) {
+
+        if (transactionId != null && dmlRowCount > 0) {
+            WebServiceThreadManager.txnDMLCountMap.computeIfPresent(transactionId, (id, count) -> count + dmlRowCount);
+        }
+    }
+
+    /**
+     * Run the procedure within the time left to the group: the query timeout is set to the remaining
+     * transaction budget (capped by StoredProcCallTimeoutInMillis), and the call is registered on the
+     * group so it can be cancelled by a caller that stops waiting.  A group given up on before its
+     * call is registered is not called at all.
+     * A call stopped any of these ways fails with STORED_PROC_TIMEOUT.
+     * 
+     * @param txnNameExtended
+     * @param statement
+     * @param group
+     * @throws HertzException
+     * @throws SQLException
+     */
+    private void executeWithinDeadline(String txnNameExtended, CallableStatement statement, RumUpdateGroup group) throws HertzException, SQLException {
+
+        long timeoutInMillis = group.getRemainingTimeInMillis();
+        long callTimeoutInMillis = WebServicesControlConfig.getLong("StoredProcCallTimeoutInMillis", 0L);
+        if (callTimeoutInMillis > 0L) {
+            timeoutInMillis = Math.min(timeoutInMillis, callTimeoutInMillis);
+        }
+
+        if (timeoutInMillis <= 0L) {
+            throw new HertzException(RumErrorCodes.STORED_PROC_TIMEOUT, "No time left in the transaction budget to call the stored procedure", false);
+        }
+
+        if (timeoutInMillis != Long.MAX_VALUE) {
+            // Whole seconds, rounded up so a call is never given less than its budget.
+            statement.setQueryTimeout((int) Math.min(Integer.MAX_VALUE, (timeoutInMillis + 999L) / 1000L));
+        }
+
+        CancellableCall call = new CancellableCall(statement, timeoutInMillis);
+        group.setActiveCall(call);
+        try {
+            // Given up on before the call was registered, so there was nothing to cancel: do not start it.
+            String abandonReason = group.getAbandonReason();
+            if (abandonReason != null) {
+                throw new HertzException(RumErrorCodes.STORED_PROC_TIMEOUT, "Stored procedure call stopped - " + abandonReason, false);
+            }
+
+            DbDataUtilities.executeStoredProcedure(txnNameExtended, statement); // handles retry logic as needed
+        }
+        catch (SQLException e) {
+            if (call.isCancelled() || e.getErrorCode() == CALL_CANCELLED_ERROR_CODE) {
+                throw newTimeoutException(call, e);
+            }
+            throw e;
+        }
+        catch (HertzException e) {
+            if (call.isCancelled()) {
+                throw newTimeoutException(call, e);
+            }
+            throw e;
+        }
+        finally {
+            group.setActiveCall(null);
+        }
+    }
+
+    private static HertzException newTimeoutException(CancellableCall call, Exception cause) {
+
+        String reason = call.isCancelled() ? call.getCancelReason() : "query timeout of " + call.getTimeoutInMillis() + " ms";
+        logger.error("Stored procedure call stopped - " + reason + ": " + cause.getMessage());
+
+        return new HertzException(RumErrorCodes.STORED_PROC_TIMEOUT, "Stored procedure call stopped - " + reason, false);
+    }
+
     /**
      * Registers the input parameters to the stored procedure's callable statement.
      * 
@@ -461,9 +579,7 @@ public class RumUpdateHelper {
         String transactionID = null;
         String ramUserID;
         
-        String[][] updateArray = group.getDetailsArray();
-
-        if (updateArray != null && updateArray.length > 0) {
+        if (group.getNumberOfNonErroredDetails() > 0) {
             
             // Do this entry/exit to log the number of items being updated.
             //logger.entry(LogLevel.INFO, RumWebStats.NUMBER_OF_UPDATES_IN_PLAN_PLACE + updateArray.length + RumWebStats.TRANS_ID + group.getWebTransactionId());
@@ -543,7 +659,12 @@ public class RumUpdateHelper {
             DbDataUtilities.setStringParam(statement, col++, transactionID);
             
             // Modification Table
-            DbDataUtilities.setStringStringArrayParam(statement, col++, conn, updateArray, RUM_UPDATE_TABLE);
+            if (useDirectArrayBinding() && RumUpdateArrayBinder.canBind(conn)) {
+                RumUpdateArrayBinder.bindChanges(statement, col++, conn, group, RUM_UPDATE_TABLE);
+            }
+            else {
+                DbDataUtilities.setStringStringArrayParam(statement, col++, conn, group.getDetailsArray(), RUM_UPDATE_TABLE);
+            }
 
             // Output parameters
             statement.registerOutParameter(col++, OracleTypes.INTEGER);  // DML row count
@@ -556,6 +677,18 @@ public class RumUpdateHelper {
         return null;
     }
 
+    /**
+     * Bind the changes straight into the elements of RUM_UPDATE_TABLE instead of a String[][] (default true).
+     * Set directArrayBinding to false in config data to use DbDataUtilities.setStringStringArrayParam.
+     * @return
+     */
+    private boolean useDirectArrayBinding() {
+
+        String directArrayBinding = configDataProperties.getPropertyValue("directArrayBinding");
+
+        return (directArrayBinding == null) || Boolean.valueOf(directArrayBinding.trim()).booleanValue();
+    }
+
     /**
      * This will log the call for debugging purposes
      * 
@@ -0,0 +1,149 @@
+package com.hertz.api.helpers;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.hertz.rates.common.utils.logging.HertzLogger;
+import com.hertz.api.corebusiness.WebServicesControlConfig;
+import com.hertz.api.metrics.RumMetrics;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import oracle.jdbc.OracleConnection;
+
+/**
+ * Prepares stored procedure calls and queries through the Oracle implicit statement cache.
+ *
+ * The first time a physical connection is seen its implicit statement cache is turned on, so a
+ * call prepared again on the same connection reuses the parsed and described statement instead of
+ * paying for a new one.  Closing the statement as usual (ConnectionMgr.closeStatement) puts it
+ * back in the cache.  Hikari keeps the physical connections, so the cache outlives the checkout.
+ *
+ * The cache itself belongs to the driver, which does not publish its hits, misses or evictions.
+ * The metrics only count what is done here: statements prepared through the cache and
+ * connections it was turned on for.
+ *
+ * Config Data (WebServicesControl):
+ *   StatementCacheSize - statements cached per connection (default 50, 0 = do not cache).
+ *
+ */
+public class StatementCache {
+
+    final static HertzLogger logger = new HertzLogger(StatementCache.class);
+
+    private final static int DEFAULT_CACHE_SIZE = 50;
+
+    /** Physical connections the cache has been turned on for.  Connections are held weakly. */
+    private final static Set<OracleConnection> cachingConnections = Collections.newSetFromMap(Collections.synchronizedMap(new WeakHashMap<OracleConnection, Boolean>()));
+
+    private final static AtomicLong prepares = new AtomicLong();
+    private final static AtomicLong enabledConnections = new AtomicLong();
+
+    private static volatile int cacheSize = -1;
+    private static volatile MeterRegistry boundRegistry = null;
+
+    /**
+     * Prepare a call on the connection, from the connection's statement cache when it has one.
+     * @param conn
+     * @param sql
+     * @return
+     * @throws SQLException
+     */
+    public static CallableStatement prepareCall(Connection conn, String sql) throws SQLException {
+
+        if (getCacheSize() > 0 && sql != null) {
+            enableCache(conn);
+        }
+
+        return conn.prepareCall(sql);
+    }
+
+    /**
+     * Prepare a query on the connection, from the connection's statement cache when it has one.
+     * @param conn
+     * @param sql
+     * @return
+     * @throws SQLException
+     */
+    public static PreparedStatement prepareStatement(Connection conn, String sql) throws SQLException {
+
+        if (getCacheSize() > 0 && sql != null) {
+            enableCache(conn);
+        }
+
+        return conn.prepareStatement(sql);
+    }
+
+    /**
+     * Turn the implicit cache on for a new physical connection.
+     * A connection that is not an Oracle connection is prepared as before.
+     * @param conn
+     */
+    private static void enableCache(Connection conn) {
+
+        try {
+            if (!conn.isWrapperFor(OracleConnection.class)) {
+                return;
+            }
+            OracleConnection oracleConn = conn.unwrap(OracleConnection.class);
+            prepares.incrementAndGet();
+
+            if (cachingConnections.contains(oracleConn)) {
+                return;
+            }
+
+            if (!oracleConn.getImplicitCachingEnabled()) {
+                oracleConn.setImplicitCachingEnabled(true);
+            }
+            if (oracleConn.getStatementCacheSize() < getCacheSize()) {
+                oracleConn.setStatementCacheSize(getCacheSize());
+            }
+
+            if (cachingConnections.add(oracleConn)) {
+                enabledConnections.incrementAndGet();
+                logger.info("Statement cache of " + getCacheSize() + " enabled on a new connection - connections: " + cachingConnections.size());
+            }
+        }
+        catch (SQLException e) {
+            logger.debug("Statement cache not available on this connection", e);
+        }
+    }
+
+    /**
+     * Register prepare and connection metrics.  Safe to call repeatedly.
+     * @param meterRegistry
+     */
+    public static void registerMetrics(MeterRegistry meterRegistry) {
+
+        if (meterRegistry == null || meterRegistry == boundRegistry) {
+            return;
+        }
+
+        synchronized (StatementCache.class) {
+            if (meterRegistry == boundRegistry) {
+                return;
+            }
+
+            FunctionCounter.builder(RumMetrics.METRIC_RUM_STATEMENT_CACHE_PREPARE_COUNT, prepares, AtomicLong::get).register(meterRegistry);
+            FunctionCounter.builder(RumMetrics.METRIC_RUM_STATEMENT_CACHE_ENABLED_CONNECTION_COUNT, enabledConnections, AtomicLong::get).register(meterRegistry);
+
+            boundRegistry = meterRegistry;
+        }
+    }
+
+    private static int getCacheSize() {
+
+        if (cacheSize < 0) {
+            cacheSize = Math.max(0, WebServicesControlConfig.getInt("StatementCacheSize", DEFAULT_CACHE_SIZE));
+        }
+
+        return cacheSize;
+    }
+}
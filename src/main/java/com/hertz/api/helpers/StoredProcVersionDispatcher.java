@@ -0,0 +1,152 @@
+package com.hertz.api.helpers;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.hertz.rates.common.utils.logging.HertzLogger;
+import com.hertz.api.corebusiness.execution.SmoothedAverage;
+import com.hertz.api.metrics.RumMetrics;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Chooses which copy of the RUM update procedure (doRumUpdateCall_1 .. _N) a call uses.
+ *
+ * The procedure is installed in several copies to spread library cache and latch contention.
+ * Each call goes to the copy with the fewest calls in flight; among those, the one with the lowest
+ * recent latency per row, so a copy that just ran a large group is not taken to be slow.  The scan starts one copy further on each call, so copies that are equally
+ * loaded are used round-robin.
+ *
+ * Every acquire must be followed by a release with the call's duration and rows.
+ *
+ */
+public class StoredProcVersionDispatcher {
+
+    private final static HertzLogger logger = new HertzLogger(StoredProcVersionDispatcher.class);
+
+    /** Weight of the newest call in the recent latency per row of a copy. */
+    private final static double LATENCY_SMOOTHING = 0.2;
+
+    /** Singleton */
+    private static volatile StoredProcVersionDispatcher dispatcherSingleton = null;
+
+    private final AtomicInteger[] inFlight;
+    /** Recent latency in milliseconds per row of each copy. */
+    private final SmoothedAverage[] recentLatency;
+    private final AtomicInteger nextStart = new AtomicInteger();
+
+    private volatile MeterRegistry boundRegistry = null;
+
+    /**
+     * Constructor
+     * @param maxVersions number of copies that may be configured.
+     */
+    private StoredProcVersionDispatcher(int maxVersions) {
+
+        inFlight = new AtomicInteger[maxVersions];
+        recentLatency = new SmoothedAverage[maxVersions];
+        for (int i = 0; i < maxVersions; i++) {
+            inFlight[i] = new AtomicInteger();
+            recentLatency[i] = new SmoothedAverage(LATENCY_SMOOTHING, 0.0);
+        }
+    }
+
+    /**
+     * Return the Singleton, creating it on first use.
+     * @return
+     */
+    public static StoredProcVersionDispatcher getDispatcher() {
+
+        if (dispatcherSingleton == null) {
+            synchronized (StoredProcVersionDispatcher.class) {
+                if (dispatcherSingleton == null) {
+                    dispatcherSingleton = new StoredProcVersionDispatcher(RumUpdateHelper.numberToProcCallMap.size());
+                }
+            }
+        }
+
+        return dispatcherSingleton;
+    }
+
+    /**
+     * Choose the copy for a call and count it in flight.
+     * @param versions number of copies in use (storedProcVersions).
+     * @return the copy, 0 based.
+     */
+    public int acquire(int versions) {
+
+        int count = Math.max(1, Math.min(versions, inFlight.length));
+        int start = Math.floorMod(nextStart.getAndIncrement(), count);
+
+        int chosen = start;
+        int chosenInFlight = inFlight[start].get();
+        double chosenLatency = getRecentLatency(start);
+
+        for (int i = 1; i < count; i++) {
+            int version = (start + i) % count;
+            int versionInFlight = inFlight[version].get();
+            if (versionInFlight > chosenInFlight) {
+                continue;
+            }
+
+            double versionLatency = getRecentLatency(version);
+            if (versionInFlight < chosenInFlight || versionLatency < chosenLatency) {
+                chosen = version;
+                chosenInFlight = versionInFlight;
+                chosenLatency = versionLatency;
+            }
+        }
+
+        inFlight[chosen].incrementAndGet();
+
+        return chosen;
+    }
+
+    /**
+     * End a call: it is no longer in flight and its duration per row goes into the copy's recent latency.
+     * @param version the copy returned by acquire.
+     * @param durationInMillis
+     * @param rows rows sent to the call.
+     */
+    public void release(int version, long durationInMillis, int rows) {
+
+        inFlight[version].decrementAndGet();
+
+        recentLatency[version].add((double) durationInMillis / Math.max(1, rows));
+    }
+
+    /**
+     * Register the in-flight and recent latency gauges of each copy, tagged with its number.
+     * Safe to call repeatedly.
+     * @param meterRegistry
+     */
+    public void registerMetrics(MeterRegistry meterRegistry) {
+
+        if (meterRegistry == null || meterRegistry == boundRegistry) {
+            return;
+        }
+
+        synchronized (this) {
+            if (meterRegistry == boundRegistry) {
+                return;
+            }
+
+            for (int i = 0; i < inFlight.length; i++) {
+                final int version = i;
+                String tag = String.valueOf(version + 1);
+                Gauge.builder(RumMetrics.METRIC_RUM_STORED_PROC_VERSION_IN_FLIGHT, inFlight[version], AtomicInteger::get)
+                        .tag("version", tag).register(meterRegistry);
+                Gauge.builder(RumMetrics.METRIC_RUM_STORED_PROC_VERSION_LATENCY, this, d -> d.getRecentLatency(version))
+                        .tag("version", tag).register(meterRegistry);
+            }
+
+            boundRegistry = meterRegistry;
+            logger.info("Stored procedure version metrics registered for " + inFlight.length + " versions");
+        }
+    }
+
+    private double getRecentLatency(int version) {
+
+        return recentLatency[version].get();
+    }
+}
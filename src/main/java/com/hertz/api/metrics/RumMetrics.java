@@ -43,4 +43,61 @@ public final class RumMetrics {
     public static final String METRIC_RUM_CLIENT_COUNTRY_RUP_FAILURE_COUNT = "rates-rum-client-country-failure-count";
     
     public static final String METRIC_RUM_CLIENT_COUNTRY_API_CALL_COUNT = "rates-rum-client-country-api-call-count";
+
+    // Update concurrency governor metrics
+    public static final String METRIC_RUM_GOVERNOR_PERMITS_IN_USE = "rates-rum-governor-permits-in-use";
+
+    public static final String METRIC_RUM_GOVERNOR_PERMIT_LIMIT = "rates-rum-governor-permit-limit";
+
+    public static final String METRIC_RUM_GOVERNOR_WAITERS = "rates-rum-governor-waiters";
+
+    public static final String METRIC_RUM_GOVERNOR_WAIT_TIME = "rates-rum-governor-wait-time";
+
+    // Area Location cache metrics
+    public static final String METRIC_RUM_LOCATION_CACHE_SIZE = "rates-rum-location-cache-size";
+
+    public static final String METRIC_RUM_LOCATION_CACHE_HIT_COUNT = "rates-rum-location-cache-hit-count";
+
+    public static final String METRIC_RUM_LOCATION_CACHE_MISS_COUNT = "rates-rum-location-cache-miss-count";
+
+    public static final String METRIC_RUM_LOCATION_CACHE_LOAD_COUNT = "rates-rum-location-cache-load-count";
+
+    public static final String METRIC_RUM_LOCATION_CACHE_EVICTION_COUNT = "rates-rum-location-cache-eviction-count";
+
+    public static final String METRIC_RUM_LOCATION_CACHE_SHARED_LOOKUP_COUNT = "rates-rum-location-cache-shared-lookup-count";
+
+    public static final String METRIC_RUM_LOCATION_CACHE_PENDING_LOOKUPS = "rates-rum-location-cache-pending-lookups";
+
+    public static final String METRIC_RUM_LOCATION_CACHE_NOT_FOUND_LOAD_COUNT = "rates-rum-location-cache-not-found-load-count";
+
+    // Statement cache metrics
+    public static final String METRIC_RUM_STATEMENT_CACHE_PREPARE_COUNT = "rates-rum-statement-cache-prepare-count";
+
+    public static final String METRIC_RUM_STATEMENT_CACHE_ENABLED_CONNECTION_COUNT = "rates-rum-statement-cache-enabled-connection-count";
+
+    // Stored procedure version metrics
+    public static final String METRIC_RUM_STORED_PROC_VERSION_IN_FLIGHT = "rates-rum-stored-proc-version-in-flight";
+
+    public static final String METRIC_RUM_STORED_PROC_VERSION_LATENCY = "rates-rum-stored-proc-version-latency";
+
+    // Locked row retry metrics
+    public static final String METRIC_RUM_LOCKED_RETRY_COUNT = "rates-rum-locked-retry-count";
+
+    public static final String METRIC_RUM_LOCKED_RETRY_RECOVERED_ROW_COUNT = "rates-rum-locked-retry-recovered-row-count";
+
+    public static final String METRIC_RUM_LOCKED_RETRY_EXHAUSTED_ROW_COUNT = "rates-rum-locked-retry-exhausted-row-count";
+
+    // Place/Plan serializer metrics
+    public static final String METRIC_RUM_SERIALIZER_BUSY_KEYS = "rates-rum-serializer-busy-keys";
+
+    public static final String METRIC_RUM_SERIALIZER_WAITERS = "rates-rum-serializer-waiters";
+
+    public static final String METRIC_RUM_SERIALIZER_CONTENDED_COUNT = "rates-rum-serializer-contended-count";
+
+    // Write coalescing metrics
+    public static final String METRIC_RUM_COALESCED_CALL_COUNT = "rates-rum-coalesced-call-count";
+
+    public static final String METRIC_RUM_COALESCED_THREAD_COUNT = "rates-rum-coalesced-thread-count";
+
+    public static final String METRIC_RUM_COALESCER_PENDING = "rates-rum-coalescer-pending";
 }
@@ -0,0 +1,25 @@
+package com.hertz.api.models;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+@Data
+@Schema(description = "Progress of one Place/Plan group of an asynchronous rates update")
+@JsonInclude(JsonInclude.Include.NON_EMPTY)
+public class RatesUpdateJobGroupStatus {
+
+  private String location;
+
+  private String planId;
+
+  private String companyId;
+
+  @Schema(description = "QUEUED, RUNNING or COMPLETE")
+  private String status;
+
+  private int rows;
+
+  private int failedRows;
+
+}
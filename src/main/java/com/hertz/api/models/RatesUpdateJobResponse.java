@@ -0,0 +1,17 @@
+package com.hertz.api.models;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+@Data
+@Schema(description = "Returned when an asynchronous rates update has been accepted")
+@JsonInclude(JsonInclude.Include.NON_EMPTY)
+public class RatesUpdateJobResponse {
+
+  @Schema(description = "Transaction ID used to query the job status and results")
+  private String transactionId;
+
+  private String status;
+
+}
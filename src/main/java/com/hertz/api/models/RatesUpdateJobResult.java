@@ -0,0 +1,25 @@
+package com.hertz.api.models;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.util.List;
+import lombok.Data;
+
+@Data
+@Schema(description = "Final outcome of an asynchronous rates update")
+@JsonInclude(JsonInclude.Include.NON_EMPTY)
+public class RatesUpdateJobResult {
+
+  private String transactionId;
+
+  @Schema(description = "QUEUED, RUNNING, COMPLETE or FAILED; rows are only present once COMPLETE")
+  private String status;
+
+  @Schema(description = "Same response text as the synchronous rates update")
+  private String responseMessage;
+
+  private List<RatesUpdateRowResult> rows;
+
+  private String errorMessage;
+
+}
@@ -0,0 +1,38 @@
+package com.hertz.api.models;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.util.List;
+import lombok.Data;
+
+@Data
+@Schema(description = "Progress of an asynchronous rates update")
+@JsonInclude(JsonInclude.Include.NON_EMPTY)
+public class RatesUpdateJobStatus {
+
+  private String transactionId;
+
+  @Schema(description = "QUEUED, RUNNING, COMPLETE or FAILED")
+  private String status;
+
+  private long submitTime;
+
+  private long startTime;
+
+  private long endTime;
+
+  private int totalGroups;
+
+  private int completedGroups;
+
+  private int totalRows;
+
+  private int completedRows;
+
+  private int failedRows;
+
+  private List<RatesUpdateJobGroupStatus> groups;
+
+  private String errorMessage;
+
+}
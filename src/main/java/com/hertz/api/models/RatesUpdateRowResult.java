@@ -0,0 +1,32 @@
+package com.hertz.api.models;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+@Data
+@Schema(description = "Outcome of one rate row of an asynchronous rates update")
+@JsonInclude(JsonInclude.Include.NON_EMPTY)
+public class RatesUpdateRowResult {
+
+  private String sequenceNumber;
+
+  private String location;
+
+  private String planId;
+
+  private String companyId;
+
+  private String vehicle;
+
+  private String startDate;
+
+  private String endDate;
+
+  private boolean success;
+
+  private String errorCode;
+
+  private String message;
+
+}
@@ -1,14 +1,19 @@
 package com.hertz.api.service.data.update;
 
 import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Map;
 
 import com.hertz.rates.common.service.data.IDataServiceWithProperties;
 import com.hertz.rates.common.utils.HertzException;
+import com.hertz.api.corebusiness.RumLocationInfo;
 import com.hertz.api.corebusiness.RumUpdateGroup;
 
 public interface IRumGetPlaceTypeIdCodeDataService extends IDataServiceWithProperties {
 
 	public RumUpdateGroup getPlaceIdTypeCode(RumUpdateGroup updateGroup) throws HertzException, SQLException;
+
+	public Map<String, RumLocationInfo> getPlaceIdTypeCodes(Collection<String> areaLocations) throws HertzException, SQLException;
 }
 /*
  *************************************************************
@@ -1,9 +1,12 @@
 package com.hertz.api.service.data.update;
 
 import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Map;
 
 import com.hertz.rates.common.utils.HertzException;
 import com.hertz.rates.common.utils.config.PropertyGroup;
+import com.hertz.api.corebusiness.RumLocationInfo;
 import com.hertz.api.corebusiness.RumUpdateGroup;
 import com.hertz.api.helpers.GetPlaceIdCodeHelper;
 
@@ -29,6 +32,20 @@ public class RumGetPlaceTypeIdCodeDataService implements IRumGetPlaceTypeIdCodeD
 
         return helper.doDBCall(updateGroup);
     }
+
+    /**
+     * Look up the places of several Area Locations on one connection.
+     * @param areaLocations distinct Area Locations
+     * @return RUM Location information keyed by Area Location; failed lookups hold their exception.
+     * @throws HertzException
+     * @throws SQLException
+     */
+    public Map<String, RumLocationInfo> getPlaceIdTypeCodes(Collection<String> areaLocations) throws HertzException, SQLException {
+
+        GetPlaceIdCodeHelper helper = new GetPlaceIdCodeHelper(configDataProperties);
+
+        return helper.doBatchDBCall(areaLocations);
+    }
 }
 
 /*
@@ -0,0 +1,241 @@
+package com.hertz.api.transform;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+
+import com.hertz.rates.common.utils.HertzErrorCode;
+import com.hertz.rates.common.utils.HertzException;
+import com.hertz.api.corebusiness.RumChangeDetails;
+import com.hertz.api.corebusiness.RumUpdateGroup;
+import com.hertz.api.corebusiness.RumUpdateJob;
+import com.hertz.api.corebusiness.UpdateList;
+import com.hertz.api.corebusiness.UpdateThread;
+import com.hertz.api.corebusiness.errorcodes.RumErrorCodes;
+import com.hertz.api.models.RatesUpdateJobGroupStatus;
+import com.hertz.api.models.RatesUpdateJobResponse;
+import com.hertz.api.models.RatesUpdateJobResult;
+import com.hertz.api.models.RatesUpdateJobStatus;
+import com.hertz.api.models.RatesUpdateRowResult;
+
+/**
+ * Maps an asynchronous RumUpdateJob to the status and result models returned by the job endpoints.
+ *
+ * Row outcomes are only read from groups whose threads have all finished, so nothing is read
+ * while a stored procedure is still filling it in.  A group split into chunks has one thread
+ * per chunk: it is complete when all of them have finished and running once any has started.
+ *
+ */
+public class RumUpdateJobMapper {
+
+    /**
+     * Response for an accepted job.
+     * @param job
+     * @return
+     */
+    public static RatesUpdateJobResponse toJobResponse(RumUpdateJob job) {
+
+        RatesUpdateJobResponse response = new RatesUpdateJobResponse();
+        response.setTransactionId(job.getTransactionId());
+        response.setStatus(job.getStatus());
+
+        return response;
+    }
+
+    /**
+     * Per Place/Plan progress of the job.
+     * @param job
+     * @return
+     */
+    public static RatesUpdateJobStatus toStatus(RumUpdateJob job) {
+
+        RatesUpdateJobStatus status = new RatesUpdateJobStatus();
+        status.setTransactionId(job.getTransactionId());
+        status.setStatus(job.getStatus());
+        status.setSubmitTime(job.getSubmitTime());
+        status.setStartTime(job.getStartTime());
+        status.setEndTime(job.getEndTime());
+        status.setErrorMessage(job.getErrorMessage());
+
+        UpdateList updateList = job.getUpdateList();
+        if (updateList == null || updateList.getListOfUpdates() == null) {
+            // Not sorted into groups yet.
+            return status;
+        }
+
+        // Progress of the thread(s) of each group of the list, chunk threads counted against the group split.
+        IdentityHashMap<RumUpdateGroup, GroupProgress> progressByGroup = new IdentityHashMap<RumUpdateGroup, GroupProgress>();
+        Iterator<UpdateThread> threadIter = job.getUpdateThreads().iterator();
+        while (threadIter.hasNext()) {
+            UpdateThread updateThread = threadIter.next();
+            RumUpdateGroup threadGroup = updateThread.getUpdateGroup();
+            RumUpdateGroup group = threadGroup.isChunk() ? threadGroup.getChunkOf() : threadGroup;
+
+            GroupProgress progress = progressByGroup.get(group);
+            if (progress == null) {
+                progress = new GroupProgress();
+                progressByGroup.put(group, progress);
+            }
+            progress.threads++;
+            if (updateThread.isFinishedWithUpdate()) {
+                progress.finished++;
+            }
+            else if (updateThread.isStarted()) {
+                progress.started = true;
+            }
+        }
+
+        List<RatesUpdateJobGroupStatus> groups = new ArrayList<RatesUpdateJobGroupStatus>();
+        int completedGroups = 0;
+        int totalRows = 0;
+        int completedRows = 0;
+        int failedRows = 0;
+
+        Iterator<RumUpdateGroup> groupIter = updateList.getListOfUpdates().iterator();
+        while (groupIter.hasNext()) {
+            RumUpdateGroup group = groupIter.next();
+            GroupProgress progress = progressByGroup.get(group);
+
+            RatesUpdateJobGroupStatus groupStatus = new RatesUpdateJobGroupStatus();
+            groupStatus.setLocation(group.getLocation());
+            groupStatus.setPlanId(group.getPlanId());
+            groupStatus.setCompanyId(group.getCompanyId());
+            groupStatus.setRows(group.getChangeDetails().size());
+            totalRows += groupStatus.getRows();
+
+            if (progress != null && progress.finished == progress.threads) {
+                int groupFailedRows = countFailedRows(group);
+                groupStatus.setStatus(RumUpdateJob.STATUS_COMPLETE);
+                groupStatus.setFailedRows(groupFailedRows);
+
+                completedGroups++;
+                completedRows += groupStatus.getRows();
+                failedRows += groupFailedRows;
+            }
+            else if (progress != null && (progress.started || progress.finished > 0)) {
+                groupStatus.setStatus(RumUpdateJob.STATUS_RUNNING);
+            }
+            else {
+                groupStatus.setStatus(RumUpdateJob.STATUS_QUEUED);
+            }
+
+            groups.add(groupStatus);
+        }
+
+        status.setGroups(groups);
+        status.setTotalGroups(groups.size());
+        status.setCompletedGroups(completedGroups);
+        status.setTotalRows(totalRows);
+        status.setCompletedRows(completedRows);
+        status.setFailedRows(failedRows);
+
+        return status;
+    }
+
+    /**
+     * Final outcome of the job.  Rows are only filled in once the job is complete.
+     * @param job
+     * @return
+     */
+    public static RatesUpdateJobResult toResult(RumUpdateJob job) {
+
+        RatesUpdateJobResult result = new RatesUpdateJobResult();
+        result.setTransactionId(job.getTransactionId());
+        result.setStatus(job.getStatus());
+        result.setErrorMessage(job.getErrorMessage());
+
+        if (!RumUpdateJob.STATUS_COMPLETE.equals(job.getStatus())) {
+            return result;
+        }
+
+        result.setResponseMessage(job.getResponseMessage());
+
+        List<RatesUpdateRowResult> rows = new ArrayList<RatesUpdateRowResult>();
+        UpdateList updateList = job.getUpdateList();
+        if (updateList != null && updateList.getListOfUpdates() != null) {
+
+            Iterator<RumUpdateGroup> groupIter = updateList.getListOfUpdates().iterator();
+            while (groupIter.hasNext()) {
+                RumUpdateGroup group = groupIter.next();
+
+                Iterator<RumChangeDetails> detailIter = group.getChangeDetails().iterator();
+                while (detailIter.hasNext()) {
+                    rows.add(toRowResult(group, detailIter.next()));
+                }
+            }
+        }
+        result.setRows(rows);
+
+        return result;
+    }
+
+    /**
+     * Outcome of one rate row.
+     * @param group
+     * @param details
+     * @return
+     */
+    private static RatesUpdateRowResult toRowResult(RumUpdateGroup group, RumChangeDetails details) {
+
+        RatesUpdateRowResult row = new RatesUpdateRowResult();
+        row.setSequenceNumber(details.getSequenceNumber());
+        row.setLocation(group.getLocation());
+        row.setPlanId(group.getPlanId());
+        row.setCompanyId(group.getCompanyId());
+        row.setVehicle(details.getVehicle());
+        if (details.getStartDate() != null) {
+            row.setStartDate(details.getStartDate().toStringDateOnly());
+        }
+        if (details.getEndDate() != null) {
+            row.setEndDate(details.getEndDate().toStringDateOnly());
+        }
+
+        Exception e = details.getException();
+        row.setSuccess(e == null);
+        row.setMessage(details.getResponseMessage());
+
+        if (e != null) {
+            if (e instanceof HertzException) {
+                HertzErrorCode errorCode = ((HertzException) e).getErrorCode();
+                if (errorCode instanceof RumErrorCodes) {
+                    row.setErrorCode(errorCode.getCodeID());
+                }
+            }
+            if (row.getMessage() == null) {
+                row.setMessage(e.getMessage());
+            }
+        }
+
+        return row;
+    }
+
+    /**
+     * Threads of one group of the list.
+     */
+    private static class GroupProgress {
+
+        private int threads = 0;
+        private int finished = 0;
+        private boolean started = false;
+    }
+
+    /**
+     * Number of rows in the group that failed.
+     * @param group
+     * @return
+     */
+    private static int countFailedRows(RumUpdateGroup group) {
+
+        int failedRows = 0;
+
+        Iterator<RumChangeDetails> detailIter = group.getChangeDetails().iterator();
+        while (detailIter.hasNext()) {
+            if (detailIter.next().getException() != null) {
+                failedRows++;
+            }
+        }
+
+        return failedRows;
+    }
+}
@@ -0,0 +1,111 @@
+package com.hertz.api.transform;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RUM - Sequence numbers for the rows of update requests.
+ *
+ * A sequence number is still the time of day as an int (HertzDateTime.getTimeAsInt) plus the row
+ * count, but the clock is read once per request instead of once per row, and no number is ever
+ * given out twice: rows of the same request, or of requests parsed at the same time, used to get
+ * the same number.
+ *
+ * Numbers are reserved from one shared counter in blocks, so a request takes the counter once per
+ * block instead of once per row.  A block never starts below the clock reading of the request that
+ * reserves it, so numbers keep following the time of day when requests are far apart.  The counter
+ * only starts again from the clock when the clock itself has gone back, as at midnight: however
+ * far ahead of the clock heavy load has pushed it, it never goes back while the clock moves on.
+ * A request's blocks always follow one another, so a request never repeats one of its own numbers.
+ *
+ */
+public class SequenceNumberGenerator {
+
+    /** Numbers reserved by a request at a time. */
+    private final static int BLOCK_SIZE = 64;
+
+    /** The clock has wrapped (midnight) if a request reads it this far below the latest reading.
+     *  Smaller steps back are requests that read the clock at about the same time. */
+    private final static long WRAP_MARGIN = 1000000L;
+
+    /** Next number not yet reserved by any request. */
+    private final static AtomicLong nextFree = new AtomicLong();
+
+    /** Latest clock reading (base) of any request since the clock last wrapped. */
+    private final static AtomicLong lastClock = new AtomicLong();
+
+    /** Base for this request: its clock reading plus the row count. */
+    private final long base;
+
+    /** Next number of the current block, and the end (exclusive) of that block. */
+    private long next = 0L;
+    private long blockEnd = 0L;
+
+    /**
+     * Constructor
+     * @param timeAsInt clock reading of the request.
+     * @param count added to the clock reading, as it always was.
+     */
+    public SequenceNumberGenerator(int timeAsInt, int count) {
+
+        this.base = (long) timeAsInt + count;
+    }
+
+    /**
+     * Return the next sequence number of the request.  Not thread safe: one generator per request.
+     * @return
+     */
+    public String nextSequenceNumber() {
+
+        if (next >= blockEnd) {
+            reserveBlock();
+        }
+
+        return String.valueOf(next++);
+    }
+
+    private void reserveBlock() {
+
+        if (blockEnd == 0L) {
+            noteClock(base);
+        }
+
+        // Never below this request's last block, even when the counter starts again from the clock.
+        long floor = Math.max(base, blockEnd);
+
+        while (true) {
+            long free = nextFree.get();
+            long start = Math.max(free, floor);
+            if (nextFree.compareAndSet(free, start + BLOCK_SIZE)) {
+                next = start;
+                blockEnd = start + BLOCK_SIZE;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Record a request's clock reading.  If the clock has wrapped the counter starts again from it.
+     * @param clock
+     */
+    private static void noteClock(long clock) {
+
+        while (true) {
+            long last = lastClock.get();
+            if (clock > last) {
+                if (lastClock.compareAndSet(last, clock)) {
+                    return;
+                }
+            }
+            else if (clock + WRAP_MARGIN < last) {
+                if (lastClock.compareAndSet(last, clock)) {
+                    // The numbers above it were given out before the clock wrapped: the clock only reaches them again a day later.
+                    nextFree.set(clock);
+                    return;
+                }
+            }
+            else {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.hertz.api.transform;
+
+/**
+ * RUM - Symbol table for the code fields of one update request (Company ID, Location, Place Type,
+ * Region, Plan ID, Plan Type, Classification).
+ *
+ * These fields take only a few distinct values across the rows of a request, so each distinct value
+ * is kept once and every row gets the same String.  Rows and changes of a large request then share
+ * a handful of Strings instead of holding a copy each, and rows of the same Place/Plan can be
+ * matched by identity.
+ *
+ * A flat open addressing table with linear probing.  A value can be looked up straight from a
+ * range of the request, so a value already seen is never copied.  Once the table holds MAX_SYMBOLS
+ * values, new values are returned as they are and not kept.  Not thread safe: one table per request.
+ *
+ */
+public class SymbolTable {
+
+    private final static int INITIAL_CAPACITY = 64;
+
+    /** Distinct values kept; a request with more is not what the table is for. */
+    private final static int MAX_SYMBOLS = 4096;
+
+    private String[] symbols = new String[INITIAL_CAPACITY];
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private int size = 0;
+
+    /**
+     * Constructor
+     */
+    public SymbolTable() {
+
+    }
+
+    /**
+     * Return the instance kept for the value, keeping this one if it is new.
+     * @param value
+     * @return
+     */
+    public String intern(String value) {
+
+        if (value == null) {
+            return null;
+        }
+
+        return intern(value, 0, value.length(), value);
+    }
+
+    /**
+     * Return the instance kept for a range of the source, making and keeping a String for it only
+     * if it is new.
+     * @param source
+     * @param start
+     * @param end exclusive.
+     * @return
+     */
+    public String intern(String source, int start, int end) {
+
+        return intern(source, start, end, null);
+    }
+
+    private String intern(String source, int start, int end, String value) {
+
+        int length = end - start;
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = (31 * hash) + source.charAt(i);
+        }
+
+        int mask = symbols.length - 1;
+        int slot = spread(hash) & mask;
+        String symbol;
+        while ((symbol = symbols[slot]) != null) {
+            if (hashes[slot] == hash && symbol.length() == length && symbol.regionMatches(0, source, start, length)) {
+                return symbol;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (value == null) {
+            value = source.substring(start, end);
+        }
+
+        if (size < MAX_SYMBOLS) {
+            symbols[slot] = value;
+            hashes[slot] = hash;
+            size++;
+            // Keep the table at most half full.
+            if (size * 2 > symbols.length) {
+                grow();
+            }
+        }
+
+        return value;
+    }
+
+    /**
+     * Number of distinct values kept.
+     * @return
+     */
+    public int size() {
+
+        return size;
+    }
+
+    private void grow() {
+
+        String[] oldSymbols = symbols;
+        int[] oldHashes = hashes;
+        symbols = new String[oldSymbols.length * 2];
+        hashes = new int[oldSymbols.length * 2];
+
+        int mask = symbols.length - 1;
+        for (int i = 0; i < oldSymbols.length; i++) {
+            if (oldSymbols[i] != null) {
+                int slot = spread(oldHashes[i]) & mask;
+                while (symbols[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                symbols[slot] = oldSymbols[i];
+                hashes[slot] = oldHashes[i];
+            }
+        }
+    }
+
+    private static int spread(int hash) {
+
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,129 @@
+package com.hertz.api.transform;
+
+/**
+ * RUM - Single pass parser for a Webservice update request: rows separated by '|', fields
+ * separated by ','.
+ *
+ * The parser walks the request once and keeps only the offsets of the fields of the current row.
+ * No String is made for a field until it is asked for, so fields the update does not keep (such
+ * as the sequence number sent by the client) are never copied.
+ *
+ * Rows and fields are cut like the tokenizers it replaces: adjacent delimiters give an empty field,
+ * and nothing after the last '|' is not a row.
+ *
+ */
+public class UpdateRequestParser {
+
+    private final static char ROW_DELIMITER = '|';
+    private final static char FIELD_DELIMITER = ',';
+
+    private final String request;
+    private final int length;
+
+    /** Start of the next row. */
+    private int position = 0;
+
+    /** Offsets of the fields of the current row, up to the capacity. */
+    private final int[] fieldStart;
+    private final int[] fieldEnd;
+    private int fieldCount = 0;
+
+    /**
+     * Constructor
+     * @param request
+     * @param maxFields fields of a row whose offsets are kept; further fields are only counted.
+     */
+    public UpdateRequestParser(String request, int maxFields) {
+
+        this.request = (request == null) ? "" : request;
+        this.length = this.request.length();
+        this.fieldStart = new int[maxFields];
+        this.fieldEnd = new int[maxFields];
+    }
+
+    /**
+     * Move to the next row.
+     * @return false when there are no more rows.
+     */
+    public boolean nextRow() {
+
+        if (position >= length) {
+            return false;
+        }
+
+        fieldCount = 0;
+        int start = position;
+        int i = position;
+        while (i < length) {
+            char c = request.charAt(i);
+            if (c == ROW_DELIMITER) {
+                break;
+            }
+            if (c == FIELD_DELIMITER) {
+                addField(start, i);
+                start = i + 1;
+            }
+            i++;
+        }
+        addField(start, i);
+
+        // Skip the row delimiter.
+        position = i + 1;
+
+        return true;
+    }
+
+    private void addField(int start, int end) {
+
+        if (fieldCount < fieldStart.length) {
+            fieldStart[fieldCount] = start;
+            fieldEnd[fieldCount] = end;
+        }
+        fieldCount++;
+    }
+
+    /**
+     * Number of fields in the current row, including any beyond the capacity.
+     * @return
+     */
+    public int getFieldCount() {
+
+        return fieldCount;
+    }
+
+    /**
+     * Number of fields of the current row that can be read.
+     * @return
+     */
+    public int getKeptFieldCount() {
+
+        return Math.min(fieldCount, fieldStart.length);
+    }
+
+    public int getFieldLength(int field) {
+
+        return fieldEnd[field] - fieldStart[field];
+    }
+
+    /**
+     * Make the String of a field of the current row.
+     * @param field 0 based, below getKeptFieldCount().
+     * @return
+     */
+    public String getField(int field) {
+
+        return request.substring(fieldStart[field], fieldEnd[field]);
+    }
+
+    /**
+     * Return the String of a field of the current row from the symbol table, so a value already
+     * seen in the request is not copied again.
+     * @param field 0 based, below getKeptFieldCount().
+     * @param symbols
+     * @return
+     */
+    public String getField(int field, SymbolTable symbols) {
+
+        return symbols.intern(request, fieldStart[field], fieldEnd[field]);
+    }
+}
@@ -1,12 +1,14 @@
 package com.hertz.api.transform;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 
 import com.hertz.rates.common.utils.Decimal;
 import com.hertz.rates.common.utils.FastStringTokenizer;
 import com.hertz.rates.common.utils.HertzDateTime;
 import com.hertz.rates.common.utils.HertzException;
 import com.hertz.rates.common.utils.logging.HertzLogger;
+import com.hertz.api.corebusiness.ScaledAmount;
 import com.hertz.api.corebusiness.UpdateRow;
 import com.hertz.api.corebusiness.errorcodes.RumErrorCodes;
 
@@ -24,31 +26,21 @@ public class UpdateRowMapper {
     private final static String STATE_DB_PLACE_TYPE = "6";
     
     //PTR7024 SR56958 new column for Company ID
-    private final static int NUMBER_OF_COLUMNS_TO_EXPECT = 14;
+    public final static int NUMBER_OF_COLUMNS_TO_EXPECT = 14;
+
+    private final static int SEQUENCE_NUMBER_FIELD = 0;
+
+    /** Most distinct dates remembered per request. */
+    private final static int MAX_MEMO_DATES = 4096;
     
     private final static String DAY_CLASS = "DY";
     private final static String WEEKEND_CLASS = "WE";
     private final static String WEEK_CLASS = "WK";
     private final static String MONTH_CLASS = "MO";
     
-    private static Decimal NA_DAY_AND_WEEKEND_MIN_RATE = null;
-    private static Decimal NA_DAY_AND_WEEKEND_MAX_RATE = null;
-    private static Decimal NA_WEEK_MIN_RATE = null;
-    private static Decimal NA_WEEK_MAX_RATE = null;
-    private static Decimal NA_MONTH_MIN_RATE = null;
-    private static Decimal NA_MONTH_MAX_RATE = null;
-    private static Decimal DEFAULT_DAY_AND_WEEKEND_MIN_RATE = null;
-    private static Decimal DEFAULT_DAY_AND_WEEKEND_MAX_RATE = null;
-    private static Decimal DEFAULT_WEEK_MIN_RATE = null;
-    private static Decimal DEFAULT_WEEK_MAX_RATE = null;
-    private static Decimal DEFAULT_MONTH_MIN_RATE = null;
-    private static Decimal DEFAULT_MONTH_MAX_RATE = null;
-    private static Decimal EUROPE_DAY_AND_WEEKEND_MIN_RATE = null;
-    private static Decimal EUROPE_DAY_AND_WEEKEND_MAX_RATE = null;
-    private static Decimal EUROPE_WEEK_MIN_RATE = null;
-    private static Decimal EUROPE_WEEK_MAX_RATE = null;
-    private static Decimal EUROPE_MONTH_MIN_RATE = null;
-    private static Decimal EUROPE_MONTH_MAX_RATE = null;
+    private static RateLimits NA_RATE_LIMITS = null;
+    private static RateLimits DEFAULT_RATE_LIMITS = null;
+    private static RateLimits EUROPE_RATE_LIMITS = null;
 
     private static ArrayList<String> europeanRegions = new ArrayList<String>(4);
     private static ArrayList<String> northAmericanRegions = new ArrayList<String>(1);
@@ -71,47 +63,30 @@ public class UpdateRowMapper {
             // ----------------------------
             // North America Region limits
             // ----------------------------
-            NA_DAY_AND_WEEKEND_MIN_RATE = new Decimal("6.00");
-            NA_DAY_AND_WEEKEND_MAX_RATE = new Decimal("10000.00");
-            NA_WEEK_MIN_RATE = new Decimal("50.00");
-            NA_WEEK_MAX_RATE = new Decimal("100000.00");
-            NA_MONTH_MIN_RATE = new Decimal("200.00");
-            NA_MONTH_MAX_RATE = new Decimal("100000.00");
+            NA_RATE_LIMITS = new RateLimits(
+                    "6.00", "10000.00",     // Day and Weekend
+                    "50.00", "100000.00",   // Week
+                    "200.00", "100000.00"); // Month
             
         	//These are the min/max values for all other regions LA,CC(Caucasus)
             // ----------------------------
             // Non-'European' Region limits
             // ----------------------------
-            DEFAULT_DAY_AND_WEEKEND_MIN_RATE = new Decimal("6.00");
-            DEFAULT_DAY_AND_WEEKEND_MAX_RATE = new Decimal("10000.00");
-            DEFAULT_WEEK_MIN_RATE = new Decimal("50.00");
-            DEFAULT_WEEK_MAX_RATE = new Decimal("10000.00");
-            DEFAULT_MONTH_MIN_RATE = new Decimal("200.00");
-            DEFAULT_MONTH_MAX_RATE = new Decimal("10000.00");
+            DEFAULT_RATE_LIMITS = new RateLimits(
+                    "6.00", "10000.00",     // Day and Weekend
+                    "50.00", "10000.00",    // Week
+                    "200.00", "10000.00");  // Month
             
             // --------------------------------------------------
             // 'European' Region(s) (Europe + Middle East + Africa + Asia)
             // --------------------------------------------------
-           
-            EUROPE_DAY_AND_WEEKEND_MIN_RATE = new Decimal("0.01");
-            
             // RATES-12638 - increased 'Europe' Max Day and Weekend Rate from 10,000 to 999,999. 
-            //EUROPE_DAY_AND_WEEKEND_MAX_RATE = new Decimal("10000.00");
-            EUROPE_DAY_AND_WEEKEND_MAX_RATE = new Decimal("999999.00");
-            
-
-            EUROPE_WEEK_MIN_RATE = new Decimal("0.01");
-            
             // RATES-12638 - increased 'Europe' Max Weekly Rate from 10,000 to 999,999.
-            //EUROPE_WEEK_MAX_RATE = new Decimal("10000.00");
-            EUROPE_WEEK_MAX_RATE = new Decimal("999999.00");
-            
-            
-            EUROPE_MONTH_MIN_RATE = new Decimal("0.01");
-            
             // Rates-12578 - increased 'Europe' Max Monthly Rate from 10,000 to 999,999.
-            //EUROPE_MONTH_MAX_RATE = new Decimal("10000.00");
-            EUROPE_MONTH_MAX_RATE = new Decimal("999999.00");
+            EUROPE_RATE_LIMITS = new RateLimits(
+                    "0.01", "999999.00",    // Day and Weekend
+                    "0.01", "999999.00",    // Week
+                    "0.01", "999999.00");   // Month
         }
         catch (HertzException e) {
             String stackTrace = HertzException.buildStackTrace(e);
@@ -126,6 +101,15 @@ public class UpdateRowMapper {
         northAmericanRegions.add(NORTH_AMERICA);
     }
 
+    /** Dates parsed so far by this mapper, by text.  A mapper is used for one request, by one thread. */
+    private final HashMap<String, ParsedDate> dateMemo = new HashMap<String, ParsedDate>();
+
+    /** Sequence numbers of the request, from one clock reading. */
+    private SequenceNumberGenerator sequenceNumbers = null;
+
+    /** Code fields of the request, one String per distinct value. */
+    private final SymbolTable symbols = new SymbolTable();
+
     /**
      * Constructor
      */
@@ -144,12 +128,75 @@ public class UpdateRowMapper {
         FastStringTokenizer stringTokenizer = new FastStringTokenizer(line, DELIMITER);
 
         int tokenCount = 0;
-        int tokenTotal = 0;
 
         UpdateRow row = new UpdateRow();
         
         // Check that we received exactly the correct number of fields.
-        tokenTotal = stringTokenizer.countTokens();
+        checkColumnCount(row, stringTokenizer.countTokens());
+
+        // Process, validate, and convert the fields in the update.
+        while (stringTokenizer.hasMoreTokens()) {
+            String elementValue = stringTokenizer.nextToken();
+            if (isSymbolField(tokenCount)) {
+                elementValue = symbols.intern(elementValue);
+            }
+            mapField(row, tokenCount, elementValue, count);
+            
+            // Move to the next field.
+            tokenCount++;
+        }
+
+        return checkPrices(row);
+    }
+
+    /**
+     * Map the current row of the parser into an UpdateRow object.  Only the fields the UpdateRow
+     * keeps are made into Strings.
+     * @param parser positioned on a row.
+     * @param count
+     * @return UpdateRow
+     */
+    public UpdateRow convertRowToObject(UpdateRequestParser parser, int count) {
+
+        UpdateRow row = new UpdateRow();
+
+        // Check that we received exactly the correct number of fields.
+        checkColumnCount(row, parser.getFieldCount());
+
+        // Process, validate, and convert the fields in the update.
+        int fields = parser.getKeptFieldCount();
+        for (int field = 0; field < fields; field++) {
+            // The Sequence Number sent is replaced by our own: do not copy it.
+            String elementValue = null;
+            if (isSymbolField(field)) {
+                elementValue = parser.getField(field, symbols);
+            }
+            else if (field != SEQUENCE_NUMBER_FIELD) {
+                elementValue = parser.getField(field);
+            }
+            mapField(row, field, elementValue, count);
+        }
+
+        return checkPrices(row);
+    }
+
+    /**
+     * Is the field one of the codes shared by many rows of a request (Company ID through Classification, except Vehicle)?
+     * @param field field number, 0 based.
+     * @return
+     */
+    private static boolean isSymbolField(int field) {
+
+        return field >= 1 && field <= 8 && field != 5;
+    }
+
+    /**
+     * Flag a row without exactly the expected number of fields.
+     * @param row
+     * @param tokenTotal
+     */
+    private static void checkColumnCount(UpdateRow row, int tokenTotal) {
+
         if (tokenTotal > NUMBER_OF_COLUMNS_TO_EXPECT) {
             row.setErrorCode(RumErrorCodes.TOO_MANY_COLUMNS_IN_ROW);
             row.setLocation(ERROR_AREA_LOCATION);
@@ -158,236 +205,225 @@ public class UpdateRowMapper {
             row.setErrorCode(RumErrorCodes.TOO_FEW_COLUMNS_IN_ROW);
             row.setLocation(ERROR_AREA_LOCATION);
         }
+    }
 
-        // Process, validate, and convert the fields in the update.
-        while (stringTokenizer.hasMoreTokens()) {
-            String elementValue = stringTokenizer.nextToken();
+    /**
+     * Process, validate, and convert one field of an update.
+     * @param row
+     * @param tokenCount field number, 0 based.
+     * @param elementValue
+     * @param count
+     */
+    private void mapField(UpdateRow row, int tokenCount, String elementValue, int count) {
+
+        switch (tokenCount) {
+            case 0:
+                // Sequence Number
+                //we will set the sequence number
+                //they should still send though.
+                row.setSequenceNumber(getSequenceNumbers(count).nextSequenceNumber());
+                break;
             
-            switch (tokenCount) {
-                case 0:
-                    // Sequence Number
-                    //we will set the sequence number
-                    //they should still send though.
-                    int time = 0;
-                    try {
-                        time = HertzDateTime.getCurrentDateTime().getTimeAsInt(true);
-                    }
-                    catch (HertzException e) {
-                        time = DEFAULT_SEQ_NUMBER;
+            case 1:
+                // Company ID
+                //new case for Company ID PTR7024 SR56958
+                row.setCompanyId(elementValue);
+                if (elementValue == null || elementValue.length() <= 0) {
+                    row.setErrorCode(RumErrorCodes.NO_COMPANY_ID_PROVIDED);
+                }
+                break;
+            
+            case 2:
+                //  Location
+                if (elementValue.length() <= 0) {
+                    row.setErrorCode(RumErrorCodes.NO_LOCATION_PROVIDED);
+                }
+                row.setLocation(elementValue);
+                break;
+            
+            case 3:
+                // Place Type Code
+                if (elementValue != null) {
+                    if (STATE_IN_TYPE.equals(elementValue.trim())) {
+                        elementValue = STATE_DB_PLACE_TYPE;
                     }
-                    time = time + count;
-                    row.setSequenceNumber(String.valueOf(time));
-                    break;
-                
-                case 1:
-                    // Company ID
-                    //new case for Company ID PTR7024 SR56958
-                    row.setCompanyId(elementValue);
-                    if (elementValue == null || elementValue.length() <= 0) {
-                        row.setErrorCode(RumErrorCodes.NO_COMPANY_ID_PROVIDED);
+                }
+                row.setPlaceTypeCode(elementValue);
+                break;
+            
+            case 4:
+                // Region
+                row.setRegion(elementValue);
+                //                  if (elementValue == null || elementValue.length() <= 0){
+                //                      row.setErrorCode(RumErrorCodes.NO_REGION_PROVIDED);
+                //                  }
+                break;
+            
+            case 5:
+                // Vehicle
+                row.setVehicle(elementValue);
+                if (elementValue == null || elementValue.length() <= 0) {
+                    row.setErrorCode(RumErrorCodes.NO_VEHICLE_PROVIDED);
+                }
+                break;
+            
+            case 6:
+                // Plan ID
+                row.setPlanId(elementValue);
+                if (elementValue == null || elementValue.length() <= 0) {
+                    row.setErrorCode(RumErrorCodes.NO_PLAN_ID_PROVIDED);
+                }
+                break;
+            
+            case 7:
+                // Plan ID Type Code
+                row.setPlanIdTypeCode(elementValue);
+                if (elementValue == null || elementValue.length() <= 0) {
+                    row.setErrorCode(RumErrorCodes.NO_PLAN_TYPE_PROVIDED);
+                }
+                break;
+            
+            case 8:
+                //  Class Time Code = Classification
+                row.setClassTimeCode(elementValue);
+                if (elementValue == null || elementValue.length() <= 0) {
+                    row.setErrorCode(RumErrorCodes.NO_CLASS_TIME_CODE_PROVIDED);
+                }
+                break;
+            
+            case 9:
+                //  Start Date
+                if (elementValue == null || elementValue.length() <= 0) {
+                    row.setErrorCode(RumErrorCodes.NO_START_DATE_PROVIDED);
+                }
+                else {
+                    ParsedDate startDate = parseDate(elementValue);
+                    if (startDate.dateTime != null) {
+                        row.setStartDate(startDate.dateTime);
                     }
-                    break;
-                
-                case 2:
-                    //  Location
-                    if (elementValue.length() <= 0) {
-                        row.setErrorCode(RumErrorCodes.NO_LOCATION_PROVIDED);
+                    if (!startDate.valid) {
+                        row.setErrorCode(RumErrorCodes.START_DATE_INVALID);
                     }
-                    row.setLocation(elementValue);
-                    break;
-                
-                case 3:
-                    // Place Type Code
-                    if (elementValue != null) {
-                        if (STATE_IN_TYPE.equals(elementValue.trim())) {
-                            elementValue = STATE_DB_PLACE_TYPE;
+                }
+                break;
+            
+            case 10:
+                // End Date
+                if (elementValue == null || elementValue.length() <= 0) {
+                    row.setErrorCode(RumErrorCodes.NO_END_DATE_PROVIDED);
+                }
+                else {
+                    try {
+                        ParsedDate endDate = parseDate(elementValue);
+                        if (endDate.dateTime == null) {
+                            throw new HertzException(RumErrorCodes.END_DATE_INVALID);
                         }
-                    }
-                    row.setPlaceTypeCode(elementValue);
-                    break;
-                
-                case 4:
-                    // Region
-                    row.setRegion(elementValue);
-                    //                  if (elementValue == null || elementValue.length() <= 0){
-                    //                      row.setErrorCode(RumErrorCodes.NO_REGION_PROVIDED);
-                    //                  }
-                    break;
-                
-                case 5:
-                    // Vehicle
-                    row.setVehicle(elementValue);
-                    if (elementValue == null || elementValue.length() <= 0) {
-                        row.setErrorCode(RumErrorCodes.NO_VEHICLE_PROVIDED);
-                    }
-                    break;
-                
-                case 6:
-                    // Plan ID
-                    row.setPlanId(elementValue);
-                    if (elementValue == null || elementValue.length() <= 0) {
-                        row.setErrorCode(RumErrorCodes.NO_PLAN_ID_PROVIDED);
-                    }
-                    break;
-                
-                case 7:
-                    // Plan ID Type Code
-                    row.setPlanIdTypeCode(elementValue);
-                    if (elementValue == null || elementValue.length() <= 0) {
-                        row.setErrorCode(RumErrorCodes.NO_PLAN_TYPE_PROVIDED);
-                    }
-                    break;
-                
-                case 8:
-                    //  Class Time Code = Classification
-                    row.setClassTimeCode(elementValue);
-                    if (elementValue == null || elementValue.length() <= 0) {
-                        row.setErrorCode(RumErrorCodes.NO_CLASS_TIME_CODE_PROVIDED);
-                    }
-                    break;
-                
-                case 9:
-                    //  Start Date
-                    if (elementValue == null || elementValue.length() <= 0) {
-                        row.setErrorCode(RumErrorCodes.NO_START_DATE_PROVIDED);
-                    }
-                    else {
-                        try {
-                            HertzDateTime startDateTime = new HertzDateTime(elementValue, HertzDateTime.DATE_FORMAT);
+                        HertzDateTime endDateTime = endDate.dateTime;
 
-                            if (!doDateCheck(startDateTime)) {
-                                row.setStartDate(startDateTime);
-                                throw new HertzException(RumErrorCodes.START_DATE_INVALID);
-                            }
-                            else {
-                                row.setStartDate(startDateTime);
-                            }
+                        if (!endDate.valid) {
+                            row.setEndDate(endDateTime);
+                            throw new HertzException(RumErrorCodes.END_DATE_INVALID);
                         }
-                        catch (Exception e) {
-                            row.setErrorCode(RumErrorCodes.START_DATE_INVALID);
+                        else if (row.getStartDate() != null && row.getStartDate().getHertzSystemDate() <= endDate.systemDate) {
+                            row.setEndDate(endDateTime);
                         }
-                    }
-                    break;
-                
-                case 10:
-                    // End Date
-                    if (elementValue == null || elementValue.length() <= 0) {
-                        row.setErrorCode(RumErrorCodes.NO_END_DATE_PROVIDED);
-                    }
-                    else {
-                        try {
-                            HertzDateTime endDateTime = new HertzDateTime(elementValue, HertzDateTime.DATE_FORMAT);
-
-                            if (!doDateCheck(endDateTime)) {
-                                row.setEndDate(endDateTime);
-                                throw new HertzException(RumErrorCodes.END_DATE_INVALID);
-                            }
-                            else if (row.getStartDate() != null && row.getStartDate().getHertzSystemDate() <= endDateTime.getHertzSystemDate()) {
-                                row.setEndDate(endDateTime);
-                            }
-                            else {
+                        else {
 
-                                row.setEndDate(endDateTime);
-                                if (!row.hasError()) {
-                                    row.setErrorCode(RumErrorCodes.END_DATE_INVALID);
-                                }
+                            row.setEndDate(endDateTime);
+                            if (!row.hasError()) {
+                                row.setErrorCode(RumErrorCodes.END_DATE_INVALID);
                             }
                         }
-                        catch (Exception e) {
-                            row.setErrorCode(RumErrorCodes.END_DATE_INVALID);
-                        }
                     }
-                    break;
-                
-                case 11:
-                    // Rate Amount
-                    row.setRate(elementValue);
-                    if (elementValue == null || elementValue.length() <= 0) {
+                    catch (Exception e) {
+                        row.setErrorCode(RumErrorCodes.END_DATE_INVALID);
+                    }
+                }
+                break;
+            
+            case 11:
+                // Rate Amount
+                row.setRate(elementValue);
+                if (elementValue == null || elementValue.length() <= 0) {
+                    row.setErrorCode(RumErrorCodes.NO_RATE_AMOUNT_PROVIDED);
+                }
+
+                try {
+                    // Parsed once here; the price check compares the same value.
+                    long scaledRate = ScaledAmount.parse(elementValue);
+                    row.setScaledRate(scaledRate);
+                    if (!isGreaterThanZero(elementValue, scaledRate)) {
                         row.setErrorCode(RumErrorCodes.NO_RATE_AMOUNT_PROVIDED);
                     }
+                }
+                catch (Exception e) {
+                    row.setErrorCode(RumErrorCodes.INVALID_RATE_AMOUNT);
+                }
+                break;
 
+            case 12:
+                // Extra Day
+                row.setExtraDay(elementValue);
+                if (elementValue == null || elementValue.length() <= 0) {
+                    row.setErrorCode(RumErrorCodes.NO_EXTRA_DAY_PROVIDED);
+                }
+                else {
                     try {
-                        Decimal rateAmount = new Decimal(elementValue.trim());
-                        if (rateAmount.lessThanOrEqualZero()) {
-                            row.setErrorCode(RumErrorCodes.NO_RATE_AMOUNT_PROVIDED);
+                        //PTR10804 - we must stop an update from being sent to the database when the extra day rate is zero and the rate class is not
+                        //daily or weekend. The reason is because in that scenario, the number is used as a divisor and causes an exception which is 
+                        //inconveniently written to the error log and all of the input file's updates are aborted for the location.
+                        if (!isGreaterThanZero(elementValue, ScaledAmount.parse(elementValue)) && !row.getClassTimeCode().equals(DAY_CLASS) && !row.getClassTimeCode().equals(WEEKEND_CLASS)) {
+                            row.setErrorCode(RumErrorCodes.NO_EXTRA_DAY_PROVIDED);
                         }
                     }
                     catch (Exception e) {
-                        row.setErrorCode(RumErrorCodes.INVALID_RATE_AMOUNT);
+                        row.setErrorCode(RumErrorCodes.INVALID_EXDD_AMOUNT);
                     }
-                    break;
+                }
+                break;
 
-                case 12:
-                    // Extra Day
-                    row.setExtraDay(elementValue);
-                    if (elementValue == null || elementValue.length() <= 0) {
-                        row.setErrorCode(RumErrorCodes.NO_EXTRA_DAY_PROVIDED);
-                    }
-                    else {
-                        try {
-                            Decimal exdd = new Decimal(elementValue.trim());
-                            //PTR10804 - we must stop an update from being sent to the database when the extra day rate is zero and the rate class is not
-                            //daily or weekend. The reason is because in that scenario, the number is used as a divisor and causes an exception which is 
-                            //inconveniently written to the error log and all of the input file's updates are aborted for the location.
-                            if (exdd.lessThanOrEqualZero() && !row.getClassTimeCode().equals(DAY_CLASS) && !row.getClassTimeCode().equals(WEEKEND_CLASS)) {
-                                row.setErrorCode(RumErrorCodes.NO_EXTRA_DAY_PROVIDED);
-                            }
-                        }
-                        catch (Exception e) {
-                            row.setErrorCode(RumErrorCodes.INVALID_EXDD_AMOUNT);
+            case 13:
+                //  Extra Hour
+                row.setExtraHour(elementValue);
+                if (elementValue == null || elementValue.length() <= 0) {
+                    row.setErrorCode(RumErrorCodes.NO_EXTRA_HOUR_PROVIDED);
+                }
+                else {
+                    try {
+                        //PTR10804 - we must stop an update from being sent to the database when the extra hour rate is zero. The reason is because
+                        //the number is always used as a divisor and causes an exception which is inconveniently written to the error log and all of
+                        //the input file's updates are aborted for the location.
+                        if (!isGreaterThanZero(elementValue, ScaledAmount.parse(elementValue))) {
+                            row.setErrorCode(RumErrorCodes.NO_EXTRA_HOUR_PROVIDED);
                         }
                     }
-                    break;
-
-                case 13:
-                    //  Extra Hour
-                    row.setExtraHour(elementValue);
-                    if (elementValue == null || elementValue.length() <= 0) {
-                        row.setErrorCode(RumErrorCodes.NO_EXTRA_HOUR_PROVIDED);
-                    }
-                    else {
-                        try {
-                            Decimal exhh = new Decimal(elementValue.trim());
-                            //PTR10804 - we must stop an update from being sent to the database when the extra hour rate is zero. The reason is because
-                            //the number is always used as a divisor and causes an exception which is inconveniently written to the error log and all of
-                            //the input file's updates are aborted for the location.
-                            if (exhh.lessThanOrEqualZero()) {
-                                row.setErrorCode(RumErrorCodes.NO_EXTRA_HOUR_PROVIDED);
-                            }
-                        }
-                        catch (Exception e) {
-                            row.setErrorCode(RumErrorCodes.INVALID_EXHH_AMOUNT);
-                        }
+                    catch (Exception e) {
+                        row.setErrorCode(RumErrorCodes.INVALID_EXHH_AMOUNT);
                     }
-                    break;
-            }
-            
-            // Move to the next field.
-            tokenCount++;
+                }
+                break;
         }
+    }
+
+    /**
+     * Do price checking validation based on region.
+     * @param row
+     * @return UpdateRow
+     */
+    private static UpdateRow checkPrices(UpdateRow row) {
 
         try {
-            // Do price checking validation based on region.
             String region = row.getRegion();
             if (region != null && northAmericanRegions.contains(region.trim())) {
             	// NA region 
-                row = doPriceChecking(row, 
-                        NA_DAY_AND_WEEKEND_MIN_RATE, NA_DAY_AND_WEEKEND_MAX_RATE, 
-                        NA_WEEK_MIN_RATE, NA_WEEK_MAX_RATE,
-                        NA_MONTH_MIN_RATE, NA_MONTH_MAX_RATE);
+                row = doPriceChecking(row, NA_RATE_LIMITS);
             }else if (region == null || !europeanRegions.contains(region.trim())) {
                 // No region or Not European  or NA region
-                row = doPriceChecking(row, 
-                        DEFAULT_DAY_AND_WEEKEND_MIN_RATE, DEFAULT_DAY_AND_WEEKEND_MAX_RATE, 
-                        DEFAULT_WEEK_MIN_RATE, DEFAULT_WEEK_MAX_RATE,
-                        DEFAULT_MONTH_MIN_RATE, DEFAULT_MONTH_MAX_RATE);
+                row = doPriceChecking(row, DEFAULT_RATE_LIMITS);
             }
             else {
                 // European region
-                row = doPriceChecking(row, 
-                        EUROPE_DAY_AND_WEEKEND_MIN_RATE, EUROPE_DAY_AND_WEEKEND_MAX_RATE, 
-                        EUROPE_WEEK_MIN_RATE, EUROPE_WEEK_MAX_RATE, 
-                        EUROPE_MONTH_MIN_RATE, EUROPE_MONTH_MAX_RATE);
+                row = doPriceChecking(row, EUROPE_RATE_LIMITS);
             }
         }
         catch (HertzException e) {
@@ -405,46 +441,49 @@ public class UpdateRowMapper {
      * SR 52946 - Addendum 1 requires that a rate being update must meet minimum and maximum 
      * standards.  This method is doing the checking for rate classification (ie. DY, WE, WK or MO) 
      * with a predetermined min/max value.
+     * The rate parsed in the Rate Amount field is compared as a scaled long; a rate that could not
+     * be scaled is compared as a Decimal, as before.
      * 
      * @param row
-     * @param minDaily
-     * @param maxDaily
-     * @param minWeek
-     * @param maxWeek
-     * @param minMonth
-     * @param maxMonth
+     * @param limits min/max values of the row's region.
      * @return UpdateFileRow
      * @throws HertzException
      */
-    private static UpdateRow doPriceChecking(UpdateRow row, Decimal minDaily, Decimal maxDaily, Decimal minWeek, Decimal maxWeek, Decimal minMonth, Decimal maxMonth)
-            throws HertzException {
+    private static UpdateRow doPriceChecking(UpdateRow row, RateLimits limits) throws HertzException {
 
         if (row != null) {
             if (row.getErrorCode() == null) {
                 String classification = row.getClassTimeCode();
                 if (row.getRate() != null) {
-                    Decimal rate = new Decimal(row.getRate().trim());
+                    int limit = RateLimits.NONE;
                     if (DAY_CLASS.equals(classification) || WEEKEND_CLASS.equals(classification)) {
-                        if (rate.lessThan(minDaily)) {
-                            row.setErrorCode(RumErrorCodes.RATE_DOES_NOT_MEET_MINIMUM_VALUE);
-                        }
-                        else if (rate.greaterThan(maxDaily)) {
-                            row.setErrorCode(RumErrorCodes.RATE_EXCEEDS_MAXIMUM_VALUE);
-                        }
+                        limit = RateLimits.DAY_AND_WEEKEND;
                     }
                     else if (WEEK_CLASS.equals(classification)) {
-                        if (rate.lessThan(minWeek)) {
-                            row.setErrorCode(RumErrorCodes.RATE_DOES_NOT_MEET_MINIMUM_VALUE);
-                        }
-                        else if (rate.greaterThan(maxWeek)) {
-                            row.setErrorCode(RumErrorCodes.RATE_EXCEEDS_MAXIMUM_VALUE);
-                        }
+                        limit = RateLimits.WEEK;
                     }
                     else if (MONTH_CLASS.equals(classification)) {
-                        if (rate.lessThan(minMonth)) {
+                        limit = RateLimits.MONTH;
+                    }
+
+                    if (limit != RateLimits.NONE) {
+                        boolean belowMinimum;
+                        boolean aboveMaximum;
+                        long scaledRate = row.getScaledRate();
+                        if (scaledRate != ScaledAmount.NOT_SCALED) {
+                            belowMinimum = scaledRate < limits.scaledMin[limit];
+                            aboveMaximum = scaledRate > limits.scaledMax[limit];
+                        }
+                        else {
+                            Decimal rate = new Decimal(row.getRate().trim());
+                            belowMinimum = rate.lessThan(limits.min[limit]);
+                            aboveMaximum = rate.greaterThan(limits.max[limit]);
+                        }
+
+                        if (belowMinimum) {
                             row.setErrorCode(RumErrorCodes.RATE_DOES_NOT_MEET_MINIMUM_VALUE);
                         }
-                        else if (rate.greaterThan(maxMonth)) {
+                        else if (aboveMaximum) {
                             row.setErrorCode(RumErrorCodes.RATE_EXCEEDS_MAXIMUM_VALUE);
                         }
                     }
@@ -455,6 +494,72 @@ public class UpdateRowMapper {
         return row;
     }
 
+    /**
+     * Is the amount greater than zero?  Plain decimal text is checked as a ScaledAmount, anything
+     * else through a Decimal, which throws if it is not a number.
+     * @param elementValue
+     * @param amount elementValue parsed by ScaledAmount.
+     * @return
+     * @throws HertzException
+     */
+    private static boolean isGreaterThanZero(String elementValue, long amount) throws HertzException {
+
+        if (amount != ScaledAmount.NOT_SCALED) {
+            return amount > 0L;
+        }
+
+        return !new Decimal(elementValue.trim()).lessThanOrEqualZero();
+    }
+
+    /**
+     * Sequence numbers of this request.  The clock is read for the first row only.
+     * @param count
+     * @return
+     */
+    private SequenceNumberGenerator getSequenceNumbers(int count) {
+
+        if (sequenceNumbers == null) {
+            int time = 0;
+            try {
+                time = HertzDateTime.getCurrentDateTime().getTimeAsInt(true);
+            }
+            catch (HertzException e) {
+                time = DEFAULT_SEQ_NUMBER;
+            }
+            sequenceNumbers = new SequenceNumberGenerator(time, count);
+        }
+
+        return sequenceNumbers;
+    }
+
+    /**
+     * Parse a Start or End Date, from the memo if the same text was seen before in this request.
+     * A request holds thousands of rows but only a few dozen dates, so each is parsed once.
+     * @param value
+     * @return
+     */
+    private ParsedDate parseDate(String value) {
+
+        ParsedDate parsedDate = dateMemo.get(value);
+        if (parsedDate != null) {
+            return parsedDate;
+        }
+
+        try {
+            HertzDateTime dateTime = new HertzDateTime(value, HertzDateTime.DATE_FORMAT);
+            parsedDate = new ParsedDate(dateTime, doDateCheck(dateTime));
+        }
+        catch (Exception e) {
+            parsedDate = ParsedDate.UNPARSEABLE;
+        }
+
+        if (dateMemo.size() < MAX_MEMO_DATES) {
+            dateMemo.put(value, parsedDate);
+        }
+
+        return parsedDate;
+    }
+
     /**
      * Perform sanity checks on a HertzDateTime.
      * @param dateTime
@@ -478,6 +583,60 @@ public class UpdateRowMapper {
 
         return true;
     }
+
+    /**
+     * A date as parsed from its text.  The HertzDateTime is shared by all the rows with that text;
+     * it is only ever read.
+     */
+    private static final class ParsedDate {
+
+        private final static ParsedDate UNPARSEABLE = new ParsedDate(null, false);
+
+        /** Parsed date, or null if the text is not a date. */
+        private final HertzDateTime dateTime;
+        /** Hertz system date of the date, or 0 if the text is not a date. */
+        private final int systemDate;
+        /** Parsed and passed doDateCheck. */
+        private final boolean valid;
+
+        private ParsedDate(HertzDateTime dateTime, boolean valid) {
+
+            this.dateTime = dateTime;
+            this.systemDate = (dateTime != null) ? dateTime.getHertzSystemDate() : 0;
+            this.valid = valid;
+        }
+    }
+
+    /**
+     * Rate min/max values of a region, by rate classification, as Decimals and as scaled amounts.
+     */
+    private static final class RateLimits {
+
+        private final static int NONE = -1;
+        private final static int DAY_AND_WEEKEND = 0;
+        private final static int WEEK = 1;
+        private final static int MONTH = 2;
+
+        private final Decimal[] min = new Decimal[3];
+        private final Decimal[] max = new Decimal[3];
+        private final long[] scaledMin = new long[3];
+        private final long[] scaledMax = new long[3];
+
+        private RateLimits(String minDaily, String maxDaily, String minWeek, String maxWeek, String minMonth, String maxMonth) throws HertzException {
+
+            set(DAY_AND_WEEKEND, minDaily, maxDaily);
+            set(WEEK, minWeek, maxWeek);
+            set(MONTH, minMonth, maxMonth);
+        }
+
+        private void set(int limit, String minValue, String maxValue) throws HertzException {
+
+            min[limit] = new Decimal(minValue);
+            max[limit] = new Decimal(maxValue);
+            scaledMin[limit] = ScaledAmount.of(minValue);
+            scaledMax[limit] = ScaledAmount.of(maxValue);
+        }
+    }
 }
 
 /*
@@ -0,0 +1,179 @@
+package com.hertz.api.corebusiness;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+class AreaLocationsToPlaceIdCodeListTest {
+
+    private final static long HOUR = 60L * 60L * 1000L;
+
+    @Test
+    void addedLocationIsFound() {
+
+        AreaLocationsToPlaceIdCodeList cache = new AreaLocationsToPlaceIdCodeList(10, HOUR, HOUR, "1403");
+        RumLocationInfo info = place("0100001");
+
+        cache.addLocation(info);
+
+        assertTrue(cache.isLocationInList("0100001"));
+        assertSame(info, cache.getRumLocationInfo("0100001"));
+        assertNull(cache.getRumLocationInfo("0100002"));
+    }
+
+    @Test
+    void expiredLocationIsReadAgain() throws InterruptedException {
+
+        AreaLocationsToPlaceIdCodeList cache = new AreaLocationsToPlaceIdCodeList(10, 1L, HOUR, "1403");
+
+        cache.addLocation(place("0100001"));
+        Thread.sleep(10L);
+
+        assertFalse(cache.isLocationInList("0100001"));
+    }
+
+    @Test
+    void liveEntryIsKept() {
+
+        AreaLocationsToPlaceIdCodeList cache = new AreaLocationsToPlaceIdCodeList(10, HOUR, HOUR, "1403");
+        RumLocationInfo first = place("0100001");
+
+        cache.addLocation(first);
+        cache.addLocation(place("0100001"));
+
+        assertSame(first, cache.getRumLocationInfo("0100001"));
+    }
+
+    @Test
+    void fullCacheMakesRoom() {
+
+        AreaLocationsToPlaceIdCodeList cache = new AreaLocationsToPlaceIdCodeList(10, HOUR, HOUR, "1403");
+
+        for (int i = 0; i < 25; i++) {
+            cache.addLocation(place("01000" + (10 + i)));
+        }
+
+        assertTrue(cache.getLocations().size() <= 10);
+        assertTrue(cache.isLocationInList("0100034"));
+    }
+
+    @Test
+    void concurrentMissesShareOneLookup() {
+
+        AreaLocationsToPlaceIdCodeList cache = new AreaLocationsToPlaceIdCodeList(10, HOUR, HOUR, "1403");
+        CompletableFuture<RumLocationInfo> owned = new CompletableFuture<RumLocationInfo>();
+        CompletableFuture<RumLocationInfo> other = new CompletableFuture<RumLocationInfo>();
+
+        assertSame(owned, cache.joinLookup("0100001", owned));
+        assertSame(owned, cache.joinLookup("0100001", other));
+
+        RumLocationInfo info = place("0100001");
+        cache.completeLookup("0100001", owned, info);
+
+        assertSame(info, owned.join());
+        assertSame(info, cache.getRumLocationInfo("0100001"));
+
+        // Later misses find the cached entry, not the finished lookup.
+        CompletableFuture<RumLocationInfo> later = new CompletableFuture<RumLocationInfo>();
+        assertSame(later, cache.joinLookup("0100001", later));
+        assertSame(info, later.join());
+    }
+
+    @Test
+    void failedLookupIsPassedOnAndNotCached() {
+
+        AreaLocationsToPlaceIdCodeList cache = new AreaLocationsToPlaceIdCodeList(10, HOUR, HOUR, "1403");
+        CompletableFuture<RumLocationInfo> owned = new CompletableFuture<RumLocationInfo>();
+
+        cache.joinLookup("0100001", owned);
+        CompletableFuture<RumLocationInfo> waiter = cache.joinLookup("0100001", new CompletableFuture<RumLocationInfo>());
+        cache.failLookup("0100001", owned, new SQLException("closed", "08003", 17008));
+
+        assertTrue(waiter.isCompletedExceptionally());
+        assertFalse(cache.isLocationInList("0100001"));
+
+        CompletableFuture<RumLocationInfo> retry = new CompletableFuture<RumLocationInfo>();
+        assertSame(retry, cache.joinLookup("0100001", retry));
+        assertFalse(retry.isDone());
+    }
+
+    @Test
+    void unknownLocationIsCachedAsNegativeEntry() {
+
+        AreaLocationsToPlaceIdCodeList cache = new AreaLocationsToPlaceIdCodeList(10, HOUR, HOUR, "1403");
+        CompletableFuture<RumLocationInfo> lookup = new CompletableFuture<RumLocationInfo>();
+        RumLocationInfo notFound = new RumLocationInfo("0100001", null, null, null);
+
+        cache.joinLookup("0100001", lookup);
+        cache.completeLookup("0100001", lookup, notFound);
+
+        assertSame(notFound, cache.getRumLocationInfo("0100001"));
+    }
+
+    @Test
+    void notFoundErrorCodeIsCachedAsNegativeEntry() {
+
+        AreaLocationsToPlaceIdCodeList cache = new AreaLocationsToPlaceIdCodeList(10, HOUR, HOUR, "1403, 20001");
+        RumLocationInfo noData = new RumLocationInfo("0100001", null, null, new SQLException("no data found", "02000", 1403));
+        RumLocationInfo userError = new RumLocationInfo("0100002", null, null, new Exception(new SQLException("no place", "72000", 20001)));
+
+        assertTrue(cache.isNotFound(noData));
+        assertTrue(cache.isNotFound(userError));
+
+        CompletableFuture<RumLocationInfo> lookup = new CompletableFuture<RumLocationInfo>();
+        cache.joinLookup("0100001", lookup);
+        cache.completeLookup("0100001", lookup, noData);
+
+        assertTrue(cache.isLocationInList("0100001"));
+    }
+
+    @Test
+    void transientFailureIsNotCached() {
+
+        AreaLocationsToPlaceIdCodeList cache = new AreaLocationsToPlaceIdCodeList(10, HOUR, HOUR, "1403");
+        RumLocationInfo timedOut = new RumLocationInfo("0100001", null, null, new SQLException("timeout", "72000", 1013));
+        CompletableFuture<RumLocationInfo> lookup = new CompletableFuture<RumLocationInfo>();
+
+        assertFalse(cache.isNotFound(timedOut));
+
+        cache.joinLookup("0100001", lookup);
+        cache.completeLookup("0100001", lookup, timedOut);
+
+        assertSame(timedOut, lookup.join());
+        assertFalse(cache.isLocationInList("0100001"));
+    }
+
+    @Test
+    void negativeEntriesCanBeTurnedOff() {
+
+        AreaLocationsToPlaceIdCodeList cache = new AreaLocationsToPlaceIdCodeList(10, HOUR, 0L, "1403");
+
+        cache.addNotFoundLocation(new RumLocationInfo("0100001", null, null, null));
+
+        assertFalse(cache.isLocationInList("0100001"));
+    }
+
+    @Test
+    void negativeEntryExpiresOnItsOwnTtl() throws InterruptedException {
+
+        AreaLocationsToPlaceIdCodeList cache = new AreaLocationsToPlaceIdCodeList(10, HOUR, 1L, "1403");
+
+        cache.addNotFoundLocation(new RumLocationInfo("0100001", null, null, null));
+        cache.addLocation(place("0100002"));
+        Thread.sleep(10L);
+
+        assertFalse(cache.isLocationInList("0100001"));
+        assertTrue(cache.isLocationInList("0100002"));
+    }
+
+    private static RumLocationInfo place(String areaLocation) {
+
+        return new RumLocationInfo(areaLocation, "P" + areaLocation, "1", null);
+    }
+}
@@ -0,0 +1,166 @@
+package com.hertz.api.corebusiness;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.hertz.rates.common.utils.HertzDateTime;
+import com.hertz.rates.common.utils.HertzException;
+
+class RumUpdateGroupTest {
+
+    private HertzDateTime today;
+    private int todayDate;
+
+    @BeforeEach
+    void setUp() throws HertzException {
+
+        today = HertzDateTime.getCurrentDateTime();
+        todayDate = today.getHertzSystemDate();
+    }
+
+    @Test
+    void splitCutsChangesInListOrder() {
+
+        RumUpdateGroup group = newGroup("A", "B", "A", "C", "B");
+
+        ArrayList<RumUpdateGroup> chunks = group.splitIntoChunks(2, false);
+
+        assertEquals(3, chunks.size());
+        assertVehicles(chunks.get(0), "A", "B");
+        assertVehicles(chunks.get(1), "A", "C");
+        assertVehicles(chunks.get(2), "B");
+    }
+
+    @Test
+    void splitByVehicleKeepsEachVehicleInOneChunk() {
+
+        RumUpdateGroup group = newGroup("A", "B", "A", "C", "B", "D");
+
+        ArrayList<RumUpdateGroup> chunks = group.splitIntoChunks(4, true);
+
+        assertEquals(2, chunks.size());
+        assertVehicles(chunks.get(0), "A", "A", "B", "B");
+        assertVehicles(chunks.get(1), "C", "D");
+    }
+
+    @Test
+    void splitByVehicleGivesALargeVehicleItsOwnChunk() {
+
+        RumUpdateGroup group = newGroup("A", "B", "B", "B", "C");
+
+        ArrayList<RumUpdateGroup> chunks = group.splitIntoChunks(2, true);
+
+        assertEquals(3, chunks.size());
+        assertVehicles(chunks.get(0), "A");
+        assertVehicles(chunks.get(1), "B", "B", "B");
+        assertVehicles(chunks.get(2), "C");
+    }
+
+    @Test
+    void chunksShareTheGroupsChanges() {
+
+        RumUpdateGroup group = newGroup("A", "B", "C");
+
+        ArrayList<RumUpdateGroup> chunks = group.splitIntoChunks(2, false);
+
+        assertFalse(group.isChunk());
+        assertNull(group.getChunkOf());
+        for (int i = 0; i < chunks.size(); i++) {
+            RumUpdateGroup chunk = chunks.get(i);
+            assertTrue(chunk.isChunk());
+            assertSame(group, chunk.getChunkOf());
+            assertEquals(group.getPlaceIdCdToUse(), chunk.getPlaceIdCdToUse());
+            assertEquals(group.getPlanId(), chunk.getPlanId());
+            assertEquals(group.getClassTimeCode(), chunk.getClassTimeCode());
+        }
+        assertSame(group.getChangeDetails().get(0), chunks.get(0).getChangeDetails().get(0));
+        assertSame(group.getChangeDetails().get(2), chunks.get(1).getChangeDetails().get(0));
+    }
+
+    @Test
+    void indexFindsChangeByVehicleAndDates() {
+
+        RumUpdateGroup group = newGroup("A", "B");
+
+        assertSame(group.getChangeDetails().get(1), group.getRumChangeDetailByLOKandVehicle("B", todayDate, todayDate));
+        assertNull(group.getRumChangeDetailByLOKandVehicle("C", todayDate, todayDate));
+        assertNull(group.getRumChangeDetailByLOKandVehicle("B", todayDate, todayDate + 1));
+    }
+
+    @Test
+    void indexSkipsAnsweredChanges() {
+
+        RumUpdateGroup group = newGroup("A", "A");
+        RumChangeDetails first = group.getChangeDetails().get(0);
+        RumChangeDetails second = group.getChangeDetails().get(1);
+
+        assertSame(first, group.getRumChangeDetailByLOKandVehicle("A", todayDate, todayDate));
+
+        first.setResponseMessage("OK");
+        assertSame(second, group.getRumChangeDetailByLOKandVehicle("A", todayDate, todayDate));
+
+        second.setResponseMessage("OK");
+        assertNull(group.getRumChangeDetailByLOKandVehicle("A", todayDate, todayDate));
+    }
+
+    @Test
+    void indexIsRebuiltWhenChangesAreAdded() {
+
+        RumUpdateGroup group = newGroup("A");
+
+        assertNull(group.getRumChangeDetailByLOKandVehicle("B", todayDate, todayDate));
+
+        RumChangeDetails added = newDetails("B");
+        group.addChangeDetail(added);
+        assertSame(added, group.getRumChangeDetailByLOKandVehicle("B", todayDate, todayDate));
+    }
+
+    @Test
+    void indexSkipsChangesWithoutDates() {
+
+        RumUpdateGroup group = newGroup("A");
+        RumChangeDetails undated = new RumChangeDetails();
+        undated.setVehicle("B");
+        group.addChangeDetail(undated);
+
+        assertNull(group.getRumChangeDetailByLOKandVehicle("B", todayDate, todayDate));
+        assertSame(group.getChangeDetails().get(0), group.getRumChangeDetailByLOKandVehicle("A", todayDate, todayDate));
+    }
+
+    private RumUpdateGroup newGroup(String... vehicles) {
+
+        RumUpdateGroup group = new RumUpdateGroup(null);
+        group.setPlaceIdCd("PLACE");
+        group.setPlanId("PLAN");
+        group.setClassTimeCode("DY");
+        for (int i = 0; i < vehicles.length; i++) {
+            group.addChangeDetail(newDetails(vehicles[i]));
+        }
+        return group;
+    }
+
+    private RumChangeDetails newDetails(String vehicle) {
+
+        RumChangeDetails details = new RumChangeDetails();
+        details.setVehicle(vehicle);
+        details.setStartDate(today);
+        details.setEndDate(today);
+        return details;
+    }
+
+    private static void assertVehicles(RumUpdateGroup chunk, String... vehicles) {
+
+        assertEquals(vehicles.length, chunk.getChangeDetails().size());
+        for (int i = 0; i < vehicles.length; i++) {
+            assertEquals(vehicles[i], chunk.getChangeDetails().get(i).getVehicle());
+        }
+    }
+}
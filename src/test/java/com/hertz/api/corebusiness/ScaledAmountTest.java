@@ -0,0 +1,55 @@
+package com.hertz.api.corebusiness;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigDecimal;
+
+import org.junit.jupiter.api.Test;
+
+import com.hertz.rates.common.utils.Decimal;
+
+/**
+ * A scaled amount must hold exactly the value a Decimal reads from the same text, or be NOT_SCALED.
+ */
+class ScaledAmountTest {
+
+    @Test
+    void parsesPlainDecimalTextExactly() throws Exception {
+
+        String[] values = { "0", "1", "200.00", "45.5", "0.0001", "9999.9999", "-1", "+12.5", "  6.00 ", ".5", "5.", "000123.4500", "999999.00" };
+
+        for (int i = 0; i < values.length; i++) {
+            long expected = new BigDecimal(values[i].trim()).movePointRight(ScaledAmount.SCALE).longValueExact();
+            assertEquals(expected, ScaledAmount.parse(values[i]), values[i]);
+        }
+    }
+
+    @Test
+    void agreesWithDecimalOnSign() throws Exception {
+
+        String[] values = { "0", "0.00", "-0.0001", "0.0001", "-5", "10000.00" };
+
+        for (int i = 0; i < values.length; i++) {
+            boolean decimalNotPositive = new Decimal(values[i]).lessThanOrEqualZero();
+            assertEquals(decimalNotPositive, ScaledAmount.parse(values[i]) <= 0L, values[i]);
+        }
+    }
+
+    @Test
+    void textThatCannotBeHeldExactlyIsNotScaled() {
+
+        String[] values = { null, "", " ", "-", ".", "abc", "1.2.3", "1,00", "1e3", "0.00001", "12 34", "99999999999999999999" };
+
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(ScaledAmount.NOT_SCALED, ScaledAmount.parse(values[i]), String.valueOf(values[i]));
+        }
+    }
+
+    @Test
+    void ofRejectsTextThatIsNotScaled() {
+
+        assertEquals(6L * ScaledAmount.ONE, ScaledAmount.of("6.00"));
+        assertThrows(IllegalArgumentException.class, () -> ScaledAmount.of("1e3"));
+    }
+}
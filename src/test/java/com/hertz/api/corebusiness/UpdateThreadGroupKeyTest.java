@@ -0,0 +1,156 @@
+package com.hertz.api.corebusiness;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * A thread released while it waits for its Place/Plan key must never leave the key held.
+ */
+class UpdateThreadGroupKeyTest {
+
+    @Test
+    void keyIsPassedOnWhenQueuedThreadIsReleased() {
+
+        String place = "KEYQ01";
+        UpdateThread holder = newThread(place);
+        UpdateThread released = newThread(place);
+        Admit admitReleased = new Admit();
+
+        assertTrue(holder.acquireGroupKey(new Admit()));
+        assertFalse(released.acquireGroupKey(admitReleased));
+
+        released.releaseGroupKey();
+        holder.releaseGroupKey();
+
+        assertEquals(0, admitReleased.runs);
+        assertTrue(newThread(place).acquireGroupKey(new Admit()));
+    }
+
+    @Test
+    void nextWaiterStartsWhenQueuedThreadIsReleased() {
+
+        String place = "KEYQ02";
+        UpdateThread holder = newThread(place);
+        UpdateThread released = newThread(place);
+        UpdateThread next = newThread(place);
+        Admit admitReleased = new Admit();
+        Admit admitNext = new Admit();
+
+        holder.acquireGroupKey(new Admit());
+        released.acquireGroupKey(admitReleased);
+        next.acquireGroupKey(admitNext);
+
+        released.releaseGroupKey();
+        holder.releaseGroupKey();
+
+        assertEquals(0, admitReleased.runs);
+        assertEquals(1, admitNext.runs);
+
+        next.releaseGroupKey();
+        assertTrue(newThread(place).acquireGroupKey(new Admit()));
+    }
+
+    @Test
+    void keyIsGivenBackOnlyOnce() {
+
+        String place = "KEYQ03";
+        UpdateThread holder = newThread(place);
+        UpdateThread next = newThread(place);
+        Admit admitNext = new Admit();
+
+        holder.acquireGroupKey(new Admit());
+        next.acquireGroupKey(admitNext);
+
+        holder.releaseGroupKey();
+        assertEquals(1, admitNext.runs);
+
+        // A second release must not take the key from the thread that now holds it.
+        holder.releaseGroupKey();
+        assertFalse(newThread(place).acquireGroupKey(new Admit()));
+    }
+
+    @Test
+    void sharedKeyIsPassedOnWhenEveryQueuedChunkIsReleased() {
+
+        String place = "KEYQ04";
+        UpdateThread holder = newThread(place);
+        ArrayList<UpdateThread> chunks = new ArrayList<UpdateThread>();
+        chunks.add(newThread(place));
+        chunks.add(newThread(place));
+        UpdateThread.shareGroupKey(chunks);
+        Admit admitChunk = new Admit();
+
+        holder.acquireGroupKey(new Admit());
+        assertFalse(chunks.get(0).acquireGroupKey(admitChunk));
+        assertFalse(chunks.get(1).acquireGroupKey(admitChunk));
+
+        chunks.get(0).releaseGroupKey();
+        chunks.get(1).releaseGroupKey();
+        holder.releaseGroupKey();
+
+        assertEquals(0, admitChunk.runs);
+        assertTrue(newThread(place).acquireGroupKey(new Admit()));
+    }
+
+    @Test
+    void keyHandedToReleasedThreadIsGivenBack() {
+
+        String place = "KEYQ05";
+        UpdateThread holder = newThread(place);
+        final ArrayList<UpdateThread> chunks = new ArrayList<UpdateThread>();
+        chunks.add(newThread(place));
+        chunks.add(newThread(place));
+        UpdateThread.shareGroupKey(chunks);
+        Admit admitSecond = new Admit();
+
+        holder.acquireGroupKey(new Admit());
+        // The first chunk to start releases the second while the key is being handed to both,
+        // so the second finds it can no longer leave the queue.
+        chunks.get(0).acquireGroupKey(new Runnable() {
+            public void run() {
+                chunks.get(1).releaseGroupKey();
+            }
+        });
+        chunks.get(1).acquireGroupKey(admitSecond);
+
+        holder.releaseGroupKey();
+        assertEquals(0, admitSecond.runs);
+
+        UpdateThread next = newThread(place);
+        Admit admitNext = new Admit();
+        assertFalse(next.acquireGroupKey(admitNext));
+
+        // Only the first chunk still holds the key.
+        chunks.get(0).releaseGroupKey();
+        assertEquals(1, admitNext.runs);
+
+        next.releaseGroupKey();
+        assertTrue(newThread(place).acquireGroupKey(new Admit()));
+    }
+
+    private static UpdateThread newThread(String place) {
+
+        RumUpdateGroup group = new RumUpdateGroup(null);
+        group.setPlaceIdCd(place);
+        group.setPlanId("PLAN");
+        group.setClassTimeCode("DY");
+
+        return new UpdateThread(1L, group, null, "TRN", 0L, 0L);
+    }
+
+    /** Counts the times the thread was admitted. */
+    private static class Admit implements Runnable {
+
+        private int runs = 0;
+
+        public void run() {
+
+            runs++;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.hertz.api.corebusiness.execution;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+class AimdConcurrencyLimitTest {
+
+    @Test
+    void startsAtTheCeiling() {
+
+        AimdConcurrencyLimit limit = new AimdConcurrencyLimit("test", 2, 10, 0.5, 2.0, 0L);
+
+        assertEquals(10, limit.getLimit());
+        assertEquals(10, limit.getMaximum());
+    }
+
+    @Test
+    void lockedRowsCutTheLimit() {
+
+        AimdConcurrencyLimit limit = new AimdConcurrencyLimit("test", 2, 10, 0.5, 2.0, 0L);
+
+        limit.onSample(10L, 1, true, false);
+
+        assertEquals(5, limit.getLimit());
+    }
+
+    @Test
+    void timedOutCallCutsTheLimit() {
+
+        AimdConcurrencyLimit limit = new AimdConcurrencyLimit("test", 2, 10, 0.5, 2.0, 0L);
+
+        limit.onSample(10L, 1, false, true);
+
+        assertEquals(5, limit.getLimit());
+    }
+
+    @Test
+    void slowCallsCutTheLimit() {
+
+        AimdConcurrencyLimit limit = new AimdConcurrencyLimit("test", 2, 10, 0.5, 2.0, 0L);
+
+        limit.onSample(10L, 1, false, false);
+        assertEquals(10, limit.getLimit());
+
+        for (int i = 0; i < 5; i++) {
+            limit.onSample(200L, 1, false, false);
+        }
+
+        assertEquals(2, limit.getLimit());
+    }
+
+    @Test
+    void latencyIsMeasuredPerRow() {
+
+        AimdConcurrencyLimit limit = new AimdConcurrencyLimit("test", 2, 10, 0.5, 2.0, 0L);
+
+        limit.onSample(10L, 1, false, false);
+        for (int i = 0; i < 5; i++) {
+            // A group of 100 rows at the same cost per row is not a slow database.
+            limit.onSample(1000L, 100, false, false);
+        }
+
+        assertEquals(10, limit.getLimit());
+    }
+
+    @Test
+    void limitNeverGoesBelowTheFloor() {
+
+        AimdConcurrencyLimit limit = new AimdConcurrencyLimit("test", 3, 10, 0.5, 2.0, 0L);
+
+        for (int i = 0; i < 10; i++) {
+            limit.onSample(10L, 1, true, false);
+        }
+
+        assertEquals(3, limit.getLimit());
+    }
+
+    @Test
+    void limitIsCutOnlyOncePerCooldown() {
+
+        AimdConcurrencyLimit limit = new AimdConcurrencyLimit("test", 1, 10, 0.5, 2.0, 60000L);
+
+        limit.onSample(10L, 1, true, false);
+        limit.onSample(10L, 1, true, false);
+        limit.onSample(10L, 1, false, true);
+
+        assertEquals(5, limit.getLimit());
+    }
+
+    @Test
+    void healthyCallsRaiseTheLimitBackToTheCeiling() {
+
+        AimdConcurrencyLimit limit = new AimdConcurrencyLimit("test", 2, 10, 0.5, 2.0, 0L);
+
+        limit.onSample(10L, 1, true, false);
+        assertEquals(5, limit.getLimit());
+
+        // About one more per round of calls.
+        for (int i = 0; i < 6; i++) {
+            limit.onSample(10L, 1, false, false);
+        }
+        assertEquals(6, limit.getLimit());
+
+        for (int i = 0; i < 100; i++) {
+            limit.onSample(10L, 1, false, false);
+        }
+        assertEquals(10, limit.getLimit());
+    }
+}
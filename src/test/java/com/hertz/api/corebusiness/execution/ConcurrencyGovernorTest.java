@@ -0,0 +1,326 @@
+package com.hertz.api.corebusiness.execution;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.jupiter.api.Test;
+
+class ConcurrencyGovernorTest {
+
+    @Test
+    void admitStartsTicketsWithinTheLimitAndQueuesTheRest() {
+
+        RecordingEngine engine = new RecordingEngine();
+        ConcurrencyGovernor governor = new ConcurrencyGovernor("test", new FixedConcurrencyLimit(2), engine, null);
+
+        List<ConcurrencyGovernor.Ticket> tickets = newTickets(governor, 3);
+        assertEquals(3, governor.admit(tickets));
+
+        assertEquals(2, engine.submitted.size());
+        assertSame(tickets.get(0), engine.submitted.get(0));
+        assertSame(tickets.get(1), engine.submitted.get(1));
+        assertEquals(2, governor.getInUse());
+        assertEquals(1, governor.getWaiting());
+    }
+
+    @Test
+    void finishedTicketStartsTheNextWaiter() {
+
+        RecordingEngine engine = new RecordingEngine();
+        ConcurrencyGovernor governor = new ConcurrencyGovernor("test", new FixedConcurrencyLimit(1), engine, null);
+
+        List<ConcurrencyGovernor.Ticket> tickets = newTickets(governor, 3);
+        governor.admit(tickets);
+        assertEquals(1, engine.submitted.size());
+
+        engine.submitted.get(0).run();
+        assertEquals(2, engine.submitted.size());
+        assertSame(tickets.get(1), engine.submitted.get(1));
+        assertEquals(1, governor.getInUse());
+        assertEquals(1, governor.getWaiting());
+
+        engine.submitted.get(1).run();
+        engine.submitted.get(2).run();
+        assertEquals(0, governor.getInUse());
+        assertEquals(0, governor.getWaiting());
+    }
+
+    @Test
+    void laterAdmitWaitsBehindEarlierWaiters() {
+
+        RecordingEngine engine = new RecordingEngine();
+        ConcurrencyGovernor governor = new ConcurrencyGovernor("test", new FixedConcurrencyLimit(1), engine, null);
+
+        List<ConcurrencyGovernor.Ticket> first = newTickets(governor, 2);
+        governor.admit(first);
+        ConcurrencyGovernor.Ticket later = governor.admit(new CountingTask());
+
+        engine.submitted.get(0).run();
+        assertSame(first.get(1), engine.submitted.get(1));
+
+        engine.submitted.get(1).run();
+        assertSame(later, engine.submitted.get(2));
+    }
+
+    @Test
+    void admitSkipsTicketsAlreadyAdmittedOrReleased() {
+
+        RecordingEngine engine = new RecordingEngine();
+        ConcurrencyGovernor governor = new ConcurrencyGovernor("test", new FixedConcurrencyLimit(1), engine, null);
+
+        List<ConcurrencyGovernor.Ticket> released = newTickets(governor, 1);
+        assertTrue(released.get(0).release());
+        assertEquals(0, governor.admit(released));
+        assertEquals(0, engine.submitted.size());
+
+        List<ConcurrencyGovernor.Ticket> tickets = newTickets(governor, 2);
+        assertEquals(2, governor.admit(tickets));
+        assertEquals(0, governor.admit(tickets));
+        assertEquals(1, engine.submitted.size());
+        assertEquals(1, governor.getWaiting());
+    }
+
+    @Test
+    void ticketIsReleasedOnlyOnce() {
+
+        RecordingEngine engine = new RecordingEngine();
+        ConcurrencyGovernor governor = new ConcurrencyGovernor("test", new FixedConcurrencyLimit(2), engine, null);
+
+        ConcurrencyGovernor.Ticket ticket = governor.admit(new CountingTask());
+        governor.admit(new CountingTask());
+        assertEquals(2, governor.getInUse());
+
+        assertTrue(ticket.release());
+        assertFalse(ticket.release());
+        assertEquals(1, governor.getInUse());
+
+        // The task finishing after a monitor released it does not give the permit back again.
+        ticket.run();
+        assertEquals(1, governor.getInUse());
+    }
+
+    @Test
+    void releasedWaitingTicketIsNeverStarted() {
+
+        RecordingEngine engine = new RecordingEngine();
+        ConcurrencyGovernor governor = new ConcurrencyGovernor("test", new FixedConcurrencyLimit(1), engine, null);
+
+        List<ConcurrencyGovernor.Ticket> tickets = newTickets(governor, 3);
+        governor.admit(tickets);
+
+        assertTrue(tickets.get(1).release());
+        assertEquals(1, governor.getWaiting());
+
+        engine.submitted.get(0).run();
+        assertEquals(2, engine.submitted.size());
+        assertSame(tickets.get(2), engine.submitted.get(1));
+    }
+
+    @Test
+    void releasedWaitersDoNotHoldBackLaterAdmits() {
+
+        RecordingEngine engine = new RecordingEngine();
+        ConcurrencyGovernor governor = new ConcurrencyGovernor("test", new FixedConcurrencyLimit(1), engine, null);
+
+        List<ConcurrencyGovernor.Ticket> tickets = newTickets(governor, 3);
+        governor.admit(tickets);
+        assertTrue(tickets.get(1).release());
+        assertTrue(tickets.get(2).release());
+        assertEquals(0, governor.getWaiting());
+
+        engine.submitted.get(0).run();
+        assertEquals(0, governor.getInUse());
+
+        ConcurrencyGovernor.Ticket later = governor.admit(new CountingTask());
+        assertEquals(2, engine.submitted.size());
+        assertSame(later, engine.submitted.get(1));
+        assertEquals(1, governor.getInUse());
+    }
+
+    @Test
+    void raisedLimitStartsWaitersAtOnce() {
+
+        RecordingEngine engine = new RecordingEngine();
+        SettableLimit limit = new SettableLimit(1);
+        ConcurrencyGovernor governor = new ConcurrencyGovernor("test", limit, engine, null);
+
+        ArrayList<ConcurrencyGovernor.Ticket> tickets = new ArrayList<ConcurrencyGovernor.Ticket>();
+        tickets.add(governor.newTicket(new SampleTask()));
+        tickets.add(governor.newTicket(new CountingTask()));
+        tickets.add(governor.newTicket(new CountingTask()));
+        tickets.add(governor.newTicket(new CountingTask()));
+        governor.admit(tickets);
+        assertEquals(1, engine.submitted.size());
+
+        limit.nextLimit = 3;
+        engine.submitted.get(0).run();
+
+        assertEquals(1, limit.samples);
+        assertEquals(3, governor.getLimit());
+        assertEquals(4, engine.submitted.size());
+        assertEquals(3, governor.getInUse());
+        assertEquals(0, governor.getWaiting());
+    }
+
+    @Test
+    void loweredLimitTakesEffectAsTasksFinish() {
+
+        RecordingEngine engine = new RecordingEngine();
+        SettableLimit limit = new SettableLimit(2);
+        ConcurrencyGovernor governor = new ConcurrencyGovernor("test", limit, engine, null);
+
+        ArrayList<ConcurrencyGovernor.Ticket> tickets = new ArrayList<ConcurrencyGovernor.Ticket>();
+        tickets.add(governor.newTicket(new SampleTask()));
+        tickets.add(governor.newTicket(new CountingTask()));
+        tickets.add(governor.newTicket(new CountingTask()));
+        governor.admit(tickets);
+        assertEquals(2, governor.getInUse());
+
+        limit.nextLimit = 1;
+        engine.submitted.get(0).run();
+
+        // One task is still running: the waiter must wait for it.
+        assertEquals(1, governor.getLimit());
+        assertEquals(1, governor.getInUse());
+        assertEquals(1, governor.getWaiting());
+
+        engine.submitted.get(1).run();
+        assertEquals(3, engine.submitted.size());
+        assertEquals(1, governor.getInUse());
+    }
+
+    @Test
+    void rejectedTicketGivesBackItsPermit() {
+
+        RecordingEngine engine = new RecordingEngine();
+        engine.reject = true;
+        final ArrayList<Runnable> rejected = new ArrayList<Runnable>();
+        ConcurrencyGovernor governor = new ConcurrencyGovernor("test", new FixedConcurrencyLimit(1), engine, new ConcurrencyGovernor.RejectionHandler() {
+            public void rejected(Runnable task, RejectedExecutionException e) {
+                rejected.add(task);
+            }
+        });
+
+        CountingTask task = new CountingTask();
+        governor.admit(task);
+
+        assertEquals(1, rejected.size());
+        assertSame(task, rejected.get(0));
+        assertEquals(0, governor.getInUse());
+        assertEquals(0, task.runs);
+    }
+
+    private static List<ConcurrencyGovernor.Ticket> newTickets(ConcurrencyGovernor governor, int count) {
+
+        ArrayList<ConcurrencyGovernor.Ticket> tickets = new ArrayList<ConcurrencyGovernor.Ticket>();
+        for (int i = 0; i < count; i++) {
+            tickets.add(governor.newTicket(new CountingTask()));
+        }
+        return tickets;
+    }
+
+    /** Keeps submitted tasks so the test decides when they run. */
+    private static class RecordingEngine implements UpdateExecutionEngine {
+
+        private final ArrayList<Runnable> submitted = new ArrayList<Runnable>();
+        private boolean reject = false;
+
+        public Future<?> submit(Runnable task) {
+
+            if (reject) {
+                throw new RejectedExecutionException("test");
+            }
+            submitted.add(task);
+            return null;
+        }
+
+        public String getName() {
+
+            return "recording";
+        }
+
+        public void shutdown() {
+
+        }
+    }
+
+    private static class CountingTask implements Runnable {
+
+        private int runs = 0;
+
+        public void run() {
+
+            runs++;
+        }
+    }
+
+    /** A finished call that reports a sample. */
+    private static class SampleTask implements Runnable, ConcurrencySample {
+
+        public void run() {
+
+        }
+
+        public boolean hasSample() {
+
+            return true;
+        }
+
+        public long getCallDurationInMillis() {
+
+            return 10L;
+        }
+
+        public int getCallRows() {
+
+            return 1;
+        }
+
+        public boolean hasLockedResult() {
+
+            return false;
+        }
+
+        public boolean hasTimedOutResult() {
+
+            return false;
+        }
+    }
+
+    /** Moves to nextLimit on the next sample. */
+    private static class SettableLimit implements ConcurrencyLimit {
+
+        private int limit;
+        private int nextLimit;
+        private int samples = 0;
+
+        private SettableLimit(int limit) {
+
+            this.limit = limit;
+            this.nextLimit = limit;
+        }
+
+        public int getLimit() {
+
+            return limit;
+        }
+
+        public int getMaximum() {
+
+            return 10;
+        }
+
+        public void onSample(long durationInMillis, int rows, boolean locked, boolean timedOut) {
+
+            samples++;
+            limit = nextLimit;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.hertz.api.corebusiness.execution;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class KeyedSerializerTest {
+
+    @Test
+    void freeKeyIsTakenAtOnce() {
+
+        KeyedSerializer serializer = new KeyedSerializer("test", true);
+
+        assertTrue(serializer.acquire("A", new Turn()));
+        assertTrue(serializer.acquire("B", new Turn()));
+    }
+
+    @Test
+    void busyKeyIsHandedOverInOrder() {
+
+        KeyedSerializer serializer = new KeyedSerializer("test", true);
+        Turn second = new Turn();
+        Turn third = new Turn();
+
+        assertTrue(serializer.acquire("A", new Turn()));
+        assertFalse(serializer.acquire("A", second));
+        assertFalse(serializer.acquire("A", third));
+
+        serializer.release("A");
+        assertEquals(1, second.runs);
+        assertEquals(0, third.runs);
+
+        serializer.release("A");
+        assertEquals(1, third.runs);
+
+        serializer.release("A");
+        assertTrue(serializer.acquire("A", new Turn()));
+    }
+
+    @Test
+    void disabledSerializerNeverQueues() {
+
+        KeyedSerializer serializer = new KeyedSerializer("test", false);
+
+        assertTrue(serializer.acquire("A", new Turn()));
+        assertTrue(serializer.acquire("A", new Turn()));
+        assertTrue(serializer.acquire(null, new Turn()));
+    }
+
+    @Test
+    void cancelledTaskIsNeverHandedTheKey() {
+
+        KeyedSerializer serializer = new KeyedSerializer("test", true);
+        Turn cancelled = new Turn();
+        Turn next = new Turn();
+
+        serializer.acquire("A", new Turn());
+        serializer.acquire("A", cancelled);
+        serializer.acquire("A", next);
+
+        assertTrue(serializer.cancel("A", cancelled));
+        serializer.release("A");
+
+        assertEquals(0, cancelled.runs);
+        assertEquals(1, next.runs);
+    }
+
+    @Test
+    void keyIsFreeAfterOnlyWaiterCancels() {
+
+        KeyedSerializer serializer = new KeyedSerializer("test", true);
+        Turn cancelled = new Turn();
+
+        serializer.acquire("A", new Turn());
+        serializer.acquire("A", cancelled);
+        assertTrue(serializer.cancel("A", cancelled));
+
+        serializer.release("A");
+        assertEquals(0, cancelled.runs);
+        assertTrue(serializer.acquire("A", new Turn()));
+    }
+
+    @Test
+    void cancelAfterHandOverFails() {
+
+        KeyedSerializer serializer = new KeyedSerializer("test", true);
+        Turn waiter = new Turn();
+
+        serializer.acquire("A", new Turn());
+        serializer.acquire("A", waiter);
+        serializer.release("A");
+
+        assertEquals(1, waiter.runs);
+        assertFalse(serializer.cancel("A", waiter));
+    }
+
+    @Test
+    void sharedKeyIsHeldUntilTheLastHolderReleases() {
+
+        KeyedSerializer serializer = new KeyedSerializer("test", true);
+        KeyedSerializer.SharedKey sharedKey = serializer.newSharedKey("A");
+        Turn other = new Turn();
+
+        assertTrue(sharedKey.acquire(new Turn()));
+        assertTrue(sharedKey.acquire(new Turn()));
+        assertFalse(serializer.acquire("A", other));
+
+        sharedKey.release();
+        assertEquals(0, other.runs);
+
+        sharedKey.release();
+        assertEquals(1, other.runs);
+    }
+
+    @Test
+    void sharedKeyWaitersStartTogether() {
+
+        KeyedSerializer serializer = new KeyedSerializer("test", true);
+        KeyedSerializer.SharedKey sharedKey = serializer.newSharedKey("A");
+        Turn first = new Turn();
+        Turn second = new Turn();
+
+        serializer.acquire("A", new Turn());
+        assertFalse(sharedKey.acquire(first));
+        assertFalse(sharedKey.acquire(second));
+
+        serializer.release("A");
+        assertEquals(1, first.runs);
+        assertEquals(1, second.runs);
+
+        // Both hold the key: it is passed on only once both give it back.
+        Turn other = new Turn();
+        assertFalse(serializer.acquire("A", other));
+        sharedKey.release();
+        assertEquals(0, other.runs);
+        sharedKey.release();
+        assertEquals(1, other.runs);
+    }
+
+    @Test
+    void sharedKeyGivesUpItsPlaceWhenEveryWaiterCancels() {
+
+        KeyedSerializer serializer = new KeyedSerializer("test", true);
+        KeyedSerializer.SharedKey sharedKey = serializer.newSharedKey("A");
+        Turn first = new Turn();
+        Turn second = new Turn();
+        Turn other = new Turn();
+
+        serializer.acquire("A", new Turn());
+        sharedKey.acquire(first);
+        sharedKey.acquire(second);
+        serializer.acquire("A", other);
+
+        assertTrue(sharedKey.cancel(first));
+        assertTrue(sharedKey.cancel(second));
+        assertFalse(sharedKey.cancel(second));
+
+        serializer.release("A");
+        assertEquals(0, first.runs);
+        assertEquals(0, second.runs);
+        assertEquals(1, other.runs);
+    }
+
+    /** Counts the times the key was handed over. */
+    private static class Turn implements Runnable {
+
+        private int runs = 0;
+
+        public void run() {
+
+            runs++;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.hertz.api.transform;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+
+import org.junit.jupiter.api.Test;
+
+class SequenceNumberGeneratorTest {
+
+    @Test
+    void requestNeverRepeatsANumber() {
+
+        SequenceNumberGenerator numbers = new SequenceNumberGenerator(120000, 1);
+        HashSet<String> seen = new HashSet<String>();
+
+        for (int i = 0; i < 500; i++) {
+            assertTrue(seen.add(numbers.nextSequenceNumber()));
+        }
+    }
+
+    @Test
+    void requestsWithTheSameClockNeverShareANumber() {
+
+        SequenceNumberGenerator first = new SequenceNumberGenerator(130000, 1);
+        SequenceNumberGenerator second = new SequenceNumberGenerator(130000, 1);
+        HashSet<String> seen = new HashSet<String>();
+
+        for (int i = 0; i < 200; i++) {
+            assertTrue(seen.add(first.nextSequenceNumber()));
+            assertTrue(seen.add(second.nextSequenceNumber()));
+        }
+    }
+
+    @Test
+    void numbersNeverStartBelowTheClock() {
+
+        SequenceNumberGenerator numbers = new SequenceNumberGenerator(140000, 5);
+
+        assertTrue(Long.parseLong(numbers.nextSequenceNumber()) >= 140005L);
+    }
+
+    @Test
+    void counterStartsAgainFromTheClockWhenFarBehind() {
+
+        // Late in the day, then just after midnight.
+        new SequenceNumberGenerator(235959000, 1).nextSequenceNumber();
+        SequenceNumberGenerator afterMidnight = new SequenceNumberGenerator(100, 1);
+
+        assertEquals("101", afterMidnight.nextSequenceNumber());
+    }
+
+    @Test
+    void requestNeverStartsABlockBelowItsLastOne() {
+
+        SequenceNumberGenerator numbers = new SequenceNumberGenerator(300, 0);
+        long previous = Long.parseLong(numbers.nextSequenceNumber());
+        for (int i = 1; i < 64; i++) {
+            previous = Long.parseLong(numbers.nextSequenceNumber());
+        }
+
+        // Another request moves the counter far ahead: this request's next block must not start again from its clock.
+        new SequenceNumberGenerator(235959000, 0).nextSequenceNumber();
+
+        for (int i = 0; i < 200; i++) {
+            long next = Long.parseLong(numbers.nextSequenceNumber());
+            assertTrue(next > previous);
+            previous = next;
+        }
+    }
+
+    @Test
+    void heavyLoadNeverReissuesANumber() {
+
+        // Enough requests at one clock reading to push the counter far ahead of the clock.
+        HashSet<String> seen = new HashSet<String>();
+        for (int i = 0; i < 20000; i++) {
+            assertTrue(seen.add(new SequenceNumberGenerator(200000000, 1).nextSequenceNumber()));
+        }
+
+        SequenceNumberGenerator later = new SequenceNumberGenerator(200000500, 1);
+        for (int i = 0; i < 200; i++) {
+            assertTrue(seen.add(later.nextSequenceNumber()));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.hertz.api.transform;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+class SymbolTableTest {
+
+    @Test
+    void equalValuesShareOneInstance() {
+
+        SymbolTable symbols = new SymbolTable();
+        String first = symbols.intern(new String("HZ"));
+
+        assertSame(first, symbols.intern(new String("HZ")));
+        assertEquals(1, symbols.size());
+    }
+
+    @Test
+    void rangeIsMatchedWithoutCopying() {
+
+        SymbolTable symbols = new SymbolTable();
+        String kept = symbols.intern("US00101");
+
+        assertSame(kept, symbols.intern("1,HZ,US00101,NA", 5, 12));
+        assertEquals("NA", symbols.intern("1,HZ,US00101,NA", 13, 15));
+        assertEquals(2, symbols.size());
+    }
+
+    @Test
+    void emptyAndNullValues() {
+
+        SymbolTable symbols = new SymbolTable();
+
+        assertNull(symbols.intern(null));
+        assertSame(symbols.intern(""), symbols.intern("a,,b", 2, 2));
+    }
+
+    @Test
+    void valuesWithTheSameHashAreKeptApart() {
+
+        SymbolTable symbols = new SymbolTable();
+
+        // "Aa" and "BB" have the same String hash.
+        String aa = symbols.intern("Aa");
+        String bb = symbols.intern("BB");
+
+        assertEquals("Aa", aa);
+        assertEquals("BB", bb);
+        assertSame(aa, symbols.intern(new String("Aa")));
+        assertSame(bb, symbols.intern(new String("BB")));
+    }
+
+    @Test
+    void valuesSurviveGrowth() {
+
+        SymbolTable symbols = new SymbolTable();
+        String[] kept = new String[1000];
+        for (int i = 0; i < kept.length; i++) {
+            kept[i] = symbols.intern("V" + i);
+        }
+
+        assertEquals(kept.length, symbols.size());
+        for (int i = 0; i < kept.length; i++) {
+            assertSame(kept[i], symbols.intern("V" + i));
+        }
+    }
+
+    @Test
+    void fullTableReturnsNewValuesWithoutKeepingThem() {
+
+        SymbolTable symbols = new SymbolTable();
+        for (int i = 0; i < 5000; i++) {
+            symbols.intern("V" + i);
+        }
+
+        assertEquals(4096, symbols.size());
+
+        String value = new String("NEW");
+        assertSame(value, symbols.intern(value));
+        assertNotSame(value, symbols.intern(new String("NEW")));
+    }
+}
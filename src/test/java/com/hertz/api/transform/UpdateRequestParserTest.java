@@ -0,0 +1,176 @@
+package com.hertz.api.transform;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.Test;
+
+import com.hertz.api.corebusiness.UpdateRow;
+import com.hertz.rates.common.utils.FastStringTokenizer;
+import com.hertz.rates.common.utils.HertzDateTime;
+
+/**
+ * The one pass parser must cut and map a request exactly as the tokenizers it replaces.
+ */
+class UpdateRequestParserTest {
+
+    private final static String ROW = "1,HZ,US00101,Location,NA,A,BASE,R,DY,20261101,20261231,200.00,45.00,15.00";
+
+    @Test
+    void cutsRowsAndFieldsLikeTheTokenizers() {
+
+        String[] requests = {
+                ROW,
+                ROW + "|" + ROW.replace(",A,", ",B,"),
+                ROW + "|",
+                "a,,b|c",
+                "a|b,c|",
+        };
+
+        for (int i = 0; i < requests.length; i++) {
+            assertEquals(tokenize(requests[i]), parse(requests[i], 20), requests[i]);
+        }
+    }
+
+    @Test
+    void emptyOrNullRequestHasNoRows() {
+
+        assertFalse(new UpdateRequestParser("", 14).nextRow());
+        assertFalse(new UpdateRequestParser(null, 14).nextRow());
+    }
+
+    @Test
+    void fieldsBeyondTheCapacityAreOnlyCounted() {
+
+        UpdateRequestParser parser = new UpdateRequestParser("a,b,c,d", 2);
+
+        assertTrue(parser.nextRow());
+        assertEquals(4, parser.getFieldCount());
+        assertEquals(2, parser.getKeptFieldCount());
+        assertEquals("a", parser.getField(0));
+        assertEquals("b", parser.getField(1));
+        assertEquals(1, parser.getFieldLength(1));
+    }
+
+    @Test
+    void symbolFieldsShareOneString() {
+
+        SymbolTable symbols = new SymbolTable();
+        UpdateRequestParser parser = new UpdateRequestParser("x,HZ|y,HZ", 2);
+
+        parser.nextRow();
+        String first = parser.getField(1, symbols);
+        parser.nextRow();
+        String second = parser.getField(1, symbols);
+
+        assertEquals("HZ", first);
+        assertSame(first, second);
+    }
+
+    @Test
+    void mapsRowsLikeTheTokenizerPath() {
+
+        String[] rows = {
+                ROW,
+                ROW.replace(",Location,", ",State,"),
+                ROW.replace(",A,", ",,"),
+                ROW.replace(",200.00,", ",0,"),
+                ROW.replace(",200.00,", ",abc,"),
+                ROW.replace(",45.00,", ",0.00,"),
+                ROW.replace(",15.00", ",-1"),
+                ROW.replace(",20261101,", ",x,"),
+                ROW + ",extra",
+                "1,HZ,US00101",
+        };
+
+        StringBuilder request = new StringBuilder();
+        for (int i = 0; i < rows.length; i++) {
+            if (i > 0) {
+                request.append('|');
+            }
+            request.append(rows[i]);
+        }
+
+        ArrayList<UpdateRow> expected = new ArrayList<UpdateRow>();
+        UpdateRowMapper tokenizerMapper = new UpdateRowMapper();
+        FastStringTokenizer inputTokenizer = new FastStringTokenizer(request.toString(), '|');
+        while (inputTokenizer.hasMoreTokens()) {
+            expected.add(tokenizerMapper.convertLineToObject(inputTokenizer.nextToken(), 1));
+        }
+
+        ArrayList<UpdateRow> actual = new ArrayList<UpdateRow>();
+        UpdateRowMapper parserMapper = new UpdateRowMapper();
+        UpdateRequestParser parser = new UpdateRequestParser(request.toString(), UpdateRowMapper.NUMBER_OF_COLUMNS_TO_EXPECT);
+        while (parser.nextRow()) {
+            actual.add(parserMapper.convertRowToObject(parser, 1));
+        }
+
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSameRow(expected.get(i), actual.get(i), "row " + i);
+        }
+    }
+
+    private static void assertSameRow(UpdateRow expected, UpdateRow actual, String message) {
+
+        assertEquals(expected.getErrorCode(), actual.getErrorCode(), message);
+        assertEquals(expected.getCompanyId(), actual.getCompanyId(), message);
+        assertEquals(expected.getLocation(), actual.getLocation(), message);
+        assertEquals(expected.getPlaceTypeCode(), actual.getPlaceTypeCode(), message);
+        assertEquals(expected.getRegion(), actual.getRegion(), message);
+        assertEquals(expected.getVehicle(), actual.getVehicle(), message);
+        assertEquals(expected.getPlanId(), actual.getPlanId(), message);
+        assertEquals(expected.getPlanIdTypeCode(), actual.getPlanIdTypeCode(), message);
+        assertEquals(expected.getClassTimeCode(), actual.getClassTimeCode(), message);
+        assertSameDate(expected.getStartDate(), actual.getStartDate(), message);
+        assertSameDate(expected.getEndDate(), actual.getEndDate(), message);
+        assertEquals(expected.getRate(), actual.getRate(), message);
+        assertEquals(expected.getScaledRate(), actual.getScaledRate(), message);
+        assertEquals(expected.getExtraDay(), actual.getExtraDay(), message);
+        assertEquals(expected.getExtraHour(), actual.getExtraHour(), message);
+    }
+
+    private static void assertSameDate(HertzDateTime expected, HertzDateTime actual, String message) {
+
+        if (expected == null) {
+            assertNull(actual, message);
+        }
+        else {
+            assertEquals(expected.getHertzSystemDate(), actual.getHertzSystemDate(), message);
+        }
+    }
+
+    private static ArrayList<ArrayList<String>> tokenize(String request) {
+
+        ArrayList<ArrayList<String>> rows = new ArrayList<ArrayList<String>>();
+        FastStringTokenizer rowTokenizer = new FastStringTokenizer(request, '|');
+        while (rowTokenizer.hasMoreTokens()) {
+            ArrayList<String> fields = new ArrayList<String>();
+            FastStringTokenizer fieldTokenizer = new FastStringTokenizer(rowTokenizer.nextToken(), ',');
+            while (fieldTokenizer.hasMoreTokens()) {
+                fields.add(fieldTokenizer.nextToken());
+            }
+            rows.add(fields);
+        }
+        return rows;
+    }
+
+    private static ArrayList<ArrayList<String>> parse(String request, int maxFields) {
+
+        ArrayList<ArrayList<String>> rows = new ArrayList<ArrayList<String>>();
+        UpdateRequestParser parser = new UpdateRequestParser(request, maxFields);
+        while (parser.nextRow()) {
+            ArrayList<String> fields = new ArrayList<String>();
+            for (int field = 0; field < parser.getKeptFieldCount(); field++) {
+                fields.add(parser.getField(field));
+            }
+            rows.add(fields);
+        }
+        return rows;
+    }
+}